@@ -0,0 +1,114 @@
+package simpledb;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+
+/**
+ * Adaptive Replacement Cache (Megiddo and Modha). Resident pages are split
+ * between T1 (seen once recently) and T2 (seen at least twice), each kept
+ * in LRU order. The ids of pages evicted from T1 and T2 are remembered in
+ * the ghost lists B1 and B2, and a miss that hits a ghost list moves the
+ * target size p of T1 towards recency (B1) or frequency (B2). Scans only
+ * fill T1, so the frequently used pages in T2 survive them.
+ */
+public class ArcEvictionPolicy implements EvictionPolicy {
+
+    private static final int IN_T1 = 1;
+    private static final int IN_T2 = 2;
+
+    private int c;
+    private int p;
+    private PageId[] pids;
+    private int[] list;
+    // iteration order is LRU first for all four lists
+    private LinkedHashSet<Integer> t1;
+    private LinkedHashSet<Integer> t2;
+    private LinkedHashSet<PageId> b1;
+    private LinkedHashSet<PageId> b2;
+
+    public void init(int numFrames) {
+        c = numFrames;
+        p = 0;
+        pids = new PageId[numFrames];
+        list = new int[numFrames];
+        t1 = new LinkedHashSet<Integer>();
+        t2 = new LinkedHashSet<Integer>();
+        b1 = new LinkedHashSet<PageId>();
+        b2 = new LinkedHashSet<PageId>();
+    }
+
+    public void pageLoaded(int frame, PageId pid) {
+        pids[frame] = pid;
+        if (b1.contains(pid)) {
+            p = Math.min(c, p + Math.max(b2.size() / b1.size(), 1));
+            b1.remove(pid);
+            list[frame] = IN_T2;
+            t2.add(frame);
+        } else if (b2.contains(pid)) {
+            p = Math.max(0, p - Math.max(b1.size() / b2.size(), 1));
+            b2.remove(pid);
+            list[frame] = IN_T2;
+            t2.add(frame);
+        } else {
+            // keep |T1| + |B1| <= c and the directory size <= 2c
+            if (t1.size() + b1.size() >= c && !b1.isEmpty()) {
+                removeFirst(b1);
+            } else if (t1.size() + t2.size() + b1.size() + b2.size() >= 2 * c
+                    && !b2.isEmpty()) {
+                removeFirst(b2);
+            }
+            list[frame] = IN_T1;
+            t1.add(frame);
+        }
+    }
+
+    public void pageAccessed(int frame) {
+        if (list[frame] == IN_T1) {
+            t1.remove(frame);
+        } else {
+            t2.remove(frame);
+        }
+        list[frame] = IN_T2;
+        t2.add(frame);
+    }
+
+    public void pageRemoved(int frame) {
+        if (list[frame] == IN_T1) {
+            t1.remove(frame);
+            b1.add(pids[frame]);
+        } else if (list[frame] == IN_T2) {
+            t2.remove(frame);
+            b2.add(pids[frame]);
+        }
+        // ghost lists never hold more than c entries each
+        if (b1.size() > c)
+            removeFirst(b1);
+        if (b2.size() > c)
+            removeFirst(b2);
+        list[frame] = 0;
+        pids[frame] = null;
+    }
+
+    public int chooseVictim(PageId incoming, IntPredicate evictable) {
+        boolean fromT1 = !t1.isEmpty()
+                && (t1.size() > p || (incoming != null && b2.contains(incoming) && t1.size() == p));
+        int victim = fromT1 ? first(t1, evictable) : first(t2, evictable);
+        if (victim == -1)
+            victim = fromT1 ? first(t2, evictable) : first(t1, evictable);
+        return victim;
+    }
+
+    private static int first(LinkedHashSet<Integer> frames, IntPredicate evictable) {
+        for (int frame : frames) {
+            if (evictable.test(frame))
+                return frame;
+        }
+        return -1;
+    }
+
+    private static void removeFirst(LinkedHashSet<PageId> ghosts) {
+        Iterator<PageId> it = ghosts.iterator();
+        it.next();
+        it.remove();
+    }
+}
@@ -0,0 +1,51 @@
+package simpledb;
+
+/**
+ * BatchAdapter feeds the tuples of a DbIterator to batch operators, a
+ * batch at a time.
+ *
+ * @see TupleAdapter for the other direction
+ */
+public class BatchAdapter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DbIterator child;
+    private final int batchSize;
+    private transient ColumnBatch batch;
+
+    public BatchAdapter(DbIterator child) {
+        this(child, ColumnBatch.DEFAULT_SIZE);
+    }
+
+    public BatchAdapter(DbIterator child, int batchSize) {
+        this.child = child;
+        this.batchSize = batchSize;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.child.open();
+        this.batch = new ColumnBatch(this.child.getTupleDesc(), this.batchSize);
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        this.batch.clear();
+        while (!this.batch.isFull() && this.child.hasNext()) {
+            this.batch.addTuple(this.child.next());
+        }
+        return this.batch.size() == 0 ? null : this.batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.child.getTupleDesc();
+    }
+
+    public void close() {
+        this.child.close();
+        this.batch = null;
+    }
+}
@@ -0,0 +1,186 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchAggregate is the batch counterpart of Aggregate: it computes an
+ * aggregate over one column of its child, optionally grouped by another
+ * column, and returns the results in batches with the same TupleDesc and
+ * values as IntegerAggregator's. Without grouping the aggregate runs over
+ * the int[] column in one tight loop per batch.
+ * <p>
+ * The aggregate column must be an int, except for COUNT.
+ */
+public class BatchAggregate implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+
+    private transient ArrayList<ColumnBatch> results;
+    private int nextResult;
+
+    /**
+     * @param child
+     *            The BatchIterator that is feeding us batches.
+     * @param afield
+     *            The column over which we are computing an aggregate.
+     * @param gfield
+     *            The column over which we are grouping the result, or -1 if
+     *            there is no grouping
+     * @param aop
+     *            The aggregation operator to use: MIN, MAX, SUM, AVG or
+     *            COUNT
+     */
+    public BatchAggregate(BatchIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        TupleDesc ctd = child.getTupleDesc();
+        if (aop != Aggregator.Op.COUNT && ctd.getFieldType(afield) != Type.INT_TYPE)
+            throw new IllegalArgumentException(aop + " of a non-int field");
+        switch (aop) {
+        case MIN: case MAX: case SUM: case AVG: case COUNT:
+            break;
+        default:
+            throw new IllegalArgumentException("unsupported op " + aop);
+        }
+        if (gfield == Aggregator.NO_GROUPING) {
+            this.td = new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { "aggregateVal" });
+        } else {
+            this.td = new TupleDesc(new Type[] { ctd.getFieldType(gfield), Type.INT_TYPE },
+                    new String[] { "groupVal", "aggregateVal" });
+        }
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.child.open();
+        this.results = null;
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (this.results == null) {
+            this.results = this.gfield == Aggregator.NO_GROUPING ? aggregate() : aggregateGroups();
+            this.nextResult = 0;
+        }
+        if (this.nextResult >= this.results.size()) {
+            return null;
+        }
+        return this.results.get(this.nextResult++);
+    }
+
+    private int initial() {
+        switch (this.aop) {
+        case MIN: return Integer.MAX_VALUE;
+        case MAX: return Integer.MIN_VALUE;
+        default: return 0;
+        }
+    }
+
+    // the whole child as one group
+    private ArrayList<ColumnBatch> aggregate() throws DbException, TransactionAbortedException {
+        int acc = initial();
+        int count = 0;
+        ColumnBatch b;
+        while ((b = this.child.nextBatch()) != null) {
+            int rows = b.numSelected();
+            count += rows;
+            if (this.aop == Aggregator.Op.COUNT)
+                continue;
+            int[] col = b.getInts(this.afield);
+            int[] sel = b.getSelection();
+            switch (this.aop) {
+            case MIN:
+                for (int i = 0; i < rows; i++)
+                    acc = Math.min(acc, col[sel == null ? i : sel[i]]);
+                break;
+            case MAX:
+                for (int i = 0; i < rows; i++)
+                    acc = Math.max(acc, col[sel == null ? i : sel[i]]);
+                break;
+            default: // SUM, AVG
+                for (int i = 0; i < rows; i++)
+                    acc += col[sel == null ? i : sel[i]];
+                break;
+            }
+        }
+        ArrayList<ColumnBatch> out = new ArrayList<ColumnBatch>();
+        if (count > 0) {
+            ColumnBatch r = new ColumnBatch(this.td, 1);
+            r.ints[0][r.addRow()] = result(acc, count);
+            out.add(r);
+        }
+        return out;
+    }
+
+    private int result(int acc, int count) {
+        switch (this.aop) {
+        case COUNT: return count;
+        case AVG: return acc / count;
+        default: return acc;
+        }
+    }
+
+    // one accumulator and count per value of the group field
+    private ArrayList<ColumnBatch> aggregateGroups() throws DbException, TransactionAbortedException {
+        HashMap<Object, int[]> groups = new HashMap<Object, int[]>();
+        boolean intGroups = this.td.getFieldType(0) == Type.INT_TYPE;
+        ColumnBatch b;
+        while ((b = this.child.nextBatch()) != null) {
+            int rows = b.numSelected();
+            int[] col = this.aop == Aggregator.Op.COUNT ? null : b.getInts(this.afield);
+            int[] gints = intGroups ? b.getInts(this.gfield) : null;
+            String[] gstrings = intGroups ? null : b.getStrings(this.gfield);
+            for (int i = 0; i < rows; i++) {
+                int r = b.selectedRow(i);
+                Object key = intGroups ? (Object) gints[r] : gstrings[r];
+                int[] g = groups.get(key);
+                if (g == null) {
+                    g = new int[] { initial(), 0 };
+                    groups.put(key, g);
+                }
+                g[1]++;
+                switch (this.aop) {
+                case MIN: g[0] = Math.min(g[0], col[r]); break;
+                case MAX: g[0] = Math.max(g[0], col[r]); break;
+                case COUNT: break;
+                default: g[0] += col[r]; break;
+                }
+            }
+        }
+        ArrayList<ColumnBatch> out = new ArrayList<ColumnBatch>();
+        ColumnBatch r = null;
+        for (Map.Entry<Object, int[]> e : groups.entrySet()) {
+            if (r == null || r.isFull()) {
+                r = new ColumnBatch(this.td);
+                out.add(r);
+            }
+            int row = r.addRow();
+            if (intGroups)
+                r.ints[0][row] = (Integer) e.getKey();
+            else
+                r.strings[0][row] = (String) e.getKey();
+            r.ints[1][row] = result(e.getValue()[0], e.getValue()[1]);
+        }
+        return out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // the results are kept, only handed out again
+        this.nextResult = 0;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void close() {
+        this.child.close();
+        this.results = null;
+    }
+}
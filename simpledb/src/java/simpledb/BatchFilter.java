@@ -0,0 +1,122 @@
+package simpledb;
+
+/**
+ * BatchFilter is the batch counterpart of Filter: it narrows the selection
+ * vector of each batch of its child to the rows that satisfy a Predicate.
+ * Comparisons of an int field with an IntField operand run over the int[]
+ * column; anything else goes through Field.compare row by row.
+ */
+public class BatchFilter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate p;
+    private final BatchIterator child;
+
+    public BatchFilter(Predicate p, BatchIterator child) {
+        this.p = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return this.p;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.child.open();
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        ColumnBatch b;
+        // skip batches with nothing left, so callers don't see many empty ones
+        while ((b = this.child.nextBatch()) != null) {
+            int[] out = b.selectionBuffer();
+            int n;
+            if (b.getTupleDesc().getFieldType(this.p.getField()) == Type.INT_TYPE
+                    && this.p.getOperand() instanceof IntField && this.p.getOp() != Predicate.Op.LIKE) {
+                n = filterInts(b, out);
+            } else {
+                n = filterFields(b, out);
+            }
+            b.setSelection(out, n);
+            if (n > 0) {
+                return b;
+            }
+        }
+        return null;
+    }
+
+    // the selected rows whose int field compares true to the operand
+    private int filterInts(ColumnBatch b, int[] out) {
+        int[] col = b.getInts(this.p.getField());
+        int v = ((IntField) this.p.getOperand()).getValue();
+        int[] sel = b.getSelection();
+        int rows = b.numSelected();
+        int n = 0;
+        // one loop per operator, so the comparison is not decided per row
+        switch (this.p.getOp()) {
+        case EQUALS:
+            for (int i = 0; i < rows; i++) {
+                int r = sel == null ? i : sel[i];
+                if (col[r] == v) out[n++] = r;
+            }
+            break;
+        case NOT_EQUALS:
+            for (int i = 0; i < rows; i++) {
+                int r = sel == null ? i : sel[i];
+                if (col[r] != v) out[n++] = r;
+            }
+            break;
+        case GREATER_THAN:
+            for (int i = 0; i < rows; i++) {
+                int r = sel == null ? i : sel[i];
+                if (col[r] > v) out[n++] = r;
+            }
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int i = 0; i < rows; i++) {
+                int r = sel == null ? i : sel[i];
+                if (col[r] >= v) out[n++] = r;
+            }
+            break;
+        case LESS_THAN:
+            for (int i = 0; i < rows; i++) {
+                int r = sel == null ? i : sel[i];
+                if (col[r] < v) out[n++] = r;
+            }
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int i = 0; i < rows; i++) {
+                int r = sel == null ? i : sel[i];
+                if (col[r] <= v) out[n++] = r;
+            }
+            break;
+        default:
+            throw new IllegalStateException("unexpected op " + this.p.getOp());
+        }
+        return n;
+    }
+
+    private int filterFields(ColumnBatch b, int[] out) {
+        int rows = b.numSelected();
+        int n = 0;
+        for (int i = 0; i < rows; i++) {
+            int r = b.selectedRow(i);
+            if (b.getField(this.p.getField(), r).compare(this.p.getOp(), this.p.getOperand()))
+                out[n++] = r;
+        }
+        return n;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.child.getTupleDesc();
+    }
+
+    public void close() {
+        this.child.close();
+    }
+}
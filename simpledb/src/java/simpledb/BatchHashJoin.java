@@ -0,0 +1,203 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * BatchHashJoin is the batch counterpart of HashEquiJoin for int join
+ * fields: child1.field1 = child2.field2. open reads all of child2 into
+ * column arrays and a hash table on its join column; the batches of
+ * child1 are then probed a row at a time against the int[] join column,
+ * with no Field objects. Output rows have child1's fields then child2's,
+ * like Join.
+ * <p>
+ * child2 is kept in memory whole: unlike HashEquiJoin there is no memory
+ * budget and no spilling, so child2 should be the smaller input.
+ */
+public class BatchHashJoin implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child1, child2;
+    private final int field1, field2;
+    private final TupleDesc td;
+
+    // child2, by column, in the order read
+    private transient int[][] bInts;
+    private transient String[][] bStrings;
+    private transient int bRows;
+    // the hash table: the first build row of each bucket, then the next
+    // build row of the same bucket, -1 at the end of a chain
+    private transient int[] heads;
+    private transient int[] next;
+    private transient int shift;
+
+    // where the probe is: the current batch of child1, the next selected
+    // row of it to probe, the row being probed and the next build row of
+    // its chain (-1 once it is done)
+    private transient ColumnBatch probe;
+    private transient int probePos;
+    private transient int probeRow;
+    private transient int match;
+    private transient boolean probeDone;
+    private transient ColumnBatch out;
+
+    /**
+     * @param field1
+     *            The int field of child1 to join on
+     * @param field2
+     *            The int field of child2 to join on
+     * @param child1
+     *            The BatchIterator that is probed, a batch at a time
+     * @param child2
+     *            The BatchIterator that is built into a hash table
+     */
+    public BatchHashJoin(int field1, int field2, BatchIterator child1, BatchIterator child2) {
+        if (child1.getTupleDesc().getFieldType(field1) != Type.INT_TYPE
+                || child2.getTupleDesc().getFieldType(field2) != Type.INT_TYPE)
+            throw new IllegalArgumentException("can only join on int fields");
+        this.child1 = child1;
+        this.child2 = child2;
+        this.field1 = field1;
+        this.field2 = field2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.child1.open();
+        this.child2.open();
+        build();
+        this.out = new ColumnBatch(this.td);
+        startProbe();
+    }
+
+    // read child2 into the column arrays and hash its join column
+    private void build() throws DbException, TransactionAbortedException {
+        TupleDesc td2 = this.child2.getTupleDesc();
+        int cols = td2.numFields();
+        int cap = ColumnBatch.DEFAULT_SIZE;
+        this.bInts = new int[cols][];
+        this.bStrings = new String[cols][];
+        for (int j = 0; j < cols; j++) {
+            if (td2.getFieldType(j) == Type.INT_TYPE)
+                this.bInts[j] = new int[cap];
+            else
+                this.bStrings[j] = new String[cap];
+        }
+        this.bRows = 0;
+        ColumnBatch b;
+        while ((b = this.child2.nextBatch()) != null) {
+            int rows = b.numSelected();
+            if (this.bRows + rows > cap) {
+                cap = Math.max(2 * cap, this.bRows + rows);
+                for (int j = 0; j < cols; j++) {
+                    if (this.bInts[j] != null)
+                        this.bInts[j] = Arrays.copyOf(this.bInts[j], cap);
+                    else
+                        this.bStrings[j] = Arrays.copyOf(this.bStrings[j], cap);
+                }
+            }
+            int[] sel = b.getSelection();
+            for (int j = 0; j < cols; j++) {
+                if (this.bInts[j] != null) {
+                    int[] from = b.getInts(j), to = this.bInts[j];
+                    for (int i = 0; i < rows; i++)
+                        to[this.bRows + i] = from[sel == null ? i : sel[i]];
+                } else {
+                    String[] from = b.getStrings(j), to = this.bStrings[j];
+                    for (int i = 0; i < rows; i++)
+                        to[this.bRows + i] = from[sel == null ? i : sel[i]];
+                }
+            }
+            this.bRows += rows;
+        }
+
+        // a power of two of buckets, at least twice the rows
+        int bits = 1;
+        while ((1 << bits) < 2 * this.bRows)
+            bits++;
+        this.shift = 32 - bits;
+        this.heads = new int[1 << bits];
+        Arrays.fill(this.heads, -1);
+        this.next = new int[this.bRows];
+        int[] keys = this.bInts[this.field2];
+        // backwards, so each chain lists its rows in the order read
+        for (int r = this.bRows - 1; r >= 0; r--) {
+            int h = bucket(keys[r]);
+            this.next[r] = this.heads[h];
+            this.heads[h] = r;
+        }
+    }
+
+    private int bucket(int key) {
+        return (key * 0x9E3779B9) >>> this.shift;
+    }
+
+    private void startProbe() {
+        this.probe = null;
+        this.probePos = 0;
+        this.match = -1;
+        this.probeDone = false;
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        this.out.clear();
+        int[] keys = this.bInts[this.field2];
+        while (!this.out.isFull() && !this.probeDone) {
+            if (this.match == -1) {
+                if (this.probe == null || this.probePos >= this.probe.numSelected()) {
+                    this.probe = this.child1.nextBatch();
+                    this.probePos = 0;
+                    if (this.probe == null)
+                        this.probeDone = true;
+                    continue;
+                }
+                this.probeRow = this.probe.selectedRow(this.probePos++);
+                this.match = this.heads[bucket(this.probe.getInts(this.field1)[this.probeRow])];
+                continue;
+            }
+            if (keys[this.match] == this.probe.getInts(this.field1)[this.probeRow])
+                emit(this.probeRow, this.match);
+            this.match = this.next[this.match];
+        }
+        return this.out.size() == 0 ? null : this.out;
+    }
+
+    // add probe row r1 joined with build row r2 to the output batch
+    private void emit(int r1, int r2) {
+        int row = this.out.addRow();
+        int n1 = this.probe.getTupleDesc().numFields();
+        for (int j = 0; j < n1; j++) {
+            if (this.out.ints[j] != null)
+                this.out.ints[j][row] = this.probe.ints[j][r1];
+            else
+                this.out.strings[j][row] = this.probe.strings[j][r1];
+        }
+        for (int j = 0; j < this.bInts.length; j++) {
+            if (this.bInts[j] != null)
+                this.out.ints[n1 + j][row] = this.bInts[j][r2];
+            else
+                this.out.strings[n1 + j][row] = this.bStrings[j][r2];
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // the hash table stays, only child1 is read again
+        this.child1.rewind();
+        startProbe();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void close() {
+        this.child1.close();
+        this.child2.close();
+        this.bInts = null;
+        this.bStrings = null;
+        this.heads = null;
+        this.next = null;
+        this.probe = null;
+        this.out = null;
+    }
+}
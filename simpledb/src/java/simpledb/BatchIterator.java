@@ -0,0 +1,44 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the batch-at-a-time counterpart of DbIterator: instead
+ * of one Tuple per call, nextBatch hands out a ColumnBatch of up to
+ * ColumnBatch.DEFAULT_SIZE rows, so operators work on whole columns in
+ * tight loops. BatchAdapter and TupleAdapter convert between the two, so
+ * batch operators can be put under or over tuple-at-a-time ones.
+ *
+ * @see ColumnBatch
+ */
+public interface BatchIterator extends Serializable {
+
+    /**
+     * Opens the iterator. This must be called before nextBatch.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch from the operator, or null when there are no
+     * more rows. A batch returned may have no selected rows. It is only
+     * valid until the next call, which may reuse it.
+     */
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the TupleDesc associated with the batches of this iterator.
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
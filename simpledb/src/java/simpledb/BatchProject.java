@@ -0,0 +1,89 @@
+package simpledb;
+
+/**
+ * BatchProject is the batch counterpart of Project: it keeps some columns
+ * of its child's batches, in the order asked for. The selected rows of
+ * those columns are copied down into a batch of its own, so what comes
+ * out has no selection vector and no dropped rows left in it.
+ */
+public class BatchProject implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private final int[] fields;
+    private final TupleDesc td;
+    private transient ColumnBatch out;
+
+    /**
+     * @param fields
+     *            The fields of the child's TupleDesc to keep, in the order
+     *            they come out in
+     * @param child
+     *            The BatchIterator that is feeding us batches
+     */
+    public BatchProject(int[] fields, BatchIterator child) {
+        this.child = child;
+        this.fields = fields.clone();
+        TupleDesc ctd = child.getTupleDesc();
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = ctd.getFieldType(fields[i]);
+            names[i] = ctd.getFieldName(fields[i]);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.child.open();
+        this.out = null;
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        ColumnBatch b = this.child.nextBatch();
+        if (b == null) {
+            return null;
+        }
+        if (this.out == null || this.out.capacity() < b.capacity()) {
+            this.out = new ColumnBatch(this.td, b.capacity());
+        }
+        this.out.clear();
+        int rows = b.numSelected();
+        int[] sel = b.getSelection();
+        for (int i = 0; i < rows; i++) {
+            this.out.addRow();
+        }
+        // one loop per column
+        for (int j = 0; j < this.fields.length; j++) {
+            int f = this.fields[j];
+            if (this.out.ints[j] != null) {
+                int[] from = b.getInts(f), to = this.out.ints[j];
+                if (sel == null) {
+                    System.arraycopy(from, 0, to, 0, rows);
+                } else {
+                    for (int i = 0; i < rows; i++)
+                        to[i] = from[sel[i]];
+                }
+            } else {
+                String[] from = b.getStrings(f), to = this.out.strings[j];
+                for (int i = 0; i < rows; i++)
+                    to[i] = from[sel == null ? i : sel[i]];
+            }
+        }
+        return this.out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void close() {
+        this.child.close();
+        this.out = null;
+    }
+}
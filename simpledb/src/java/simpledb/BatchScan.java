@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * BatchScan is the batch counterpart of SeqScan: it reads the pages of a
+ * table through the BufferPool like SeqScan does (scan ring, read ahead)
+ * and decodes the tuples of HeapPages straight into the columns of a
+ * ColumnBatch, without making a Tuple per row. Pages of other layouts are
+ * read through their tuples.
+ * <p>
+ * If only some columns are asked for with setColumns, the others are not
+ * decoded and their values in the batches are meaningless.
+ */
+public class BatchScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final int batchSize;
+    private boolean[] decode;
+
+    private transient HeapFile hf;
+    private transient BufferRing ring;
+    private transient ReadAhead readAhead;
+    private transient ColumnBatch batch;
+    private transient Page page;
+    private int pageNo;
+    // next slot to look at on page, for HeapPages
+    private int slot;
+    // the rest of page's tuples, for other pages
+    private transient Iterator<Tuple> tuples;
+
+    /**
+     * Creates a batch scan over the specified table as a part of the
+     * specified transaction.
+     */
+    public BatchScan(TransactionId tid, int tableid) {
+        this(tid, tableid, ColumnBatch.DEFAULT_SIZE);
+    }
+
+    public BatchScan(TransactionId tid, int tableid, int batchSize) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.batchSize = batchSize;
+        this.decode = new boolean[getTupleDesc().numFields()];
+        Arrays.fill(this.decode, true);
+    }
+
+    /**
+     * Only decode the given fields from now on.
+     */
+    public void setColumns(int... fields) {
+        Arrays.fill(this.decode, false);
+        for (int f : fields) {
+            this.decode[f] = true;
+        }
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.hf = (HeapFile) Database.getCatalog().getDatabaseFile(this.tableid);
+        BufferPool bp = Database.getBufferPool();
+        this.ring = bp.newScanRing(this.hf.numPages());
+        this.readAhead = new ReadAhead(bp, this.tableid, this.ring);
+        this.batch = new ColumnBatch(getTupleDesc(), this.batchSize);
+        this.page = null;
+        this.pageNo = -1;
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        this.batch.clear();
+        while (!this.batch.isFull()) {
+            if (this.page == null && !nextPage()) {
+                break;
+            }
+            if (this.page instanceof HeapPage) {
+                HeapPage hp = (HeapPage) this.page;
+                this.slot = hp.fillBatch(this.slot, this.batch, this.decode);
+                if (this.slot >= hp.numSlots) {
+                    this.page = null;
+                }
+            } else {
+                while (!this.batch.isFull() && this.tuples.hasNext()) {
+                    this.batch.addTuple(this.tuples.next());
+                }
+                if (!this.tuples.hasNext()) {
+                    this.page = null;
+                }
+            }
+        }
+        return this.batch.size() == 0 ? null : this.batch;
+    }
+
+    // move on to the next page of the file, false if there is none
+    private boolean nextPage() throws DbException, TransactionAbortedException {
+        int numPages = this.hf.numPages();
+        if (this.pageNo + 1 >= numPages) {
+            return false;
+        }
+        this.pageNo++;
+        this.readAhead.beforeRead(this.pageNo, numPages);
+        this.page = Database.getBufferPool().getPage(this.tid,
+                new HeapPageId(this.tableid, this.pageNo), Permissions.READ_ONLY, this.ring);
+        this.slot = 0;
+        if (!(this.page instanceof HeapPage)) {
+            this.tuples = this.hf.pageTuples(this.page);
+        }
+        return true;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return Database.getCatalog().getTupleDesc(this.tableid);
+    }
+
+    public void close() {
+        if (this.ring != null) {
+            this.ring.release();
+            this.ring = null;
+        }
+        this.readAhead = null;
+        this.batch = null;
+        this.page = null;
+        this.tuples = null;
+    }
+}
@@ -2,8 +2,20 @@ package simpledb;
 
 import java.io.*;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -27,17 +39,105 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Largest number of frames a scan ring may own. */
+    public static final int SCAN_RING_PAGES = 32;
+
+    /** Scans of tables bigger than 1/SCAN_RING_FRACTION of the pool
+    get a ring. */
+    public static final int SCAN_RING_FRACTION = 4;
+
+    /** Largest number of pages a scan may read ahead of itself. */
+    public static final int MAX_READ_AHEAD = 16;
+
+    /** Threads doing read-ahead for all the scans of a pool. */
+    public static final int PREFETCH_THREADS = 2;
+
+    /** Longest run of adjacent pages the background writer writes at once. */
+    public static final int WRITER_MAX_RUN = 16;
+
+    /** Default fraction of the pool the background writer lets be dirty. */
+    public static final double WRITER_DIRTY_TARGET = 0.1;
+
+    // how often the background writer looks for dirty pages, and how long
+    // it stays around without work
+    static final long WRITER_INTERVAL_MS = 50;
+    static final long WRITER_IDLE_MS = 1000;
+
+    // frames of the buffer pool; pageTable maps a resident PageId to the
+    // index of the frame holding it, and freeFrames holds the indices of
+    // frames that are currently empty.
     private Page[] pages;
-    private int[] LRU;
+    private HashMap<PageId, Integer> pageTable;
+    private ArrayDeque<Integer> freeFrames;
+    private final EvictionPolicy policy;
+    // the scan ring owning each frame, null for frames of the shared pool.
+    // The eviction policy only knows about the shared frames.
+    private BufferRing[] ringOwner;
+    private boolean scanRings = true;
+    
+    private final LockManager lockManager;
+    // pages each running transaction has dirtied, protected by this
+    private HashMap<TransactionId, HashSet<PageId>> dirtiedBy;
+    
+    // hit/miss counters for getPage, protected by this
+    private long hits;
+    private long misses;
+
+    // reads issued ahead of scans that have not put their page in the pool
+    // yet, protected by this. Whoever brings a page in by other means
+    // removes its entry, and a read ahead finding its entry gone drops its
+    // page, since it may be older than the one in the pool.
+    private HashMap<PageId, Prefetch> prefetching;
+    // frames holding a page read ahead that nobody asked for yet; the
+    // first request is its load as far as the eviction policy is concerned
+    private boolean[] unclaimed;
+    private ThreadPoolExecutor prefetcher;
+    private boolean readAhead = true;
+    private long prefetched;
+
+    // background writer, protected by this. It trickles pages that are
+    // dirty but no longer write locked to disk, so that eviction mostly
+    // finds clean victims.
+    private Thread writer;
+    private boolean backgroundWriter = true;
+    private double dirtyTarget = WRITER_DIRTY_TARGET;
+    private long writerStart;
+    private long writerPages;
+    private long writerWrites;
+    private long evictions;
+    private long dirtyEvictions;
     
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, using CLOCK to
+     * choose which page to evict.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+    		this(numPages, new ClockEvictionPolicy());
+    }
+    
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the eviction policy; it must not be shared with
+     *        another BufferPool.
+     */
+    public BufferPool(int numPages, EvictionPolicy policy) {
     		pages = new Page[numPages];
-    		LRU = new int[numPages];
+    		ringOwner = new BufferRing[numPages];
+    		this.policy = policy;
+    		this.policy.init(numPages);
+    		pageTable = new HashMap<PageId, Integer>(numPages * 2);
+    		lockManager = new LockManager();
+    		dirtiedBy = new HashMap<TransactionId, HashSet<PageId>>();
+    		freeFrames = new ArrayDeque<Integer>(numPages);
+    		prefetching = new HashMap<PageId, Prefetch>();
+    		unclaimed = new boolean[numPages];
+    		for (int i = 0; i < numPages; i++) {
+    			freeFrames.addLast(i);
+    		}
     }
     
     public static int getPageSize() {
@@ -69,64 +169,344 @@ public class BufferPool {
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
      */
-    public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-    		//iterate over the pages array 
-	    	for (int i=0; i<pages.length;i++) {
-	    		//Page nextpage = pages[i];
-	    		HeapPage nextpage = (HeapPage) pages[i];
-	    		if (nextpage != null) {
-	    			//if a matching pageId is found, return that page
-		    		if (nextpage.getId().equals(pid)) {
-		    			LRU[i]++;
-		    			return nextpage;
-		    		}
-	    		} 
-	    	} 
-	    	
-	    	if(isFull()) {
-	    		this.evictPage(); 
-	    	}
+    		return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions, as part
+     * of a sequential scan that owns the given ring. If the page has to be
+     * read from disk it is placed into one of the ring's frames rather than
+     * in the shared part of the pool.
+     *
+     * @param ring the scan's ring, or null to use the shared pool
+     * @see #getPage(TransactionId, PageId, Permissions)
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm,
+            BufferRing ring) throws TransactionAbortedException, DbException {
+    		// lock first, outside of the pool's monitor, since this may block
+    		if (tid != null) {
+    			lockManager.acquire(tid, pid, perm == null ? Permissions.READ_ONLY : perm);
+    		}
+    		waitForPrefetch(pid);
+    		return fetchPage(pid, ring);
+    }
+
+    // a page read ahead of a scan on the prefetcher's threads
+    private class Prefetch implements Callable<Page> {
+    		final PageId pid;
+    		final BufferRing ring;
+    		final FutureTask<Page> task;
+
+    		Prefetch(PageId pid, BufferRing ring) {
+    			this.pid = pid;
+    			this.ring = ring;
+    			this.task = new FutureTask<Page>(this);
+    		}
+
+    		public Page call() {
+    			Page page = null;
+    			try {
+    				if (isPrefetching(this)) {
+    					DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+    					page = file.readPage(pid);
+    				}
+    			} finally {
+    				installPrefetched(this, page);
+    			}
+    			return page;
+    		}
+    }
+
+    /**
+     * Start reading a page into the pool in the background, for a scan
+     * that will ask for it soon. No lock is taken; the scan locks the page
+     * when it gets it.
+     *
+     * @param ring the scan's ring, or null to use the shared pool
+     * @return the read, or null if the page is resident already or read
+     *         ahead is off
+     */
+    public synchronized Future<Page> prefetchPage(PageId pid, BufferRing ring) {
+    		if (!readAhead || pageTable.containsKey(pid)) {
+    			return null;
+    		}
+    		Prefetch p = prefetching.get(pid);
+    		if (p == null) {
+    			p = new Prefetch(pid, ring != null && ring.pool == this ? ring : null);
+    			prefetching.put(pid, p);
+    			prefetcher().execute(p.task);
+    		}
+    		return p.task;
+    }
+
+    /**
+     * Returns how many pages a scan using the given ring may have read
+     * ahead at once: half the ring, so that read ahead pages don't recycle
+     * each other, or a small part of the pool for scans without a ring.
+     */
+    public synchronized int maxReadAhead(BufferRing ring) {
+    		if (!readAhead) {
+    			return 0;
+    		}
+    		int frames = ring != null && ring.pool == this ? ring.size() / 2 : pages.length / 8;
+    		return Math.min(MAX_READ_AHEAD, frames);
+    }
+
+    /** Turn read ahead for sequential scans on or off. */
+    public synchronized void setReadAheadEnabled(boolean enabled) {
+    		readAhead = enabled;
+    }
+
+    /** Return the number of pages read ahead that made it into the pool. */
+    public synchronized long getPrefetchCount() {
+    		return prefetched;
+    }
+
+    private synchronized ThreadPoolExecutor prefetcher() {
+    		if (prefetcher == null) {
+    			// threads go away when no scan has used them for a while
+    			prefetcher = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS,
+    					1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+    						Thread t = new Thread(r, "prefetcher");
+    						t.setDaemon(true);
+    						return t;
+    					});
+    			prefetcher.allowCoreThreadTimeOut(true);
+    		}
+    		return prefetcher;
+    }
+
+    private synchronized boolean isPrefetching(Prefetch p) {
+    		return prefetching.get(p.pid) == p;
+    }
+
+    // helper function to put a page read ahead into the pool, unless
+    // somebody brought the page in meanwhile
+    private synchronized void installPrefetched(Prefetch p, Page page) {
+    		if (prefetching.get(p.pid) != p) {
+    			return;
+    		}
+    		prefetching.remove(p.pid);
+    		if (page == null || pageTable.containsKey(p.pid)) {
+    			return;
+    		}
+    		try {
+    			if (p.ring != null) {
+    				putRingPage(page, p.ring);
+    			} else {
+    				putPage(page);
+    			}
+    			unclaimed[pageTable.get(p.pid)] = true;
+    			prefetched++;
+    		} catch (DbException e) {
+    			// no frame to spare; the scan will read the page itself
+    		}
+    }
+
+    // helper function to wait, outside of the pool's monitor, for a read
+    // ahead of the page that is still running
+    private void waitForPrefetch(PageId pid) {
+    		Prefetch p;
+    		synchronized (this) {
+    			p = prefetching.get(pid);
+    		}
+    		if (p == null) {
+    			return;
+    		}
+    		try {
+    			p.task.get();
+    		} catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    		} catch (ExecutionException e) {
+    			// fetchPage reads the page then
+    		}
+    }
+
+    // helper function to find a page in the pool or read it from disk
+    private synchronized Page fetchPage(PageId pid, BufferRing ring) throws DbException {
+    		if (ring != null && ring.pool != this) {
+    			ring = null; // the pool was reset under the scan
+    		}
+    		// look the page up in the page table
+    		Integer frame = pageTable.get(pid);
+    		if (frame != null) {
+    			hits++;
+    			if (unclaimed[frame]) {
+    				unclaimed[frame] = false;
+    			} else if (ringOwner[frame] == null) {
+    				policy.pageAccessed(frame);
+    			} else if (ring == null) {
+    				// a ring page wanted outside of a scan is kept for good
+    				handToPool(frame);
+    			}
+    			return pages[frame];
+    		}
+    		misses++;
+    		// a read ahead of this page that is still running is too late
+    		prefetching.remove(pid);
 	    	
 	    	//if no page with the pid is found, read page from disk using HeapFile
 	    	DbFile dbfile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-	    Page page = dbfile.readPage(pid);
-	    
+	    Page page;
+	    try {
+	    		page = dbfile.readPage(pid);
+	    } catch (ChecksumException e) {
+	    		throw new DbException(e.getMessage());
+	    }
+
 		// put the page in BufferPool's empty slot
-		putPage(page);
+		if (ring != null) {
+			putRingPage(page, ring);
+		} else {
+			putPage(page);
+		}
 		return page;
     }
     // helper function to check if buffer is full
     private boolean isFull() {
-	    	for (int i=0; i<pages.length; i++) {
-	    		if (pages[i] == null) {
-	    			return false;
+	    	return freeFrames.isEmpty();
+    }
+    
+    // helper function to put page in a frame. If the page is already
+    // resident its frame is reused, otherwise a free frame is taken,
+    // evicting a page first if the pool is full.
+    private void putPage(Page page) throws DbException {
+	    	Integer frame = pageTable.get(page.getId());
+	    	if (frame != null) {
+	    		pages[frame] = page;
+	    		unclaimed[frame] = false;
+	    		if (ringOwner[frame] != null) {
+	    			handToPool(frame);
+	    		} else {
+	    			policy.pageAccessed(frame);
+	    		}
+	    		return;
+	    	}
+	    	frame = takeFrame(page.getId());
+	    	pageTable.put(page.getId(), frame);
+	    	pages[frame] = page;
+	    	unclaimed[frame] = false;
+	    	policy.pageLoaded(frame, page.getId());
+    }
+    
+    // helper function to put a page read by a scan into the scan's ring,
+    // recycling the frame of the ring's oldest page once the ring is full.
+    // While the pool still has free frames nobody is hurt by the scan, so
+    // its pages simply go into the shared pool.
+    private void putRingPage(Page page, BufferRing ring) throws DbException {
+	    	if (!isFull()) {
+	    		putPage(page);
+	    		return;
+	    	}
+	    	int slot = ring.next;
+	    	ring.next = (ring.next + 1) % ring.frames.length;
+	    	int frame = ring.frames[slot];
+	    	if (frame != -1) {
+	    		if (pages[frame].isDirty() != null) {
+	    			// somebody updated the page, leave it to the shared pool
+	    			handToPool(frame);
+	    			frame = -1;
+	    		} else {
+	    			pageTable.remove(pages[frame].getId());
+	    			pages[frame] = null;
 	    		}
-	    	} return true;
+	    	}
+	    	if (frame == -1) {
+	    		frame = takeFrame(page.getId());
+	    		ringOwner[frame] = ring;
+	    		ring.frames[slot] = frame;
+	    	}
+	    	pageTable.put(page.getId(), frame);
+	    	pages[frame] = page;
+	    	unclaimed[frame] = false;
     }
     
-    // helper function to put page in empty slot
-    // does not check if full, should be done beforehand
-    private void putPage(Page page) {
-	    	for (int i=0; i<pages.length;i++) {
-	    		if (pages[i] == null) {
-		    		pages[i] = page;
-		    		LRU[i] = 1;
-		    		break;
-	    		} 
-		} 
+    // helper function to get an empty frame, evicting a page if needed
+    private int takeFrame(PageId incoming) throws DbException {
+	    	if (isFull()) {
+	    		this.evictPage(incoming);
+	    	}
+	    	Integer frame = freeFrames.pollFirst();
+	    	if (frame == null) {
+	    		throw new DbException("BufferPool has no free frame.");
+	    	}
+	    	return frame;
     }
+    
+    // helper function to take a frame out of its ring and make its page
+    // an ordinary page of the shared pool
+    private void handToPool(int frame) {
+	    	detachFromRing(frame);
+	    	policy.pageLoaded(frame, pages[frame].getId());
+    }
+    
+    private void detachFromRing(int frame) {
+	    	BufferRing ring = ringOwner[frame];
+	    	for (int i = 0; i < ring.frames.length; i++) {
+	    		if (ring.frames[i] == frame) {
+	    			ring.frames[i] = -1;
+	    		}
+	    	}
+	    	ringOwner[frame] = null;
+    }
+
+    /**
+     * Returns a ring of frames for a sequential scan over a table with the
+     * given number of pages, or null if the table is small enough compared
+     * to the pool that the scan should just use the shared pool.
+     *
+     * @param tablePages number of pages of the table to be scanned
+     */
+    public synchronized BufferRing newScanRing(int tablePages) {
+    		if (!scanRings || tablePages <= pages.length / SCAN_RING_FRACTION) {
+    			return null;
+    		}
+    		int size = Math.max(2, Math.min(SCAN_RING_PAGES, pages.length / 8));
+    		return new BufferRing(this, size);
+    }
+
+    /**
+     * Give the frames of a scan ring back to the pool. Pages still in the
+     * ring stay resident as ordinary pages.
+     */
+    public synchronized void releaseRing(BufferRing ring) {
+    		if (ring.pool != this) {
+    			return;
+    		}
+    		for (int i = 0; i < ring.frames.length; i++) {
+    			int frame = ring.frames[i];
+    			if (frame != -1 && ringOwner[frame] == ring) {
+    				handToPool(frame);
+    			}
+    		}
+    }
+
+    /** Turn scan rings for large sequential scans on or off. */
+    public synchronized void setScanRingsEnabled(boolean enabled) {
+    		scanRings = enabled;
+    }
+
     // -1 for not found, else return index
     private int getIndex(PageId pid) {
-	    for (int i=0; i<pages.length;i++) {
-			Page nextpage = pages[i];
-			if (nextpage != null) {
-				//if a matching pageId is found, return that page
-		    		if (nextpage.getId().equals(pid)) {
-		    			return i;
-		    		}
-			} 
-		} return -1;
+	    Integer frame = pageTable.get(pid);
+	    return frame == null ? -1 : frame;
+    }
+
+    /** Return the number of pages currently held by this buffer pool. */
+    public synchronized int numResidentPages() {
+    		return pageTable.size();
+    }
+
+    /** Return the number of getPage calls served from the pool. */
+    public synchronized long getHitCount() {
+    		return hits;
+    }
+
+    /** Return the number of getPage calls that had to read from disk. */
+    public synchronized long getMissCount() {
+    		return misses;
     }
     /**
      * Releases the lock on a page.
@@ -138,8 +518,7 @@ public class BufferPool {
      * @param pid the ID of the page to unlock
      */
     public  void releasePage(TransactionId tid, PageId pid) {
-        // some code goes here
-        // not necessary for lab1|lab2
+    		lockManager.release(tid, pid);
     }
 
     /**
@@ -148,15 +527,17 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      */
     public void transactionComplete(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+    		transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
-        // some code goes here
-        // not necessary for lab1|lab2
-        return false;
+    		return lockManager.holdsLock(tid, p);
+    }
+
+    /** Return the lock manager holding the page locks of this pool. */
+    public LockManager getLockManager() {
+    		return lockManager;
     }
 
     /**
@@ -168,8 +549,294 @@ public class BufferPool {
      */
     public void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+    		try {
+    			if (commit) {
+    				// NO-FORCE: the pages stay in the pool, only their
+    				// update records must reach the log
+    				logDirtyPages(tid);
+    			} else {
+    				revertPages(tid);
+    			}
+    		} finally {
+    			// strict 2PL: locks go only once the outcome is settled
+    			lockManager.releaseAll(tid);
+    		}
+    }
+
+    // helper function to throw away the changes of an aborted transaction
+    // that are still only in memory. Pages it wrote to disk were already
+    // restored by LogFile.rollback. The before image may hold committed
+    // changes that never reached disk (NO-FORCE), so the page is put back
+    // to it and stays dirty instead of being reread.
+    private synchronized void revertPages(TransactionId tid) {
+    		HashSet<PageId> dirtied = dirtiedBy.remove(tid);
+    		if (dirtied == null) {
+    			return;
+    		}
+    		for (PageId pid : dirtied) {
+    			// slots the transaction took are free again
+    			DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+    			if (file instanceof HeapFile) {
+    				((HeapFile) file).pageFreed(pid.getPageNumber());
+    			}
+    			int i = getIndex(pid);
+    			if (i != -1 && tid.equals(pages[i].isDirty())) {
+    				Page before = pages[i].getBeforeImage();
+    				before.markDirty(true, tid);
+    				pages[i] = before;
+    			}
+    		}
+    }
+
+    /**
+     * Write an update record for every page the transaction dirtied that is
+     * still dirty in the pool, and make the current state of every page it
+     * dirtied that is still in the pool their new before image. Called at
+     * commit, before the commit record forces the log; the pages themselves
+     * are written later (NO-FORCE).
+     */
+    public synchronized void logDirtyPages(TransactionId tid) throws IOException {
+    		HashSet<PageId> dirtied = dirtiedBy.remove(tid);
+    		if (dirtied == null) {
+    			return;
+    		}
+    		LogFile log = Database.getLogFile();
+    		for (PageId pid : dirtied) {
+    			int i = getIndex(pid);
+    			if (i == -1) {
+    				continue;
+    			}
+    			if (tid.equals(pages[i].isDirty())) {
+    				log.logWrite(tid, pages[i].getLoggedImage(), pid, pages[i].getPageData());
+    			}
+    			// a page flushed while the transaction ran (eviction, a
+    			// checkpoint) is clean now but its before image still predates
+    			// the transaction; a later abort would restore that image and
+    			// lose these committed changes
+    			pages[i].setBeforeImage();
+    		}
+    }
+
+    /**
+     * Turn the background writer on or off.
+     *
+     * @param dirtyTarget the writer only writes while more than this
+     *        fraction of the frames hold dirty pages
+     */
+    public synchronized void setBackgroundWriter(boolean enabled, double dirtyTarget) {
+    		backgroundWriter = enabled;
+    		this.dirtyTarget = dirtyTarget;
+    		notifyAll();
+    }
+
+    /** @return the fraction of the frames holding a dirty page. */
+    public synchronized double getDirtyRatio() {
+    		return countDirty() / (double) pages.length;
+    }
+
+    /** @return the number of pages the background writer wrote. */
+    public synchronized long getWriterPageCount() {
+    		return writerPages;
+    }
+
+    /** @return the number of writes the background writer issued; adjacent
+        pages are written together. */
+    public synchronized long getWriterWriteCount() {
+    		return writerWrites;
+    }
+
+    /** @return pages per second written by the background writer since it
+        first started. */
+    public synchronized double getWriterThroughput() {
+    		if (writerPages == 0) {
+    			return 0;
+    		}
+    		return writerPages / ((System.nanoTime() - writerStart) / 1e9);
+    }
+
+    /** @return the number of evictions, and of those that had to write a
+        dirty victim on the evicting thread. */
+    public synchronized long[] getEvictionCounts() {
+    		return new long[] { evictions, dirtyEvictions };
+    }
+
+    private int countDirty() {
+    		int dirty = 0;
+    		for (Page page : pages) {
+    			if (page != null && page.isDirty() != null) {
+    				dirty++;
+    			}
+    		}
+    		return dirty;
+    }
+
+    // start the background writer if it isn't running
+    private void startWriter() {
+    		if (writer != null || !backgroundWriter) {
+    			return;
+    		}
+    		if (writerStart == 0) {
+    			writerStart = System.nanoTime();
+    		}
+    		writer = new Thread(new Runnable() {
+    			public void run() {
+    				runWriter();
+    			}
+    		}, "page writer");
+    		writer.setDaemon(true);
+    		writer.start();
+    }
+
+    // body of the background writer: every WRITER_INTERVAL_MS, or when an
+    // eviction had to write a page itself, write dirty pages until the pool
+    // is down to its dirty target. Exits after WRITER_IDLE_MS without work
+    // or once the pool is no longer the database's.
+    private void runWriter() {
+    		long idleSince = System.currentTimeMillis();
+    		while (true) {
+    			int written;
+    			try {
+    				written = writeDirtyPages();
+    			} catch (IOException e) {
+    				e.printStackTrace();
+    				written = 0;
+    			}
+    			synchronized (this) {
+    				long now = System.currentTimeMillis();
+    				if (written > 0) {
+    					idleSince = now;
+    				}
+    				if (Database.getBufferPool() != this || now - idleSince > WRITER_IDLE_MS) {
+    					writer = null;
+    					return;
+    				}
+    				try {
+    					wait(WRITER_INTERVAL_MS);
+    				} catch (InterruptedException e) {
+    					writer = null;
+    					return;
+    				}
+    			}
+    		}
+    }
+
+    // one round of the background writer. Picks the dirty pages whose
+    // dirtier is done with them (those a running transaction holds write
+    // locked may change under us and would be logged again anyway), sorts
+    // them by file and page number and writes runs of adjacent pages with
+    // one write each, holding the pool's monitor for one run at a time.
+    private int writeDirtyPages() throws IOException {
+    		ArrayList<PageId> candidates = new ArrayList<PageId>();
+    		int excess;
+    		synchronized (this) {
+    			// a pool that was replaced may not even find its tables
+    			if (!backgroundWriter || Database.getBufferPool() != this) {
+    				return 0;
+    			}
+    			excess = countDirty() - (int) (dirtyTarget * pages.length);
+    			if (excess <= 0) {
+    				return 0;
+    			}
+    			for (Page page : pages) {
+    				if (page != null && isWritable(page)) {
+    					candidates.add(page.getId());
+    				}
+    			}
+    		}
+    		Collections.sort(candidates, (a, b) -> a.getTableId() != b.getTableId()
+    				? Integer.compare(a.getTableId(), b.getTableId())
+    				: Integer.compare(a.getPageNumber(), b.getPageNumber()));
+    		int written = 0;
+    		int start = 0;
+    		while (start < candidates.size() && written < excess) {
+    			int end = start + 1;
+    			while (end < candidates.size() && end - start < WRITER_MAX_RUN
+    					&& adjacent(candidates.get(end - 1), candidates.get(end))) {
+    				end++;
+    			}
+    			written += writeRun(candidates.subList(start, end));
+    			start = end;
+    		}
+    		return written;
+    }
+
+    private static boolean adjacent(PageId a, PageId b) {
+    		return a.getTableId() == b.getTableId() && a.getPageNumber() + 1 == b.getPageNumber();
+    }
+
+    private boolean isWritable(Page page) {
+    		TransactionId dirtier = page.isDirty();
+    		return dirtier != null && !lockManager.holdsExclusive(dirtier, page.getId());
+    }
+
+    // write the pages of a run that are still resident and writable. The
+    // run may have holes by now; each stretch of adjacent pages is written
+    // with one call. Same write-ahead rule as flushPage: the update records
+    // are forced first.
+    private synchronized int writeRun(List<PageId> run) throws IOException {
+    		if (Database.getBufferPool() != this) {
+    			return 0;
+    		}
+    		ArrayList<Page> toWrite = new ArrayList<Page>();
+    		// one image of each page, for both the log and the file
+    		ArrayList<byte[]> images = new ArrayList<byte[]>();
+    		LogFile log = Database.getLogFile();
+    		for (PageId pid : run) {
+    			int i = getIndex(pid);
+    			if (i != -1 && isWritable(pages[i])) {
+    				Page p = pages[i];
+    				byte[] image = p.getPageData();
+    				log.logWrite(p.isDirty(), p.getLoggedImage(), pid, image);
+    				p.setLoggedImage(image);
+    				toWrite.add(p);
+    				images.add(image);
+    			}
+    		}
+    		if (toWrite.isEmpty()) {
+    			return 0;
+    		}
+    		log.force();
+    		int start = 0;
+    		for (int end = 1; end <= toWrite.size(); end++) {
+    			if (end == toWrite.size()
+    					|| !adjacent(toWrite.get(end - 1).getId(), toWrite.get(end).getId())) {
+    				PageId first = toWrite.get(start).getId();
+    				List<byte[]> stretch = images.subList(start, end);
+    				DbFile file = Database.getCatalog().getDatabaseFile(first.getTableId());
+    				if (file instanceof HeapFile) {
+    					((HeapFile) file).writePages(first.getPageNumber(), stretch);
+    				} else {
+    					for (int j = start; j < end; j++) {
+    						file.writePage(toWrite.get(j).getId(), images.get(j));
+    					}
+    				}
+    				writerWrites++;
+    				start = end;
+    			}
+    		}
+    		for (Page p : toWrite) {
+    			p.markDirty(false, null);
+    		}
+    		writerPages += toWrite.size();
+    		return toWrite.size();
+    }
+
+    // helper function to cache the pages dirtied by an insert or delete
+    // and remember which transaction dirtied them
+    private synchronized void putDirtyPages(TransactionId tid, ArrayList<Page> dirtied)
+        throws DbException {
+    		startWriter();
+    		for (Page page : dirtied) {
+    			// replaces the cached version of the page, or caches it
+    			putPage(page);
+    			page.markDirty(true, tid);
+    			HashSet<PageId> set = dirtiedBy.get(tid);
+    			if (set == null) {
+    				set = new HashSet<PageId>();
+    				dirtiedBy.put(tid, set);
+    			}
+    			set.add(page.getId());
+    		}
     }
 
     /**
@@ -195,22 +862,30 @@ public class BufferPool {
     	//DbFile file = Database.getCatalog().getDatabaseFile(tableId);
     	HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
         ArrayList<Page> al = file.insertTuple(tid, t);
-        //System.out.println("al.size: " + al.size());
-        
-        for (int i=0; i<al.size(); i++) {
-            PageId pid = al.get(i).getId();
-            
-            
-            HeapPage page = (HeapPage) al.get(i);
-            //System.out.println("page's empty slots " + page.getNumEmptySlots());
-            // getPage() already checks if in buffer and evict if necessary
-            this.putPage(page);
-            this.getPage(tid, pid, null);
-            pages[getIndex(pid)].markDirty(true, tid);
-            
-            //HeapPage page3 = (HeapPage) pages[getIndex(pid)];
-
-        }
+        putDirtyPages(tid, al);
+    }
+
+    /**
+     * Add many tuples to the specified table on behalf of transaction tid,
+     * for bulk loads. Pages are filled one after the other and each page
+     * modified is marked dirty and cached once, instead of once per tuple.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param ts the tuples to add
+     * @see #insertTuple
+     */
+    public void insertTuples(TransactionId tid, int tableId, List<Tuple> ts)
+        throws DbException, IOException, TransactionAbortedException {
+    		DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+    		if (!(file instanceof HeapFile)) {
+    			for (Tuple t : ts) {
+    				insertTuple(tid, tableId, t);
+    			}
+    			return;
+    		}
+    		ArrayList<Page> al = ((HeapFile) file).insertTuples(tid, ts);
+    		putDirtyPages(tid, al);
     }
 
     /**
@@ -232,12 +907,7 @@ public class BufferPool {
         // not necessary for lab1
     		DbFile file = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
     		ArrayList<Page> al = file.deleteTuple(tid, t);
-        for (int i=0; i<al.size(); i++) {
-            PageId pid = al.get(i).getId();
-            // getPage() already checks if in buffer and evict if necessary
-            this.getPage(tid, pid, null);
-            pages[getIndex(pid)].markDirty(true, tid);
-        }
+        putDirtyPages(tid, al);
     }
 
     /**
@@ -248,11 +918,31 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-    		for(int i=0; i<pages.length; i++) {
-    			if(pages[i] != null) {
-    				flushPage(pages[i].getId());
+    		for (PageId pid : new ArrayList<PageId>(pageTable.keySet())) {
+    			flushPage(pid);
+    		}
+    }
+
+    /** @return the pages that are dirty in the pool right now. */
+    public synchronized ArrayList<PageId> dirtyPages() {
+    		ArrayList<PageId> dirty = new ArrayList<PageId>();
+    		for (Page page : pages) {
+    			if (page != null && page.isDirty() != null) {
+    				dirty.add(page.getId());
     			}
     		}
+    		return dirty;
+    }
+
+    /**
+     * Flush those of the given pages that are still dirty. The pool is
+     * locked for one page at a time only, so transactions keep running
+     * while a checkpoint writes its pages.
+     */
+    public void flushPagesGradually(Collection<PageId> pids) throws IOException {
+    		for (PageId pid : pids) {
+    			flushPage(pid);
+    		}
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -266,9 +956,19 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-    		int i = getIndex(pid);
+    		prefetching.remove(pid);
+    		Integer i = pageTable.remove(pid);
+    		if (i == null) {
+    			return;
+    		}
+    		if (ringOwner[i] != null) {
+    			detachFromRing(i);
+    		} else {
+    			policy.pageRemoved(i);
+    		}
     		pages[i] = null;
-    		LRU[i] = 0;
+    		unclaimed[i] = false;
+    		freeFrames.addLast(i);
     }
 
     /**
@@ -279,54 +979,78 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
     		int i = getIndex(pid);
-    		if(pages[i] != null && pages[i].isDirty() != null) {
-    			// if page exists and is dirty, write
-    			Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(pages[i]);
-    			pages[i].markDirty(false, null);
+    		if(i != -1 && pages[i].isDirty() != null) {
+    			// if page exists and is dirty, write. write-ahead logging:
+    			// the update record has to be on disk before the page is
+    			Page p = pages[i];
+    			// one image for the log record, the write and its checksum
+    			byte[] image = p.getPageData();
+    			LogFile log = Database.getLogFile();
+    			// against the image last logged, not the before image: bytes
+    			// the transaction changed back since then must be redone too
+    			log.logWrite(p.isDirty(), p.getLoggedImage(), pid, image);
+    			p.setLoggedImage(image);
+    			log.force();
+    			Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(pid, image);
+    			p.markDirty(false, null);
     		}
     }
 
-    /** Write all pages of the specified transaction to disk.
+    /** Write all pages of the specified transaction to disk. Commit does
+     * not need this any more (see logDirtyPages), but it is still a way to
+     * force a transaction's pages out.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+    		HashSet<PageId> dirtied = dirtiedBy.remove(tid);
+    		if (dirtied == null) {
+    			return;
+    		}
+    		for (PageId pid : dirtied) {
+    			int i = getIndex(pid);
+    			if (i != -1) {
+    				flushPage(pid);
+    				// also the pages flushed earlier, see logDirtyPages
+    				pages[i].setBeforeImage();
+    			}
+    		}
     }
 
     /**
-     * Discards a page from the buffer pool.
+     * Discards a page from the buffer pool, chosen by the eviction policy.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     *
+     * @param incoming the page that will take the freed frame
      */
-    private synchronized  void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for lab1
-    		int i = getLRU();
-    		if(pages[i] != null && pages[i].isDirty() != null) {
-				// evict first page that is dirty. flush before discarding.
-			PageId pid = pages[i].getId();
-			try {
-				flushPage(pid);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-			discardPage(pid);
-			LRU[i] = 0;
-    		}
-    }
-    
-    // helper function to get LRU page
-    private int getLRU() {
-    		int ret = 0;
-    		int minval = Integer.MAX_VALUE;
-    		for(int i=0; i<pages.length; i++) {
-    			if(pages[i] != null) {
-    				if (LRU[i] < minval) {
-    					ret = i;
-    					minval = LRU[i];
+    private synchronized  void evictPage(PageId incoming) throws DbException {
+    		int i = policy.chooseVictim(incoming,
+    				frame -> pages[frame] != null && ringOwner[frame] == null);
+    		if (i == -1) {
+    			// every frame belongs to a ring, e.g. scans that were never
+    			// closed; take one of them back
+    			for (int f = 0; f < pages.length && i == -1; f++) {
+    				if (pages[f] != null) {
+    					i = f;
     				}
     			}
     		}
-    		return ret;
+    		if (i == -1) {
+    			throw new DbException("BufferPool has no page to evict.");
+    		}
+    		PageId pid = pages[i].getId();
+    		evictions++;
+    		if (pages[i].isDirty() != null) {
+    			dirtyEvictions++;
+    			// the background writer is behind
+    			notifyAll();
+    			// dirty victim, flush before discarding. This may steal the
+    			// page of a running transaction; flushPage logs it first.
+    			try {
+    				flushPage(pid);
+    			} catch (IOException e) {
+    				throw new DbException("could not flush page " + pid + ": " + e.getMessage());
+    			}
+    		}
+    		discardPage(pid);
     }
 
 }
@@ -0,0 +1,39 @@
+package simpledb;
+
+/**
+ * A BufferRing is a small set of BufferPool frames owned privately by one
+ * large sequential scan. Pages the scan has to read from disk are placed
+ * into the ring's frames round-robin instead of into the shared pool, so a
+ * scan of a table much bigger than the pool only ever occupies the ring's
+ * frames and leaves the pages of other queries alone.
+ * <p>
+ * Rings are handed out by {@link BufferPool#newScanRing} and must be
+ * given back with {@link #release} when the scan is done; the pages still
+ * in the ring then become ordinary pages of the pool.
+ */
+public class BufferRing {
+
+    final BufferPool pool;
+    // frame index held in each slot of the ring, -1 if the slot is empty
+    final int[] frames;
+    // next slot to recycle
+    int next;
+
+    BufferRing(BufferPool pool, int size) {
+        this.pool = pool;
+        this.frames = new int[size];
+        for (int i = 0; i < size; i++)
+            frames[i] = -1;
+        this.next = 0;
+    }
+
+    /** @return the maximum number of frames this ring can hold. */
+    public int size() {
+        return frames.length;
+    }
+
+    /** Give the frames of this ring back to its BufferPool. */
+    public void release() {
+        pool.releaseRing(this);
+    }
+}
@@ -221,7 +221,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [slotted]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -252,7 +252,18 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                // "slotted" after the fields stores the table in a SlottedFile
+                String layout = line.substring(line.indexOf(")") + 1).trim();
+                HeapFile tabHf;
+                if (layout.equals("slotted"))
+                    tabHf = new SlottedFile(new File(baseFolder+"/"+name + ".dat"), t);
+                else if (layout.isEmpty())
+                    tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                else {
+                    System.out.println("Unknown table layout " + layout);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
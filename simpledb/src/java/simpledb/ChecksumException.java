@@ -0,0 +1,16 @@
+package simpledb;
+
+import java.lang.RuntimeException;
+
+/**
+ * Exception that is thrown when a page read from disk doesn't match the
+ * checksum recorded when it was written, e.g. because the write was torn
+ * by a crash.
+ */
+public class ChecksumException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public ChecksumException(String s) {
+        super(s);
+    }
+}
@@ -0,0 +1,54 @@
+package simpledb;
+
+import java.util.function.IntPredicate;
+
+/**
+ * CLOCK (second chance) eviction. Every frame has a reference bit that is
+ * set when its page is hit; the clock hand sweeps over the frames, clearing
+ * reference bits, and evicts the first evictable frame whose bit is already
+ * clear. Newly loaded pages start with a clear bit, so a page that is only
+ * touched once (e.g. by a scan) does not get a second chance.
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+    private boolean[] resident;
+    private boolean[] referenced;
+    private int hand;
+
+    public void init(int numFrames) {
+        resident = new boolean[numFrames];
+        referenced = new boolean[numFrames];
+        hand = 0;
+    }
+
+    public void pageLoaded(int frame, PageId pid) {
+        resident[frame] = true;
+        referenced[frame] = false;
+    }
+
+    public void pageAccessed(int frame) {
+        referenced[frame] = true;
+    }
+
+    public void pageRemoved(int frame) {
+        resident[frame] = false;
+        referenced[frame] = false;
+    }
+
+    public int chooseVictim(PageId incoming, IntPredicate evictable) {
+        int n = resident.length;
+        // two sweeps are enough: the first clears every reference bit
+        for (int step = 0; step < 2 * n; step++) {
+            int frame = hand;
+            hand = (hand + 1) % n;
+            if (!resident[frame] || !evictable.test(frame))
+                continue;
+            if (referenced[frame]) {
+                referenced[frame] = false;
+            } else {
+                return frame;
+            }
+        }
+        return -1;
+    }
+}
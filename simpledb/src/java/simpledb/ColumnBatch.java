@@ -0,0 +1,180 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * ColumnBatch holds up to a fixed number of rows of a TupleDesc column by
+ * column: an int[] per INT_TYPE field and a String[] per STRING_TYPE
+ * field. It is what BatchIterators pass between each other instead of one
+ * Tuple at a time.
+ * <p>
+ * A selection vector says which of the rows are still in the batch:
+ * operators like BatchFilter drop rows by narrowing it instead of copying
+ * the columns. With no selection vector set, all rows are selected.
+ * <p>
+ * Batches are reused: an operator may clear and refill the batch it
+ * returned once it is asked for the next one.
+ *
+ * @see BatchIterator
+ */
+public class ColumnBatch {
+
+    /** Number of rows in a batch unless asked otherwise. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    // one of the two is set for each field, depending on its type
+    final int[][] ints;
+    final String[][] strings;
+    // rows filled
+    private int size;
+    // rows selected, in increasing order; null when all rows are
+    private int[] sel;
+    private int selected;
+    // reused for the selection vectors handed out by selectionBuffer
+    private final int[][] selBuffers = new int[2][];
+
+    public ColumnBatch(TupleDesc td) {
+        this(td, DEFAULT_SIZE);
+    }
+
+    public ColumnBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.strings = new String[td.numFields()][];
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                ints[j] = new int[capacity];
+            else
+                strings[j] = new String[capacity];
+        }
+        clear();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the most rows the batch can hold */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the number of rows filled, selected or not */
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /** Empty the batch and drop the selection vector. */
+    public void clear() {
+        size = 0;
+        sel = null;
+        selected = 0;
+    }
+
+    /**
+     * Add a row with no values set yet and return its index, for code that
+     * fills the column arrays directly.
+     */
+    int addRow() {
+        if (size == capacity)
+            throw new IllegalStateException("batch is full");
+        if (sel != null)
+            throw new IllegalStateException("can't add rows to a filtered batch");
+        return size++;
+    }
+
+    /** Add the fields of a tuple as a new row. */
+    public void addTuple(Tuple t) {
+        int row = addRow();
+        for (int j = 0; j < ints.length; j++) {
+            if (ints[j] != null)
+                ints[j][row] = ((IntField) t.getField(j)).getValue();
+            else
+                strings[j][row] = ((StringField) t.getField(j)).getValue();
+        }
+    }
+
+    /** @return the number of selected rows */
+    public int numSelected() {
+        return sel == null ? size : selected;
+    }
+
+    /** @return the index of the i-th selected row */
+    public int selectedRow(int i) {
+        return sel == null ? i : sel[i];
+    }
+
+    /**
+     * @return the selection vector, null if every row is selected. Only the
+     *         first numSelected() entries count.
+     */
+    public int[] getSelection() {
+        return sel;
+    }
+
+    /**
+     * Keep only the first n rows listed in sel, which should be ascending
+     * and selected now. sel is used as it is, not copied; it can be a
+     * selectionBuffer of this batch.
+     */
+    public void setSelection(int[] sel, int n) {
+        this.sel = sel;
+        this.selected = n;
+    }
+
+    /**
+     * @return an array of capacity() ints to build a new selection vector
+     *         in. It is never the current selection vector, so an operator
+     *         can read that while it fills this.
+     */
+    public int[] selectionBuffer() {
+        int i = selBuffers[0] != null && selBuffers[0] == sel ? 1 : 0;
+        if (selBuffers[i] == null)
+            selBuffers[i] = new int[capacity];
+        return selBuffers[i];
+    }
+
+    /**
+     * @return the values of an INT_TYPE field, indexed by row
+     * @throws IllegalArgumentException if the field is not an INT_TYPE
+     */
+    public int[] getInts(int fieldNo) {
+        if (ints[fieldNo] == null)
+            throw new IllegalArgumentException("field " + fieldNo + " is not an int");
+        return ints[fieldNo];
+    }
+
+    /**
+     * @return the values of a STRING_TYPE field, indexed by row
+     * @throws IllegalArgumentException if the field is not a STRING_TYPE
+     */
+    public String[] getStrings(int fieldNo) {
+        if (strings[fieldNo] == null)
+            throw new IllegalArgumentException("field " + fieldNo + " is not a string");
+        return strings[fieldNo];
+    }
+
+    /** @return a field of a row, which need not be selected */
+    public Field getField(int fieldNo, int row) {
+        if (row >= size)
+            throw new NoSuchElementException("row " + row);
+        if (ints[fieldNo] != null)
+            return new IntField(ints[fieldNo][row]);
+        return new StringField(strings[fieldNo][row], Type.STRING_LEN);
+    }
+
+    /** @return a row as a new Tuple */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < ints.length; j++)
+            t.setField(j, getField(j, row));
+        return t;
+    }
+}
@@ -28,6 +28,29 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push an image of a page, taken already, to disk. Lets the caller
+     * write exactly the bytes it logged for the page.
+     *
+     * @param pid the page the image is of
+     * @param data the bytes of the page, e.g. from getPageData
+     * @throws IOException if the write fails
+     */
+    public void writePage(PageId pid, byte[] data) throws IOException;
+
+    /**
+     * @return the id of the page with the given number in this file.
+     */
+    public PageId getPageId(int pageNo);
+
+    /**
+     * Build a page of this file from its raw data, as readPage would from
+     * disk. Used by the log to rebuild pages from their logged changes.
+     *
+     * @throws IOException if the data is not a valid page
+     */
+    public Page createPage(PageId pid, byte[] data) throws IOException;
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -0,0 +1,54 @@
+package simpledb;
+
+import java.util.function.IntPredicate;
+
+/**
+ * EvictionPolicy decides which frame of the BufferPool gives up its page
+ * when a new page has to be brought in. The BufferPool reports every load,
+ * hit and removal of a page by frame index, and asks the policy for a
+ * victim when it runs out of free frames.
+ * <p>
+ * A policy instance belongs to exactly one BufferPool, which calls
+ * {@link #init} once with its number of frames before using it. All calls
+ * are made while holding the BufferPool's monitor.
+ *
+ * @see BufferPool
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Prepare the policy for a pool with the given number of frames.
+     */
+    public void init(int numFrames);
+
+    /**
+     * A page was read into an empty frame.
+     *
+     * @param frame the frame the page was loaded into
+     * @param pid the id of the page loaded
+     */
+    public void pageLoaded(int frame, PageId pid);
+
+    /**
+     * The page resident in the given frame was requested again.
+     */
+    public void pageAccessed(int frame);
+
+    /**
+     * The page resident in the given frame left the pool, either because
+     * it was chosen as a victim or because it was discarded.
+     */
+    public void pageRemoved(int frame);
+
+    /**
+     * Pick a frame whose page should be evicted to make room for another.
+     * Only frames accepted by evictable may be returned. This does not
+     * remove the page; the BufferPool calls {@link #pageRemoved} once the
+     * victim is gone.
+     *
+     * @param incoming the page that is about to be loaded, may be null
+     * @param evictable accepts the frames that may currently be evicted
+     * @return the victim frame, or -1 if no resident frame is evictable
+     */
+    public int chooseVictim(PageId incoming, IntPredicate evictable);
+}
@@ -0,0 +1,313 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * ExternalSort returns the tuples of its child in the order of a
+ * Comparator, keeping at most a memory budget's worth of tuples in memory.
+ * If the child fits in the budget it is sorted in memory. Otherwise it is
+ * cut into sorted runs of the budget's size, the runs are written to
+ * SpillFiles, and next merges them as it goes, picking the smallest head
+ * of the runs with a loser tree: one comparison per level of the tree for
+ * each tuple, against about two per level for a binary heap. At most
+ * MAX_FAN_IN runs are merged at once, each with its own open file: with
+ * more runs than that, groups of them are first merged into longer runs,
+ * pass after pass, until few enough are left.
+ * <p>
+ * The child is read once, in open; rewind only goes over the sorted tuples
+ * (or runs) again.
+ */
+public class ExternalSort extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget: the most tuples sorted in memory at once. */
+    public final static int RUN_SIZE = 20000;
+
+    /** Default for the most runs merged at once. */
+    public final static int MAX_FAN_IN = 64;
+
+    private DbIterator child;
+    private Comparator<Tuple> cmp;
+    private int budget = RUN_SIZE;
+    private int fanIn = MAX_FAN_IN;
+
+    // the whole child, sorted, when it fits in the budget
+    private ArrayList<Tuple> sorted = new ArrayList<Tuple>();
+    transient private int pos;
+    // sorted runs of the child when it doesn't fit, null otherwise
+    transient private ArrayList<SpillFile> runs = null;
+    // runs written from the child, and merge passes done before the last
+    transient private int written;
+    transient private int passes;
+    transient private SpillFile.Reader[] readers;
+    // the next tuple of each run, null once the run is done
+    transient private Tuple[] heads;
+    // loser tree over the runs: run i is leaf k + i, tree[n] for n in
+    // [1, k) the run that lost the match at inner node n, and tree[0] the
+    // run that won them all
+    transient private int[] tree;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the tuples to sort
+     * @param cmp
+     *            the order to return them in
+     */
+    public ExternalSort(DbIterator child, Comparator<Tuple> cmp) {
+        this.child = child;
+        this.cmp = cmp;
+    }
+
+    /**
+     * Set the most tuples kept in memory. Takes effect on the next open.
+     *
+     * @throws IllegalArgumentException if tuples is less than 1
+     */
+    public void setMemoryBudget(int tuples) {
+        if (tuples < 1)
+            throw new IllegalArgumentException("memory budget of " + tuples + " tuples");
+        this.budget = tuples;
+    }
+
+    /**
+     * Set the most runs merged at once, and so the most run files open at
+     * once. Takes effect on the next open.
+     *
+     * @throws IllegalArgumentException if runs is less than 2
+     */
+    public void setMaxFanIn(int runs) {
+        if (runs < 2)
+            throw new IllegalArgumentException("fan-in of " + runs + " runs");
+        this.fanIn = runs;
+    }
+
+    /** @return true if the last open had to write runs to disk */
+    public boolean isSpilled() {
+        return runs != null;
+    }
+
+    /** @return the number of sorted runs the last open wrote to disk */
+    public int numRuns() {
+        return runs == null ? 0 : written;
+    }
+
+    /**
+     * @return the number of passes the last open merged runs into longer
+     *         ones, before the final merge that next reads
+     */
+    public int numMergePasses() {
+        return runs == null ? 0 : passes;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        closeRuns();
+        sorted.clear();
+        child.open();
+        while (sorted.size() < budget && child.hasNext()) {
+            sorted.add(child.next());
+        }
+        Collections.sort(sorted, cmp);
+        if (child.hasNext()) {
+            // doesn't fit: write this and the rest of the child as runs
+            runs = new ArrayList<SpillFile>();
+            try {
+                while (true) {
+                    SpillFile run = new SpillFile(child.getTupleDesc());
+                    runs.add(run);
+                    for (Tuple t : sorted)
+                        run.add(t);
+                    sorted.clear();
+                    if (!child.hasNext())
+                        break;
+                    while (sorted.size() < budget && child.hasNext()) {
+                        sorted.add(child.next());
+                    }
+                    Collections.sort(sorted, cmp);
+                }
+            } catch (IOException e) {
+                closeRuns();
+                throw new DbException("could not write sorted run: " + e.getMessage());
+            }
+            written = runs.size();
+            passes = 0;
+            while (runs.size() > fanIn) {
+                mergePass();
+                passes++;
+            }
+            startMerge();
+        }
+        pos = 0;
+        super.open();
+    }
+
+    // merge each fanIn consecutive runs into one, so the runs stay in
+    // order and equal tuples keep theirs
+    private void mergePass() throws DbException {
+        ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+        try {
+            for (int i = 0; i < runs.size(); i += fanIn) {
+                List<SpillFile> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+                if (group.size() == 1) {
+                    merged.add(group.get(0));
+                    continue;
+                }
+                SpillFile out = new SpillFile(child.getTupleDesc());
+                merged.add(out);
+                startMerge(group);
+                Tuple t;
+                while ((t = nextMerged()) != null)
+                    out.add(t);
+                closeReaders();
+                for (SpillFile run : group)
+                    run.close();
+            }
+        } catch (IOException e) {
+            closeRuns();
+            for (SpillFile run : merged)
+                run.close();
+            throw new DbException("could not write sorted run: " + e.getMessage());
+        }
+        runs = merged;
+    }
+
+    // (re)start reading the runs from their first tuples
+    private void startMerge() throws DbException {
+        startMerge(runs);
+    }
+
+    private void startMerge(List<SpillFile> which) throws DbException {
+        closeReaders();
+        int k = which.size();
+        readers = new SpillFile.Reader[k];
+        heads = new Tuple[k];
+        try {
+            for (int i = 0; i < k; i++) {
+                readers[i] = which.get(i).reader();
+                heads[i] = readers[i].next();
+            }
+        } catch (IOException e) {
+            throw new DbException("could not read sorted run: " + e.getMessage());
+        }
+        tree = new int[k];
+        tree[0] = play(1);
+    }
+
+    // the smallest head of the runs being merged, null once all are done
+    private Tuple nextMerged() throws DbException {
+        int w = tree[0];
+        Tuple t = heads[w];
+        if (t == null)
+            return null; // the winner is a done run, so they all are
+        try {
+            heads[w] = readers[w].next();
+        } catch (IOException e) {
+            throw new DbException("could not read sorted run: " + e.getMessage());
+        }
+        replay(w);
+        return t;
+    }
+
+    // run a comes out before run b; done runs come last, and equal tuples
+    // come out in run order, so the sort is stable
+    private boolean beats(int a, int b) {
+        if (heads[a] == null)
+            return false;
+        if (heads[b] == null)
+            return true;
+        int c = cmp.compare(heads[a], heads[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    // play the matches of the subtree at node, keep the losers, and return
+    // the winner
+    private int play(int node) {
+        int k = heads.length;
+        if (node >= k)
+            return node - k;
+        int a = play(2 * node);
+        int b = play(2 * node + 1);
+        if (beats(a, b)) {
+            tree[node] = b;
+            return a;
+        }
+        tree[node] = a;
+        return b;
+    }
+
+    // run w has a new head: replay its matches up to the root
+    private void replay(int w) {
+        for (int node = (w + heads.length) / 2; node >= 1; node /= 2) {
+            if (beats(tree[node], w)) {
+                int loser = w;
+                w = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = w;
+    }
+
+    private void closeReaders() {
+        if (readers == null)
+            return;
+        for (SpillFile.Reader r : readers) {
+            try {
+                if (r != null)
+                    r.close();
+            } catch (IOException e) {
+                // the files go away anyway
+            }
+        }
+        readers = null;
+        heads = null;
+        tree = null;
+    }
+
+    private void closeRuns() {
+        closeReaders();
+        if (runs != null) {
+            for (SpillFile run : runs)
+                run.close();
+        }
+        runs = null;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        closeRuns();
+        sorted.clear();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (runs == null)
+            pos = 0;
+        else
+            startMerge();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (runs == null)
+            return pos < sorted.size() ? sorted.get(pos++) : null;
+        return nextMerged();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
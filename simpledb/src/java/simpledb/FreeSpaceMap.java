@@ -0,0 +1,155 @@
+package simpledb;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile may have an empty slot,
+ * so that inserts go straight to such a page instead of looking at every
+ * page of the file.
+ * <p>
+ * A set bit is only a hint: the page had room when the bit was set, but
+ * an insert may have filled it since, or the delete that freed a slot may
+ * have been rolled back. Inserts check the page and clear the bit of a
+ * page they find full, so every full page is looked at once per time it
+ * is marked. Pages the map doesn't know about (e.g. when it was saved
+ * before the file grew) count as having room.
+ * <p>
+ * The map is saved next to the table's file, in a file with the same name
+ * and ".fsm" appended: the number of pages covered followed by the bits.
+ * A missing or unreadable map file gives a map with every page marked.
+ * A saved map can be stale: slots freed after it was saved (and before a
+ * crash) are not in it. So the first time a loaded map runs out of marked
+ * pages, every page is marked again and looked at once, before the file
+ * is made to grow.
+ */
+public class FreeSpaceMap {
+
+    private final File file;
+    private final BitSet free;
+    // pages covered by the map; pages past this have not been seen yet
+    private int covered;
+    // where the last search ended, so that searches don't start over at
+    // the full pages at the front of the file each time
+    private int cursor;
+    // false while the map is the one loaded from the file and may still
+    // have full bits for pages that got room after it was saved
+    private boolean rescanned = true;
+
+    /**
+     * Load the map saved for the given table file, if there is one.
+     *
+     * @param tableFile the HeapFile's file
+     */
+    public FreeSpaceMap(File tableFile) {
+        this.file = new File(tableFile.getPath() + ".fsm");
+        this.free = new BitSet();
+        this.covered = 0;
+        this.cursor = 0;
+        load();
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            try {
+                int pages = in.readInt();
+                byte[] bits = new byte[in.readInt()];
+                in.readFully(bits);
+                free.or(BitSet.valueOf(bits));
+                covered = pages;
+                rescanned = false;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // start over with every page marked
+            free.clear();
+            covered = 0;
+            rescanned = true;
+        }
+    }
+
+    /**
+     * Write the map to its file.
+     */
+    public synchronized void save() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            byte[] bits = free.toByteArray();
+            out.writeInt(covered);
+            out.writeInt(bits.length);
+            out.write(bits);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file))
+                throw new IOException("could not replace " + file);
+        }
+    }
+
+    /**
+     * Return a page of the file that may have an empty slot, or -1 if
+     * there is none and a page has to be added.
+     *
+     * @param numPages the number of pages in the file now
+     */
+    public synchronized int findPage(int numPages) {
+        if (covered > numPages) {
+            // the file shrank, the map was saved for another file
+            free.clear();
+            covered = 0;
+        }
+        cover(numPages);
+        if (cursor >= numPages)
+            cursor = 0;
+        int pageNo = free.nextSetBit(cursor);
+        if (pageNo == -1 || pageNo >= numPages) {
+            pageNo = free.nextSetBit(0);
+            if (pageNo >= numPages)
+                pageNo = -1;
+        }
+        if (pageNo == -1 && !rescanned) {
+            // don't trust the saved bits any more: look at every page once
+            rescanned = true;
+            free.set(0, numPages);
+            pageNo = numPages > 0 ? 0 : -1;
+        }
+        if (pageNo != -1)
+            cursor = pageNo;
+        return pageNo;
+    }
+
+    // pages the map didn't know about so far are taken to have room
+    private void cover(int numPages) {
+        if (covered < numPages) {
+            free.set(covered, numPages);
+            covered = numPages;
+        }
+    }
+
+    /** The page has no empty slot. */
+    public synchronized void markFull(int pageNo) {
+        cover(pageNo + 1);
+        free.clear(pageNo);
+    }
+
+    /** The page may have an empty slot. */
+    public synchronized void markFree(int pageNo) {
+        cover(pageNo + 1);
+        free.set(pageNo);
+    }
+
+    /** @return true if the page is marked as maybe having an empty slot. */
+    public synchronized boolean isFree(int pageNo) {
+        return pageNo >= covered || free.get(pageNo);
+    }
+}
@@ -1,9 +1,19 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator implements the relational equi-join with a
+ * hash table on child1. When child1 has more tuples than the memory budget,
+ * both children are split into PARTITIONS temp files by hash of their
+ * join field (Grace hash join), and the join is done partition by
+ * partition, so each child is read only once. A partition whose child1
+ * side is still over the budget is split again the same way, with a
+ * different hash, up to MAX_DEPTH times. Only a partition that can't be
+ * split (all its child1 tuples have the same key, or it is MAX_DEPTH
+ * deep) is joined a budget's worth of tuples at a time, reading its
+ * probe side once per piece.
  */
 public class HashEquiJoin extends Operator {
 
@@ -51,31 +61,245 @@ public class HashEquiJoin extends Operator {
     }
     
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
+    /** Default memory budget: the most child1 tuples kept in the map. */
     public final static int MAP_SIZE = 20000;
+    /** Number of partitions both inputs are split into when child1 doesn't fit. */
+    public final static int PARTITIONS = 32;
+    /** The most times a partition over the budget is split again. */
+    public final static int MAX_DEPTH = 3;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
+    private int budget = MAP_SIZE;
+    // the partitions of child1 and child2 to join, none of them empty on
+    // either side; null while child1 fits in the map
+    transient private ArrayList<Partition> parts = null;
+    // partition being joined, the rest of its build side if it didn't fit
+    // in the map, and its probe side
+    transient private int part;
+    transient private SpillFile.Reader buildRest = null;
+    transient private SpillFile.Reader probe = null;
+    // times a probe side was read since open, for tests
+    transient int probePasses;
+
+    // the child1 (build) and child2 (probe) tuples whose keys hash to the
+    // same partition at every level down to this one
+    private static class Partition {
+        final SpillFile build, probe;
+        final int level;
+        // the key of the first build tuple, and whether all have it
+        Field key = null;
+        boolean oneKey = true;
+
+        Partition(TupleDesc td1, TupleDesc td2, int level) throws IOException {
+            this.build = new SpillFile(td1);
+            this.probe = new SpillFile(td2);
+            this.level = level;
+        }
+
+        void addBuild(Tuple t, Field f) throws IOException {
+            if (key == null)
+                key = f;
+            else if (oneKey && !f.compare(Predicate.Op.EQUALS, key))
+                oneKey = false;
+            build.add(t);
+        }
+
+        void close() {
+            build.close();
+            probe.close();
+        }
+    }
+
+    /**
+     * Set the most child1 tuples kept in memory. Takes effect on the next
+     * open.
+     *
+     * @throws IllegalArgumentException if tuples is less than 1
+     */
+    public void setMemoryBudget(int tuples) {
+        if (tuples < 1)
+            throw new IllegalArgumentException("memory budget of " + tuples + " tuples");
+        this.budget = tuples;
+    }
+
+    /** @return true if the last open had to partition the inputs to disk */
+    public boolean isSpilled() {
+        return parts != null;
+    }
+
+    /** @return the number of partitions the last open joined from disk */
+    public int numPartitions() {
+        return parts == null ? 0 : parts.size();
+    }
+
+    private void addToMap(Tuple t) {
+        ArrayList<Tuple> list = map.get(t.getField(pred.getField1()));
+        if (list == null) {
+            list = new ArrayList<Tuple>();
+            map.put(t.getField(pred.getField1()), list);
+        }
+        list.add(t);
+    }
+
+    // the partition of a key at a level of partitioning: a different hash
+    // for each level, so that keys together at one level get split at the
+    // next
+    private static int partitionOf(Field f, int level) {
+        int h = f.hashCode() ^ (level * 0x9e3779b9);
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        h *= 0xc2b2ae35;
+        h ^= (h >>> 16);
+        return (h & 0x7fffffff) % PARTITIONS;
+    }
+
+    private Partition[] newPartitions(int level, ArrayList<Partition> made) throws IOException {
+        Partition[] ps = new Partition[PARTITIONS];
+        for (int i = 0; i < PARTITIONS; i++) {
+            ps[i] = new Partition(child1.getTupleDesc(), child2.getTupleDesc(), level);
+            made.add(ps[i]);
+        }
+        return ps;
+    }
+
+    private void addBuild(Partition[] ps, Tuple t) throws IOException {
+        Field f = t.getField(pred.getField1());
+        ps[partitionOf(f, ps[0].level)].addBuild(t, f);
+    }
+
+    private void addProbe(Partition[] ps, Tuple t) throws IOException {
+        ps[partitionOf(t.getField(pred.getField2()), ps[0].level)].probe.add(t);
+    }
+
+    // read child1 into the map; if it doesn't fit, write both children to
+    // partitions instead, so each is read only once, and split the
+    // partitions still over the budget again
+    private void build() throws DbException, TransactionAbortedException {
         map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+        int cnt = 0;
+        while (cnt < budget && child1.hasNext()) {
+            addToMap(child1.next());
+            cnt++;
+        }
+        if (!child1.hasNext())
+            return;
+        // every partition made, so all get closed if something fails
+        ArrayList<Partition> made = new ArrayList<Partition>();
+        try {
+            Partition[] top = newPartitions(0, made);
+            for (ArrayList<Tuple> list : map.values())
+                for (Tuple t : list)
+                    addBuild(top, t);
+            map.clear();
+            while (child1.hasNext())
+                addBuild(top, child1.next());
+            while (child2.hasNext())
+                addProbe(top, child2.next());
+
+            parts = new ArrayList<Partition>();
+            ArrayDeque<Partition> todo = new ArrayDeque<Partition>(Arrays.asList(top));
+            while (!todo.isEmpty()) {
+                Partition p = todo.removeFirst();
+                if (p.build.size() == 0 || p.probe.size() == 0) {
+                    p.close(); // nothing can match in it
+                } else if (p.build.size() <= budget || p.oneKey || p.level >= MAX_DEPTH) {
+                    parts.add(p);
+                } else {
+                    // each of its tuples is read once more, to split it
+                    Partition[] sub = newPartitions(p.level + 1, made);
+                    SpillFile.Reader r = p.build.reader();
+                    Tuple t;
+                    while ((t = r.next()) != null)
+                        addBuild(sub, t);
+                    r = p.probe.reader();
+                    while ((t = r.next()) != null)
+                        addProbe(sub, t);
+                    p.close();
+                    for (int i = sub.length - 1; i >= 0; i--)
+                        todo.addFirst(sub[i]);
+                }
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+        } catch (IOException e) {
+            for (Partition p : made)
+                p.close();
+            parts = null;
+            throw new DbException("could not partition join inputs: " + e.getMessage());
         }
-        return cnt > 0;
+        part = -1;
+    }
 
+    // load the next piece of child1 to probe with: the next part of the
+    // current partition if it didn't fit, else the next partition.
+    // Returns false when there is none.
+    private boolean nextBuild() throws DbException {
+        if (parts == null)
+            return false; // everything was in the map
+        try {
+            if (buildRest == null) {
+                if (++part >= parts.size())
+                    return false;
+                buildRest = parts.get(part).build.reader();
+            }
+            map.clear();
+            for (int cnt = 0; cnt < budget && buildRest.hasNext(); cnt++) {
+                addToMap(buildRest.next());
+            }
+            if (!buildRest.hasNext()) {
+                buildRest.close();
+                buildRest = null;
+            }
+            // a partition that couldn't be split below the budget is
+            // joined a map at a time, reading its probe side once per map
+            if (probe != null)
+                probe.close();
+            probe = parts.get(part).probe.reader();
+            probePasses++;
+            return true;
+        } catch (IOException e) {
+            throw new DbException("could not read join partition: " + e.getMessage());
+        }
+    }
+
+    // the next tuple to look up in the map, null at the end of the probe
+    // side for the current map
+    private Tuple nextProbe() throws DbException, TransactionAbortedException {
+        if (parts == null)
+            return child2.hasNext() ? child2.next() : null;
+        if (probe == null)
+            return null;
+        try {
+            return probe.next();
+        } catch (IOException e) {
+            throw new DbException("could not read join partition: " + e.getMessage());
+        }
+    }
+
+    private void closeSpill() {
+        try {
+            if (probe != null)
+                probe.close();
+            if (buildRest != null)
+                buildRest.close();
+        } catch (IOException e) {
+            // the files go away anyway
+        }
+        probe = null;
+        buildRest = null;
+        if (parts != null) {
+            for (Partition p : parts)
+                p.close();
+        }
+        parts = null;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        closeSpill();
+        probePasses = 0;
+        build();
+        listIt = null;
         super.open();
     }
 
@@ -87,11 +311,29 @@ public class HashEquiJoin extends Operator {
         this.t2=null;
         this.listIt=null;
         this.map.clear();
+        closeSpill();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        child1.rewind();
-        child2.rewind();
+        listIt = null;
+        if (parts == null) {
+            // the map still holds all of child1
+            child2.rewind();
+        } else {
+            // join the partitions again, the children aren't read again
+            try {
+                if (probe != null)
+                    probe.close();
+                if (buildRest != null)
+                    buildRest.close();
+            } catch (IOException e) {
+                throw new DbException(e.getMessage());
+            }
+            probe = null;
+            buildRest = null;
+            map.clear();
+            part = -1;
+        }
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -131,32 +373,24 @@ public class HashEquiJoin extends Operator {
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
+        while (true) {
+            if (listIt != null && listIt.hasNext()) {
+                return processList();
+            }
+            Tuple t = nextProbe();
+            if (t != null) {
+                t2 = t;
+                // if match, create a combined tuple and fill it with the
+                // values from both tuples
+                ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
+                listIt = l == null ? null : l.iterator();
                 continue;
-            listIt = l.iterator();
-
-            return processList();
-
-        }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+            }
+            // done with this map: on to the next piece of child1
+            if (!nextBuild()) {
+                return null;
+            }
         }
-
-        return null;
     }
 
     @Override
@@ -1,7 +1,12 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.zip.CRC32;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -18,6 +23,19 @@ public class HeapFile implements DbFile {
 	private File file;
 	private TupleDesc td;
 	private int tableid;
+	// kept open for positional reads and writes; see channel()
+	private volatile FileChannel channel;
+	// read-only mapping of the whole file when memory mapped reads are on
+	private volatile boolean mapped = false;
+	private volatile MappedByteBuffer mapping;
+	// pages that may have an empty slot, loaded on the first insert
+	private FreeSpaceMap freeSpace;
+	// checksum of each page as last written, 0 where none was recorded;
+	// loaded from the ".crc" side file on first use and written through
+	// to it by writePage and writePages
+	private volatile boolean verifying = true;
+	private int[] checksums;
+	private FileChannel checksumChannel;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -63,47 +81,334 @@ public class HeapFile implements DbFile {
         return this.td;
     }
 
-    // see DbFile.java for javadocs
+    /**
+     * Read the specified page from disk.
+     *
+     * @throws ChecksumException if checksums are on and the page doesn't
+     *         match the checksum recorded when it was written
+     */
     public Page readPage(PageId pid) {
+        return readPage(pid, this.verifying);
+    }
+
+    // readPage, with or without checking the page against its checksum.
+    // Recovery reads pages without, torn pages are what it repairs.
+    Page readPage(PageId pid, boolean verify) {
 		//prepare an offset to start reading the file with
-    		int offset = BufferPool.getPageSize() * pid.getPageNumber();
-    		//buffer to store the reads
-    		byte[] buffer = new byte[BufferPool.getPageSize()];
-    		RandomAccessFile raf = null;
-    		Page ret = null;
+    		long offset = (long) BufferPool.getPageSize() * pid.getPageNumber();
 		try {
-			raf = new RandomAccessFile(this.file,"r");
-		    	raf.seek(offset); //move by buffer 
-		    	raf.read(buffer); //read into the buffer
-		    	ret = new HeapPage((HeapPageId) pid, buffer); //create a new HeapPage 
-		    	return ret;
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+			ByteBuffer bytes = null;
+			if (this.mapped) {
+				bytes = mappedPage(offset);
+			}
+			if (bytes == null) {
+				//buffer to store the reads
+				bytes = ByteBuffer.wrap(new byte[BufferPool.getPageSize()]);
+				transfer(bytes, offset, false);
+				bytes.clear(); // past the end of the file the page reads as zeros
+			}
+			if (verify) {
+				verify(pid.getPageNumber(), bytes);
+			}
+			return newPage((HeapPageId) pid, bytes); //create a new HeapPage
 		} catch (IOException e) {
 			e.printStackTrace();
-		} finally {
-			try {
-				raf.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
 		}
 		// shouldn't get here
-		return ret;
+		return null;
+    }
+
+    /**
+     * Parse a page of this file from the bytes between the position and
+     * the limit of a buffer. Files with another page layout override this,
+     * together with the methods that look inside pages (insertTuple,
+     * insertTuples, deleteTuple and pageTuples).
+     */
+    protected Page newPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
+    /**
+     * @return an iterator over the tuples of a page of this file, used by
+     *         the file's iterator
+     */
+    protected Iterator<Tuple> pageTuples(Page page) {
+        return ((HeapPage) page).iterator();
+    }
+
+    /**
+     * Turn memory mapped reads on or off. When on, readPage parses pages
+     * straight out of a read-only mapping of the file instead of reading
+     * them into a fresh array, so a scan does no read() calls and shares
+     * the OS page cache with other processes mapping the same file.
+     * Writes still go through the channel; the mapping sees them.
+     */
+    public synchronized void setMemoryMapped(boolean mapped) {
+        this.mapped = mapped;
+        if (!mapped) {
+            this.mapping = null;
+        }
+    }
+
+    public boolean isMemoryMapped() {
+        return this.mapped;
+    }
+
+    // the page at offset as a slice of the mapping, or null if the page is
+    // past the end of the file or the file is too big to map at once
+    private ByteBuffer mappedPage(long offset) throws IOException {
+        int size = BufferPool.getPageSize();
+        MappedByteBuffer m = this.mapping;
+        if (m == null || offset + size > m.capacity()) {
+            m = remap(offset + size);
+            if (m == null) {
+                return null;
+            }
+        }
+        ByteBuffer slice = m.duplicate();
+        slice.limit((int) offset + size);
+        slice.position((int) offset);
+        return slice;
+    }
+
+    // map the file again if it grew (insertTuple appending pages) past the
+    // end of the current mapping
+    private synchronized MappedByteBuffer remap(long needed) throws IOException {
+        if (!this.mapped) {
+            return null;
+        }
+        MappedByteBuffer m = this.mapping;
+        if (m != null && needed <= m.capacity()) {
+            return m;
+        }
+        long size = channel().size();
+        if (size < needed || size > Integer.MAX_VALUE) {
+            return null;
+        }
+        this.mapping = channel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        return this.mapping;
+    }
+
+    // the channel all page I/O of this file goes through, opened on first
+    // use and kept open
+    private FileChannel channel() throws IOException {
+        FileChannel ch = this.channel;
+        if (ch == null) {
+            synchronized (this) {
+                if (this.channel == null) {
+                    this.channel = new RandomAccessFile(this.file, "rw").getChannel();
+                }
+                ch = this.channel;
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * Force the pages written to this file, and their checksums in the
+     * side file, from the OS cache to disk.
+     */
+    public void force() throws IOException {
+        FileChannel ch = this.channel;
+        if (ch != null) {
+            // nothing was written if the channel was never opened
+            ch.force(false);
+        }
+        synchronized (this) {
+            if (this.checksumChannel != null) {
+                this.checksumChannel.force(false);
+            }
+        }
+    }
+
+    // positional read or write of a whole buffer, so that concurrent
+    // readers don't share a file pointer. Reads past the end of the file
+    // leave the rest of the buffer as it is. A thread interrupted in the
+    // middle of an operation closes the channel for everybody; other
+    // threads reopen it and retry.
+    private void transfer(ByteBuffer bb, long offset, boolean write) throws IOException {
+        int start = bb.position();
+        while (true) {
+            FileChannel ch = channel();
+            try {
+                while (bb.hasRemaining()) {
+                    long pos = offset + bb.position() - start;
+                    if (write) {
+                        ch.write(bb, pos);
+                    } else if (ch.read(bb, pos) < 0) {
+                        return;
+                    }
+                }
+                return;
+            } catch (ClosedChannelException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                synchronized (this) {
+                    if (this.channel == ch) {
+                        this.channel = null;
+                    }
+                }
+                bb.position(start);
+            }
+        }
+    }
+
+    /**
+     * Close the channels of this file and save its free space map. The
+     * channel is opened again if the file is used afterwards.
+     */
+    public synchronized void close() throws IOException {
+        this.mapping = null;
+        saveFreeSpaceMap();
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+        if (this.checksumChannel != null) {
+            this.checksumChannel.close();
+            this.checksumChannel = null;
+        }
+    }
+
+    /**
+     * Turn checking pages against their checksums on reads on or off.
+     * Off, writes don't compute checksums either; pages written meanwhile
+     * have none recorded and are not checked later. Meant for benchmarks.
+     */
+    public void setChecksums(boolean on) {
+        this.verifying = on;
+    }
+
+    public boolean hasChecksums() {
+        return this.verifying;
+    }
+
+    /**
+     * @return the CRC32 of the bytes between the position and the limit of
+     *         a page buffer, never 0, which means "none recorded"
+     */
+    static int checksum(ByteBuffer page) {
+        CRC32 crc = new CRC32();
+        crc.update(page.duplicate());
+        int c = (int) crc.getValue();
+        return c == 0 ? 1 : c;
+    }
+
+    private File checksumFile() {
+        return new File(this.file.getPath() + ".crc");
+    }
+
+    // the recorded checksums, loading them the first time
+    private int[] loadChecksums() throws IOException {
+        if (this.checksums == null) {
+            File f = checksumFile();
+            int[] sums = new int[0];
+            if (f.exists()) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(f)));
+                try {
+                    sums = new int[(int) (f.length() / 4)];
+                    for (int i = 0; i < sums.length; i++)
+                        sums[i] = in.readInt();
+                } finally {
+                    in.close();
+                }
+            }
+            this.checksums = sums;
+        }
+        return this.checksums;
+    }
+
+    // throws ChecksumException if the page doesn't match its checksum
+    private void verify(int pageNo, ByteBuffer page) throws IOException {
+        int expected;
+        synchronized (this) {
+            int[] sums = loadChecksums();
+            expected = pageNo < sums.length ? sums[pageNo] : 0;
+        }
+        if (expected != 0 && expected != checksum(page)) {
+            throw new ChecksumException("page " + pageNo + " of " + this.file
+                    + " doesn't match its checksum, it may be torn");
+        }
+    }
+
+    // record the checksums of pages first, first + 1, ... of a buffer of
+    // whole pages, in memory and in the side file. Written after the
+    // pages, so a crash in between leaves a page that doesn't match, like
+    // a torn one.
+    private synchronized void recordChecksums(int first, ByteBuffer pages) throws IOException {
+        int size = BufferPool.getPageSize();
+        int n = pages.remaining() / size;
+        int[] sums = loadChecksums();
+        if (first + n > sums.length) {
+            sums = this.checksums = Arrays.copyOf(sums, first + n);
+        }
+        ByteBuffer bb = ByteBuffer.allocate(4 * n);
+        for (int i = 0; i < n; i++) {
+            int c = 0;
+            if (this.verifying) {
+                ByteBuffer page = pages.duplicate();
+                page.position(pages.position() + i * size);
+                page.limit(page.position() + size);
+                c = checksum(page);
+            }
+            sums[first + i] = c;
+            bb.putInt(c);
+        }
+        bb.flip();
+        if (this.checksumChannel == null) {
+            this.checksumChannel = new RandomAccessFile(checksumFile(), "rw").getChannel();
+        }
+        while (bb.hasRemaining()) {
+            this.checksumChannel.write(bb, 4L * first + bb.position());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public PageId getPageId(int pageNo) {
+        return new HeapPageId(getId(), pageNo);
+    }
+
+    // see DbFile.java for javadocs
+    public Page createPage(PageId pid, byte[] data) throws IOException {
+        return newPage((HeapPageId) pid, ByteBuffer.wrap(data));
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-    		int pageNo = page.getId().getPageNumber();
-        int offset = pageNo * BufferPool.getPageSize();
-        byte[] data = page.getPageData();
-        RandomAccessFile raf = null;
-        raf = new RandomAccessFile(this.file, "rw");
-        raf.seek(offset);
-        raf.write(data,0,BufferPool.getPageSize());
-        raf.close();
+    		writePage(page.getId(), page.getPageData());
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(PageId pid, byte[] data) throws IOException {
+    		int pageNo = pid.getPageNumber();
+        long offset = (long) pageNo * BufferPool.getPageSize();
+        // the bytes written and the bytes checksummed are the same copy,
+        // whatever happens to the page meanwhile
+        ByteBuffer bb = ByteBuffer.wrap(data, 0, BufferPool.getPageSize());
+        transfer(bb.duplicate(), offset, true);
+        recordChecksums(pageNo, bb);
+    }
+
+    /**
+     * Write images of pages with adjacent page numbers, in order, with a
+     * single write.
+     *
+     * @param first the number of the page of the first image
+     * @param images the bytes of the pages, e.g. from getPageData
+     */
+    public void writePages(int first, List<byte[]> images) throws IOException {
+        int size = BufferPool.getPageSize();
+        ByteBuffer bb = ByteBuffer.allocate(size * images.size());
+        for (byte[] image : images) {
+            bb.put(image, 0, size);
+        }
+        bb.flip();
+        transfer(bb.duplicate(), (long) first * size, true);
+        recordChecksums(first, bb);
     }
 
     /**
@@ -111,39 +416,162 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // formula as suggested in lab1.md
-        return (int) Math.ceil((double) this.file.length()/BufferPool.getPageSize());
+        long length;
+        try {
+            length = channel().size();
+        } catch (IOException e) {
+            length = this.file.length();
+        }
+        return (int) Math.ceil((double) length/BufferPool.getPageSize());
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-	    	int pageNo = 0;
-	    	HeapPage hp = null;
-	    	HeapPageId hpid = null;
-	    	// a stupid approach of trying to iterate over pages.. even if not in buffer pool
-	    	for (pageNo = 0; pageNo < this.numPages(); pageNo++) {
-	    		hpid = new HeapPageId(this.tableid, pageNo);
-	    		hp = (HeapPage) Database.getBufferPool().getPage(tid, hpid, null);
-	    		if (hp.getNumEmptySlots() != 0) {
-	    			//now we have an hp with at least one empty slot
-	    	    		hp.insertTuple(t);
-	    	    		ArrayList<Page> al = new ArrayList<Page>();
-	    		    	al.add(hp); //only one page will be added.. right? for a single tuple insertion
-	    	        return al;
+	    	BufferPool bp = Database.getBufferPool();
+	    	FreeSpaceMap fsm = freeSpaceMap();
+	    	// ask the free space map for a page with an empty slot and lock
+	    	// it exclusively right away: two inserters that both took a
+	    	// shared lock first would deadlock upgrading it
+	    	int pageNo;
+	    	while ((pageNo = fsm.findPage(this.numPages())) != -1) {
+	    		HeapPageId hpid = new HeapPageId(this.tableid, pageNo);
+	    		boolean held = bp.holdsLock(tid, hpid);
+	    		HeapPage hp = (HeapPage) bp.getPage(tid, hpid, Permissions.READ_WRITE);
+	    		if (hp.getNumEmptySlots() == 0) {
+	    			fsm.markFull(pageNo);
+	    			if (!held) {
+	    				// we only read the header, nothing to protect
+	    				bp.releasePage(tid, hpid);
+	    			}
+	    			continue;
+	    		}
+	    		hp.insertTuple(t);
+	    		if (hp.getNumEmptySlots() == 0) {
+	    			fsm.markFull(pageNo);
 	    		}
+	    		ArrayList<Page> al = new ArrayList<Page>();
+	    		al.add(hp); //only one page will be added for a single tuple insertion
+	    		return al;
 	    	}
-	    	// need new page
-	    	HeapPageId newPageId = new HeapPageId(this.getId(), this.numPages());
-        HeapPage newHP = new HeapPage(newPageId, HeapPage.createEmptyPageData());
+	    	// need new page: put an empty one at the end of the file and fill
+	    	// it through the buffer pool like any other page
+	    	HeapPageId newPageId = appendEmptyPage();
+        HeapPage newHP = (HeapPage) bp.getPage(tid, newPageId, Permissions.READ_WRITE);
         newHP.insertTuple(t);
-        writePage(newHP);
+        if (newHP.getNumEmptySlots() != 0) {
+        	// now others may use the rest of it
+        	fsm.markFree(newPageId.getPageNumber());
+        }
         ArrayList<Page> al = new ArrayList<Page>();
         al.add(newHP);
         return al;
-	    	
-        
-        // not necessary for lab1
+    }
+
+    /**
+     * Adds many tuples on behalf of transaction tid, for bulk loads. The
+     * pages the free space map knows to have room are filled first, each
+     * locked and filled in one go; then the pages needed for the rest are
+     * appended to the file with a single write and filled in order.
+     *
+     * @param tid the transaction adding the tuples
+     * @param ts the tuples to add
+     * @return the pages that were modified, each once
+     */
+    public ArrayList<Page> insertTuples(TransactionId tid, List<Tuple> ts)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = freeSpaceMap();
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        int next = 0;
+        int pageNo;
+        while (next < ts.size() && (pageNo = fsm.findPage(this.numPages())) != -1) {
+            HeapPage hp = (HeapPage) bp.getPage(tid, new HeapPageId(this.tableid, pageNo),
+                    Permissions.READ_WRITE);
+            int from = next;
+            next = hp.insertTuples(ts, next);
+            if (hp.getNumEmptySlots() == 0) {
+                fsm.markFull(pageNo);
+            }
+            if (next > from) {
+                dirtied.add(hp);
+            }
+        }
+        int perPage = new HeapPage(new HeapPageId(this.tableid, 0),
+                HeapPage.createEmptyPageData()).getNumEmptySlots();
+        while (next < ts.size()) {
+            int needed = (ts.size() - next + perPage - 1) / perPage;
+            int firstNew = appendEmptyPages(needed);
+            for (pageNo = firstNew; pageNo < firstNew + needed; pageNo++) {
+                if (next == ts.size()) {
+                    // nothing left for it, let others have it
+                    fsm.markFree(pageNo);
+                    continue;
+                }
+                HeapPage hp = (HeapPage) bp.getPage(tid, new HeapPageId(this.tableid, pageNo),
+                        Permissions.READ_WRITE);
+                next = hp.insertTuples(ts, next);
+                if (hp.getNumEmptySlots() != 0) {
+                    fsm.markFree(pageNo);
+                }
+                dirtied.add(hp);
+            }
+        }
+        return dirtied;
+    }
+
+    // helper function to grow the file by one empty page
+    HeapPageId appendEmptyPage() throws IOException {
+        return new HeapPageId(this.getId(), appendEmptyPages(1));
+    }
+
+    // helper function to grow the file by n empty pages with one write;
+    // returns the number of the first. The new pages are marked full in the
+    // free space map so no other transaction picks them before the caller
+    // has locked them; the caller marks them free once it is done with them.
+    private synchronized int appendEmptyPages(int n) throws IOException {
+        int first = this.numPages();
+        for (int i = 0; i < n; i++) {
+            freeSpaceMap().markFull(first + i);
+        }
+        ArrayList<byte[]> extent = new ArrayList<byte[]>(n);
+        for (int i = 0; i < n; i++) {
+            extent.add(newPage(new HeapPageId(this.getId(), first + i),
+                    ByteBuffer.wrap(HeapPage.createEmptyPageData())).getPageData());
+        }
+        writePages(first, extent);
+        return first;
+    }
+
+    /**
+     * Returns the map of the pages of this file that may have an empty
+     * slot, loading it from its side file the first time.
+     *
+     * @see FreeSpaceMap
+     */
+    public synchronized FreeSpaceMap freeSpaceMap() {
+        if (this.freeSpace == null) {
+            this.freeSpace = new FreeSpaceMap(this.file);
+        }
+        return this.freeSpace;
+    }
+
+    /**
+     * Write the free space map to its side file, if it was loaded.
+     */
+    public synchronized void saveFreeSpaceMap() throws IOException {
+        if (this.freeSpace != null) {
+            this.freeSpace.save();
+        }
+    }
+
+    /**
+     * Note that a page of this file may have an empty slot again, e.g.
+     * because changes to it were rolled back.
+     */
+    public void pageFreed(int pageNo) {
+        freeSpaceMap().markFree(pageNo);
     }
 
     // see DbFile.java for javadocs
@@ -152,8 +580,9 @@ public class HeapFile implements DbFile {
         // some code goes here
     		// similar to insertTuple, use HeapPage implementation to deleteTuple
 	    	PageId pid = t.getRecordId().getPageId();
-        HeapPage hp = (HeapPage) Database.getBufferPool().getPage(tid, pid, null);
+        HeapPage hp = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
         hp.deleteTuple(t);
+        pageFreed(pid.getPageNumber());
         ArrayList<Page> al = new ArrayList<Page>();
         al.add(hp);
         return  al;
@@ -173,8 +602,14 @@ public class HeapFile implements DbFile {
     		private HeapFile hf;
     		private TransactionId tid;
     		private Iterator<Tuple> tuples;
-    		private HeapPage currPage;
+    		private Page currPage;
     		private int currPageNo;
+    		// frames used to read the pages of a big table, null if the
+    		// table is small enough to go through the shared pool
+    		private BufferRing ring;
+    		// reads the next pages in the background once the scan is
+    		// seen to be sequential
+    		private ReadAhead readAhead;
     		
     		HfIterator(HeapFile hf, TransactionId tid){
     			this.hf = hf;
@@ -187,9 +622,18 @@ public class HeapFile implements DbFile {
 		@Override
 		public void open() throws DbException, TransactionAbortedException {
 			// open the iterator, get the first page. currPageNo should be 0
-			HeapPageId currpid = new HeapPageId(this.hf.getId(), this.currPageNo);
-            this.currPage = (HeapPage) Database.getBufferPool().getPage(this.tid, currpid, null);
-            this.tuples = this.currPage.iterator();
+			this.ring = Database.getBufferPool().newScanRing(this.hf.numPages());
+			this.readAhead = new ReadAhead(Database.getBufferPool(), this.hf.getId(), this.ring);
+            this.currPage = fetchPage(this.currPageNo);
+            this.tuples = this.hf.pageTuples(this.currPage);
+		}
+
+		// read a page of the file through the BufferPool, using the ring
+		// if this scan has one
+		private Page fetchPage(int pageNo) throws DbException, TransactionAbortedException {
+			HeapPageId pid = new HeapPageId(this.hf.getId(), pageNo);
+			this.readAhead.beforeRead(pageNo, this.hf.numPages());
+			return Database.getBufferPool().getPage(this.tid, pid, Permissions.READ_ONLY, this.ring);
 		}
 
 		@Override
@@ -211,9 +655,8 @@ public class HeapFile implements DbFile {
 					boolean breakflag = true;
 					while(breakflag) {
 						if(this.currPageNo < this.hf.numPages() - 1) {
-							HeapPageId currpid = new HeapPageId(this.hf.getId(), ++this.currPageNo);
-							this.currPage = (HeapPage) Database.getBufferPool().getPage(this.tid, currpid, null);
-				            this.tuples = this.currPage.iterator();
+							this.currPage = fetchPage(++this.currPageNo);
+				            this.tuples = this.hf.pageTuples(this.currPage);
 				            if(this.tuples != null && this.tuples.hasNext()) {
 				            		return this.tuples.next();
 				            } 
@@ -243,11 +686,9 @@ public class HeapFile implements DbFile {
 					while(breakflag) {
 						//System.out.println("HF's numpages: " + this.hf.numPages());
 						if(this.currPageNo < this.hf.numPages() - 1) {
-							HeapPageId currpid = new HeapPageId(this.hf.getId(), ++this.currPageNo);
-							//System.out.println("will try to get a page " + currpid.getPageNumber() + " from buffer");
-							this.currPage = (HeapPage) Database.getBufferPool().getPage(this.tid, currpid, null);
+							this.currPage = fetchPage(++this.currPageNo);
 				            //System.out.println("empty slots for page " + this.currPage.getId().getPageNumber() + " " + this.currPage.getNumEmptySlots());
-							this.tuples = this.currPage.iterator();
+							this.tuples = this.hf.pageTuples(this.currPage);
 				            //System.out.println("tuples updated to currpid: " + currpid.getPageNumber());
 				            if(this.tuples != null && this.tuples.hasNext()) {
 				            		//System.out.println("returning next");
@@ -268,6 +709,11 @@ public class HeapFile implements DbFile {
 		/** If subclasses override this, they should call super.close(). */
 	    public void close() {
 	        super.close();
+	        if (this.ring != null) {
+	        	this.ring.release();
+	        	this.ring = null;
+	        }
+	        this.readAhead = null;
 	        this.tuples = null;
 	        this.currPage = null;
 	        this.currPageNo = 0;
@@ -106,6 +106,9 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    // checksums of whatever was in outFile before don't apply; the new
+    // pages get theirs when they are first written through a HeapFile
+    new File(outFile.getPath() + ".crc").delete();
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
@@ -3,6 +3,8 @@ package simpledb;
 import java.util.*;
 import java.io.*;
 import java.lang.Math;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 
 /**
@@ -17,13 +19,24 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[]; //to store header bits indicating whether a slot is empty
-    final Tuple tuples[];
+    final int headerSize; //number of header bytes indicating whether a slot is empty
+    // the page image: header bits and tuple slots, kept up to date by
+    // insertTuple and deleteTuple. Tuples are decoded from here when
+    // asked for.
+    final byte data[];
+    // tuples decoded so far or inserted since, null for slots not decoded
+    // yet. Readers sharing the page decode concurrently, hence the atomic
+    // array to publish them.
+    final AtomicReferenceArray<Tuple> tuples;
     final int numSlots; //number of tuple slots this page can store
+    // offset of each field within a tuple
+    private final int[] fieldOffsets;
     
     private TransactionId tid; // dirty mark
 
     byte[] oldData;
+    // the image last logged since the before image was taken, null if none
+    byte[] loggedData;
     private final Byte oldDataLock=new Byte((byte)0);
 
     /**
@@ -43,28 +56,32 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from the bytes between the position and the limit
+     * of a buffer, e.g. a slice of a mapped file. The buffer is only read
+     * while the page is being constructed and is not modified.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
         this.tid = null;
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate a proper number of bytes for header[]
-        header = new byte[getHeaderSize()];
-        //read the header slots of this page from dis.
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        // allocate a proper number of bytes for tuples[]
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        } catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        if (data.remaining() < BufferPool.getPageSize())
+            throw new IOException("short page " + id.getPageNumber());
+        // one copy of the raw bytes; nothing is decoded up front
+        this.data = new byte[BufferPool.getPageSize()];
+        data.duplicate().get(this.data);
+
+        headerSize = getHeaderSize();
+        tuples = new AtomicReferenceArray<Tuple>(numSlots);
+        fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
 
         setBeforeImage();
     }
@@ -107,7 +124,22 @@ public class HeapPage implements Page {
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = data.clone();
+        loggedData = null;
+        }
+    }
+
+    public byte[] getLoggedImage() {
+        synchronized(oldDataLock)
+        {
+            return loggedData != null ? loggedData : oldData;
+        }
+    }
+
+    public void setLoggedImage(byte[] data) {
+        synchronized(oldDataLock)
+        {
+            loggedData = data;
         }
     }
 
@@ -118,38 +150,85 @@ public class HeapPage implements Page {
     		return this.pid;
     }
 
+    // offset of a slot within the page
+    private int slotOffset(int slotId) {
+        return headerSize + slotId * td.getSize();
+    }
+
+    /**
+     * Decode a single field of the tuple in a slot straight from the page,
+     * without materializing the tuple.
+     *
+     * @throws NoSuchElementException if the slot is empty
+     */
+    public Field getField(int slotId, int fieldNo) {
+        if (slotId < 0 || slotId >= numSlots || !isSlotUsed(slotId))
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        Tuple t = tuples.get(slotId);
+        if (t != null)
+            return t.getField(fieldNo);
+        return td.getFieldType(fieldNo).decode(data, slotOffset(slotId) + fieldOffsets[fieldNo]);
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Return the tuple in a slot, decoding it from the page the first time
+     * it is asked for, or null if the slot is empty.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.	
-    		if (!isSlotUsed(slotId)) {
-	        for (int i=0; i<td.getSize(); i++) {
-	                try {
-	                    dis.readByte();
-	                } catch (IOException e) {
-	                    throw new NoSuchElementException("error reading empty tuple");
-	                }
-	            
-	            return null;
-	        }
-    		}
+    Tuple getTuple(int slotId) {
+        if (!isSlotUsed(slotId))
+            return null;
+        Tuple t = tuples.get(slotId);
+        if (t != null)
+            return t;
         // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+        t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        int off = slotOffset(slotId);
+        for (int j = 0; j < fieldOffsets.length; j++)
+            t.setField(j, td.getFieldType(j).decode(data, off + fieldOffsets[j]));
+        // another reader may have been faster; everybody gets the same tuple
+        if (!tuples.compareAndSet(slotId, null, t))
+            t = tuples.get(slotId);
+        return t;
+    }
+
+    /**
+     * Append the tuples of the used slots from slot from on to a batch,
+     * until the batch is full or the page runs out, decoding only the
+     * fields marked in decode straight into the batch's columns.
+     *
+     * @return the first slot not looked at, numSlots if all were
+     */
+    int fillBatch(int from, ColumnBatch batch, boolean[] decode) {
+        // the columns to fill, looked up once per call rather than per row
+        int n = 0;
+        int[] offs = new int[fieldOffsets.length];
+        int[][] intCols = new int[fieldOffsets.length][];
+        String[][] stringCols = new String[fieldOffsets.length][];
+        for (int j = 0; j < fieldOffsets.length; j++) {
+            if (decode[j]) {
+                offs[n] = fieldOffsets[j];
+                intCols[n] = batch.ints[j];
+                stringCols[n] = batch.strings[j];
+                n++;
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
         }
-
-        return t;
+        int tupleSize = td.getSize();
+        int slot = from;
+        for (; slot < numSlots && !batch.isFull(); slot++) {
+            if ((data[slot >> 3] & (1 << (slot & 7))) == 0)
+                continue;
+            int row = batch.addRow();
+            int off = headerSize + slot * tupleSize;
+            for (int k = 0; k < n; k++) {
+                if (intCols[k] != null)
+                    intCols[k][row] = Type.readInt(data, off + offs[k]);
+                else
+                    stringCols[k][row] = ((StringField) Type.STRING_TYPE
+                            .decode(data, off + offs[k])).getValue();
+            }
+        }
+        return slot;
     }
 
     /**
@@ -164,64 +243,8 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-            		Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        // the image is kept current, this is just a copy of it
+        return data.clone();
     }
 
     /**
@@ -262,7 +285,10 @@ public class HeapPage implements Page {
     			throw new DbException("Tupleno is already deleted.");
     		}
     		this.markSlotUsed(tupleno, false);
-    		this.tuples[tupleno] = null;
+    		this.tuples.set(tupleno, null);
+    		// empty slots are all zeros
+    		int off = slotOffset(tupleno);
+    		Arrays.fill(this.data, off, off + td.getSize(), (byte) 0);
     }
 
     /**
@@ -281,13 +307,46 @@ public class HeapPage implements Page {
 	    for (i = 0; i < this.numSlots; i++) {
 	    		if (!isSlotUsed(i)) {
 	            markSlotUsed(i, true);
-		        tuples[i] = t;
-		        tuples[i].setRecordId(new RecordId(pid, i));
+		        t.setRecordId(new RecordId(pid, i));
+		        tuples.set(i, t);
+		        writeTuple(i, t);
 		        break;
 	    		}
         }
     }
 
+    /**
+     * Adds tuples from a list, starting at index from, to the empty slots
+     * of this page in one pass, until the page is full or the list runs
+     * out. The RecordIds of the inserted tuples are updated.
+     *
+     * @return the index of the first tuple that was not inserted
+     * @throws DbException if a tuple's TupleDesc doesn't match
+     */
+    public int insertTuples(List<Tuple> ts, int from) throws DbException {
+        int next = from;
+        for (int i = 0; i < this.numSlots && next < ts.size(); i++) {
+            if (!isSlotUsed(i)) {
+                Tuple t = ts.get(next);
+                if (!t.getTupleDesc().equals(this.td))
+                    throw new DbException("TupleDesc does not match.");
+                markSlotUsed(i, true);
+                t.setRecordId(new RecordId(pid, i));
+                tuples.set(i, t);
+                writeTuple(i, t);
+                next++;
+            }
+        }
+        return next;
+    }
+
+    // helper function to put the fields of a tuple into its slot's bytes
+    private void writeTuple(int slotId, Tuple t) {
+        int off = slotOffset(slotId);
+        for (int j = 0; j < fieldOffsets.length; j++)
+            td.getFieldType(j).encode(t.getField(j), data, off + fieldOffsets[j]);
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -315,29 +374,13 @@ public class HeapPage implements Page {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-    	// count the number of 1-bits in the header
+    	// count the number of 1-bits in the header; bits past numSlots in
+    	// the last byte are never set
     	int onebits = 0;
-    	for (int i=0; i<header.length; i++) { //for each byte in header
-    		byte abyte = header[i];
-    		for (int j=0; j<8; j++)  {//for each bit of the byte
-    			
-    			//the bit index (i*8+j) should be less than the num of tuples,
-    			//as the last bit used in the header would have index numSlots-1 
-    			if (i*8 + j < this.numSlots) {
-    				//create a mask and perform & operation to filter out the bit of interest
-    				//then, right shift back to get either 0 or 1 only.
-	    			int bit = ((int) abyte & (1 << j)) >> j;
-	    			onebits += bit; //add 0 or 1 to the count
-    			}
-    		}
-    		
-    		
-    	}
-    	
+    	for (int i=0; i<headerSize; i++)
+    		onebits += Integer.bitCount(data[i] & 0xff);
     	//total num of slots - occupied slots = num of empty slots
         return this.numSlots - onebits;
-        
-        
     }
 
     /**
@@ -350,7 +393,7 @@ public class HeapPage implements Page {
 	    	int bitIndex = i % 8;
 	    	//then, using that information, extract the proper bit indicating
 	    	//whether the tuple slot is currently used
-	    	int abyte = header[headerByteIndex];    	
+	    	int abyte = data[headerByteIndex];    	
 	    	int bit = ((int) abyte & (1 << bitIndex)) >> bitIndex;
         return bit == 1;
     }
@@ -364,9 +407,9 @@ public class HeapPage implements Page {
     		int index = i / 8;
         int offset = i % 8;
         if (value) {
-        		header[index] |= (1 << offset);
+        		data[index] |= (1 << offset);
         } else {
-        		header[index] &= (~(1 << offset));
+        		data[index] &= (~(1 << offset));
         }
     }
 
@@ -375,16 +418,41 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        
-    	//to build an iterator, an iterable needs to be created
-    	//initialize an ArrayList and start adding tuples
-    	ArrayList<Tuple> al = new ArrayList<Tuple>();
-    	for (int i=0; i<this.numSlots;i++) {
-    		if (isSlotUsed(i))  //only add tuple corresponding to used slots
-    			al.add(tuples[i]);
-    	}
-    	
-        return al.iterator();
+    	// tuples are decoded one at a time as the iterator gets to them.
+    	// Tuples inserted meanwhile are not returned, deleted ones are
+    	// skipped.
+    	final byte[] used = Arrays.copyOf(data, headerSize);
+    	return new Iterator<Tuple>() {
+    		private int next = nextUsed(0);
+
+    		public boolean hasNext() {
+    			return next < numSlots;
+    		}
+
+    		public Tuple next() {
+    			if (next >= numSlots)
+    				throw new NoSuchElementException();
+    			Tuple t = getTuple(next);
+    			next = nextUsed(next + 1);
+    			return t;
+    		}
+
+    		public void remove() {
+    			throw new UnsupportedOperationException();
+    		}
+
+    		// first slot at or after i used both when the iterator was
+    		// created and now, numSlots if there is none
+    		private int nextUsed(int i) {
+    			while (i < numSlots && (!isSet(used, i) || !isSlotUsed(i)))
+    				i++;
+    			return i;
+    		}
+    	};
+    }
+
+    private static boolean isSet(byte[] bits, int i) {
+    	return (bits[i / 8] & (1 << (i % 8))) != 0;
     }
 
 }
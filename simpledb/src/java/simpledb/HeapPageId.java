@@ -39,9 +39,9 @@ public class HeapPageId implements PageId {
      * @see BufferPool
      */
     public int hashCode() {
-    		//concatenate tableId and pageNo as required
-    		String temp = "" + this.tableId + this.pgNo;
-    		return temp.hashCode();
+    		// combine tableId and pageNo arithmetically; this is on the
+    		// BufferPool lookup path so it should not allocate
+    		return 31 * this.tableId + this.pgNo;
     }
 
     /**
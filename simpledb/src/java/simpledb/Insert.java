@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.NoSuchElementException;
 
 /**
@@ -10,6 +11,12 @@ import java.util.NoSuchElementException;
 public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Child tuples are inserted in batches of up to this many. */
+    public static final int BATCH_SIZE = 4096;
+
+    /** Batches at least this big go through BufferPool.insertTuples. */
+    public static final int BULK_THRESHOLD = 64;
     
     private TransactionId tid;
     private DbIterator child;
@@ -89,22 +96,48 @@ public class Insert extends Operator {
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
     		if(this.child == null || this.inserted) return null;
+    		// collect the child's tuples in batches; a few rows are inserted
+    		// one by one, many rows take the bulk path
+    		ArrayList<Tuple> batch = new ArrayList<Tuple>();
     		while(this.child.hasNext()) {
     			try {
-					Database.getBufferPool().insertTuple(this.tid, this.tableid, child.next());
-				} catch (NoSuchElementException e) {
-					e.printStackTrace();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-    			count++;
+    				batch.add(child.next());
+    			} catch (NoSuchElementException e) {
+    				e.printStackTrace();
+    				continue;
+    			}
+    			if (batch.size() == BATCH_SIZE) {
+    				insertBatch(batch);
+    				batch.clear();
+    			}
     		}
+    		insertBatch(batch);
     		this.inserted = true;
         	Tuple ret = new Tuple(this.td);
         	ret.setField(0, new IntField(count));
         	return ret;
     }
 
+    // helper function to insert a batch of child tuples
+    private void insertBatch(ArrayList<Tuple> batch)
+            throws TransactionAbortedException, DbException {
+    		BufferPool bp = Database.getBufferPool();
+    		try {
+    			// only count what actually went in
+    			if (batch.size() >= BULK_THRESHOLD) {
+    				bp.insertTuples(this.tid, this.tableid, batch);
+    				count += batch.size();
+    			} else {
+    				for (Tuple t : batch) {
+    					bp.insertTuple(this.tid, this.tableid, t);
+    					count++;
+    				}
+    			}
+    		} catch (IOException e) {
+    			e.printStackTrace();
+    		}
+    }
+
     @Override
     public DbIterator[] getChildren() {
         // some code goes here
@@ -3,7 +3,16 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The Join operator implements the relational join operation with a block
+ * nested loops join. If child2 has at most as many tuples as the memory
+ * budget, it is read once into memory and every child1 tuple is matched
+ * against that. Otherwise child1 is read a block (the budget's worth of
+ * tuples) at a time, and child2 is scanned once per block instead of once
+ * per child1 tuple.
+ * <p>
+ * For =, &lt;, &lt;=, &gt; and &gt;= the tuples in memory are sorted on
+ * their join field, and the ones that match a tuple of the other child are
+ * found by binary search instead of comparing against each of them.
  */
 public class Join extends Operator {
 
@@ -11,8 +20,23 @@ public class Join extends Operator {
     private JoinPredicate p;
     private DbIterator child1;
     private DbIterator child2;
+    private TupleDesc comboTD;
     private Tuple tcurr; //for tracking purposes
 
+    /** Default memory budget: the most tuples of either child kept in memory. */
+    public final static int BLOCK_SIZE = 20000;
+
+    private int budget = BLOCK_SIZE;
+    // all of child2 if it fits in the budget, else null
+    transient private ArrayList<Tuple> inner = null;
+    // the current block of child1 when child2 doesn't fit
+    private ArrayList<Tuple> block = new ArrayList<Tuple>();
+    // matching range [pos, end) of inner (for tcurr from child1) or of
+    // block (for tcurr from child2); for the unordered predicates, the
+    // whole list, to be checked tuple by tuple
+    transient private int pos;
+    transient private int end;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -35,6 +59,23 @@ public class Join extends Operator {
         return this.p;
     }
 
+    /**
+     * Set the most tuples of a child kept in memory, for the cached child2
+     * or a block of child1. Takes effect on the next open.
+     *
+     * @throws IllegalArgumentException if tuples is less than 1
+     */
+    public void setMemoryBudget(int tuples) {
+        if (tuples < 1)
+            throw new IllegalArgumentException("memory budget of " + tuples + " tuples");
+        this.budget = tuples;
+    }
+
+    /** @return true if the last open found child2 small enough to cache */
+    public boolean isInnerCached() {
+        return inner != null;
+    }
+
     /**
      * @return
      *       the field name of join field1. Should be quantified by
@@ -59,7 +100,9 @@ public class Join extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return TupleDesc.merge(this.child1.getTupleDesc(), this.child2.getTupleDesc());
+        if (comboTD == null)
+            comboTD = TupleDesc.merge(this.child1.getTupleDesc(), this.child2.getTupleDesc());
+        return comboTD;
     }
 
     public void open() throws DbException, NoSuchElementException,
@@ -67,6 +110,22 @@ public class Join extends Operator {
         super.open();
         this.child1.open();
         this.child2.open();
+        // try to fit child2 in memory; if it doesn't, start over with blocks
+        // of child1 instead
+        ArrayList<Tuple> all = new ArrayList<Tuple>();
+        while (all.size() <= budget && this.child2.hasNext()) {
+            all.add(this.child2.next());
+        }
+        if (all.size() <= budget) {
+            this.inner = all;
+            if (ordered(this.p.getOperator()))
+                Collections.sort(this.inner, new TupleComparator(this.p.getField2(), true));
+        } else {
+            this.inner = null;
+            this.child2.rewind();
+        }
+        this.block.clear();
+        this.tcurr = null;
     }
 
     public void close() {
@@ -74,19 +133,106 @@ public class Join extends Operator {
         this.child1.close();
         this.child2.close();
         this.tcurr = null;
+        this.inner = null;
+        this.block.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         this.child1.rewind();
-        this.child2.rewind();
+        if (this.inner == null)
+            this.child2.rewind();
+        this.block.clear();
         this.tcurr = null;
     }
 
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple ret = new Tuple(this.getTupleDesc());
+        int n1 = t1.getTupleDesc().numFields();
+        int n2 = t2.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++)
+            ret.setField(i, t1.getField(i));
+        for (int i = 0; i < n2; i++)
+            ret.setField(n1 + i, t2.getField(i));
+        return ret;
+    }
+
+    private static boolean ordered(Predicate.Op op) {
+        return op != Predicate.Op.LIKE && op != Predicate.Op.NOT_EQUALS;
+    }
+
+    // first tuple of the sorted list whose field is >= v (or > v if after)
+    private static int search(ArrayList<Tuple> list, int field, Field v, boolean after) {
+        Predicate.Op skip = after ? Predicate.Op.LESS_THAN_OR_EQ : Predicate.Op.LESS_THAN;
+        int lo = 0, hi = list.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (list.get(mid).getField(field).compare(skip, v))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    // set [pos, end) to the tuples x of list with x.field op v
+    private void range(ArrayList<Tuple> list, int field, Predicate.Op op, Field v) {
+        pos = 0;
+        end = list.size();
+        switch (op) {
+        case EQUALS:
+            pos = search(list, field, v, false);
+            end = search(list, field, v, true);
+            break;
+        case LESS_THAN:
+            end = search(list, field, v, false);
+            break;
+        case LESS_THAN_OR_EQ:
+            end = search(list, field, v, true);
+            break;
+        case GREATER_THAN:
+            pos = search(list, field, v, true);
+            break;
+        case GREATER_THAN_OR_EQ:
+            pos = search(list, field, v, false);
+            break;
+        default:
+            break; // not sorted, check them all
+        }
+    }
+
+    // the op with its sides swapped: v op x is x flip(op) v
+    private static Predicate.Op flip(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    // read the next block of child1, false if child1 is done
+    private boolean nextBlock() throws DbException, TransactionAbortedException {
+        this.block.clear();
+        while (this.block.size() < budget && this.child1.hasNext()) {
+            this.block.add(this.child1.next());
+        }
+        if (ordered(this.p.getOperator()))
+            Collections.sort(this.block, new TupleComparator(this.p.getField1(), true));
+        return !this.block.isEmpty();
+    }
+
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
-     * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * satisfies the join predicate. With child2 in memory, the results come
+     * in child1 order; otherwise they come block by block, and within a
+     * block in child2 order.
      * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -101,44 +247,49 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (tcurr == null) {
-        		if(this.child1.hasNext()) {
-        			tcurr = this.child1.next();
-        		}
+        Predicate.Op op = this.p.getOperator();
+        boolean check = !ordered(op);
+        if (this.inner != null) {
+            // tcurr is a child1 tuple, [pos, end) the child2 tuples to try
+            while (true) {
+                if (tcurr == null) {
+                    if (!this.child1.hasNext())
+                        return null;
+                    tcurr = this.child1.next();
+                    range(this.inner, this.p.getField2(), flip(op),
+                            tcurr.getField(this.p.getField1()));
+                }
+                while (pos < end) {
+                    Tuple tjoin = this.inner.get(pos++);
+                    if (!check || this.p.filter(tcurr, tjoin))
+                        return merge(tcurr, tjoin);
+                }
+                tcurr = null;
+            }
         }
-        
-        // begin nested loop join
-        while(this.child1.hasNext() || this.tcurr != null) {
-        		while(this.child2.hasNext()) {
-        			Tuple tjoin = this.child2.next();
-        			if(this.p.filter(tcurr, tjoin)) {
-        				// join condition matches, so need to create new tuple to return
-        				Tuple ret = new Tuple(this.getTupleDesc());
-        				Iterator<Field> fieldIter = tcurr.fields();
-        				int retpos = 0;
-        				// set fields of first tuple
-        				while(fieldIter.hasNext()) {
-        					ret.setField(retpos++, fieldIter.next());
-        				}
-        				// set fields of second tuple
-        				fieldIter = tjoin.fields();
-        				while(fieldIter.hasNext()) {
-        					ret.setField(retpos++, fieldIter.next());
-        				}
-        				return ret;
-        			}
-        		}
-    			// no match, get next tuple from child1
-    			if (this.child1.hasNext()) {
-    				tcurr = this.child1.next();
-    				this.child2.rewind();
-    			} else {
-    				return null;
-    			}
+
+        // tcurr is a child2 tuple, [pos, end) the tuples of the block to try
+        while (true) {
+            if (tcurr == null) {
+                if (this.block.isEmpty() && !nextBlock())
+                    return null;
+                if (!this.child2.hasNext()) {
+                    // done with this block
+                    if (!nextBlock())
+                        return null;
+                    this.child2.rewind();
+                    continue;
+                }
+                tcurr = this.child2.next();
+                range(this.block, this.p.getField1(), op, tcurr.getField(this.p.getField2()));
+            }
+            while (pos < end) {
+                Tuple touter = this.block.get(pos++);
+                if (!check || this.p.filter(touter, tcurr))
+                    return merge(touter, tcurr);
+            }
+            tcurr = null;
         }
-        // shouldnt get here
-        return null;
-        
     }
 
     @Override
@@ -153,6 +304,7 @@ public class Join extends Operator {
     public void setChildren(DbIterator[] children) {
         child1 = children[0];
         child2 = children[1];
+        comboTD = null;
     }
 
 }
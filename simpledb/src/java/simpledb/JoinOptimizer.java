@@ -70,12 +70,35 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        // range predicates are merge joined: the matches of each tuple
+        // are a prefix of the other side once both are sorted
+        if (isRange(lj.p))
+            j = new SortMergeJoin(p,plan1,plan2);
+        else
+            j = new Join(p,plan1,plan2);
 
         return j;
 
     }
 
+    private static boolean isRange(Predicate.Op op) {
+        return op == Op.LESS_THAN || op == Op.LESS_THAN_OR_EQ
+                || op == Op.GREATER_THAN || op == Op.GREATER_THAN_OR_EQ;
+    }
+
+    /** Fraction of card1 x card2 a range join is assumed to return. */
+    static final double RANGE_SELECTIVITY = 0.015;
+
+    // cost of sorting card tuples that take cost to scan: n log n
+    // comparisons, and if they don't fit in memory, writing the runs out
+    // and reading them back
+    private static double sortCost(int card, double cost) {
+        double c = card * Math.log(Math.max(card, 2)) / Math.log(2);
+        if (card > ExternalSort.RUN_SIZE)
+            c += 2 * cost;
+        return c;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -117,7 +140,13 @@ public class JoinOptimizer {
 	        	// will implement this based on the following formula provided
 	        	//joincost(t1 join t2) = scancost(t1) + ntups(t1) x scancost(t2) //IO cost
             //        + ntups(t1) x ntups(t2)  //CPU cost
-        		return cost1 + (card1 * cost2) + (card1 * card2);
+        		if (!isRange(j.p))
+        			return cost1 + (card1 * cost2) + (card1 * card2);
+        		// range joins are sort-merge joins (see instantiateJoin): a
+        		// scan and a sort of each side, a merge step per tuple, and
+        		// one per result
+        		return cost1 + cost2 + sortCost(card1, cost1) + sortCost(card2, cost2)
+        				+ card1 + card2 + card1 * (double) card2 * RANGE_SELECTIVITY;
         }
     }
 
@@ -186,7 +215,7 @@ public class JoinOptimizer {
         }
         //for range scans
         else {
-        		return (int)(card1*card2*0.015); //again, for the same reason, smaller but larger than for the case above
+        		return (int)(card1*card2*RANGE_SELECTIVITY); //again, for the same reason, smaller but larger than for the case above
         }
         // shouldn't get here
         return card <= 0 ? 1 : card;
@@ -0,0 +1,404 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LockManager keeps the page-level shared/exclusive locks used by the
+ * BufferPool to implement strict two-phase locking. A transaction may hold
+ * a shared lock on a page together with other transactions, or an
+ * exclusive lock alone; a sole shared holder may upgrade its lock to an
+ * exclusive one. Requests that cannot be granted wait in a FIFO queue on
+ * the page, with upgrades served first.
+ * <p>
+ * The lock table is split into stripes by page, each with its own monitor,
+ * so that transactions working on different pages never contend on the
+ * same monitor.
+ * <p>
+ * Deadlocks are found with a waits-for graph: whenever a request has to
+ * wait, the edges from its transaction to the transactions it waits for
+ * are updated and the graph is searched for a cycle through that
+ * transaction. The youngest transaction of a cycle (the one with the
+ * highest id) is chosen as the victim, and its pending request fails with
+ * a TransactionAbortedException. Lock order is stripe, then graph, then
+ * request, and never the other way around.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    private static final int STRIPES = 64;
+
+    /** The lock state of one page. Protected by the monitor of its stripe. */
+    private static class PageLock {
+        final HashSet<TransactionId> sharers = new HashSet<TransactionId>(4);
+        TransactionId exclusive;
+        final ArrayList<Request> queue = new ArrayList<Request>(2);
+
+        boolean isFree() {
+            return sharers.isEmpty() && exclusive == null && queue.isEmpty();
+        }
+
+        boolean holds(TransactionId tid, boolean wantExclusive) {
+            if (tid.equals(exclusive))
+                return true;
+            return !wantExclusive && sharers.contains(tid);
+        }
+
+        boolean compatible(TransactionId tid, boolean wantExclusive) {
+            if (exclusive != null && !exclusive.equals(tid))
+                return false;
+            if (!wantExclusive)
+                return true;
+            return sharers.isEmpty() || (sharers.size() == 1 && sharers.contains(tid));
+        }
+
+        void grant(TransactionId tid, boolean wantExclusive) {
+            if (wantExclusive) {
+                sharers.remove(tid);
+                exclusive = tid;
+            } else if (!tid.equals(exclusive)) {
+                sharers.add(tid);
+            }
+        }
+    }
+
+    /**
+     * A waiting lock request. The waiting thread blocks on the request's own
+     * monitor, so that it can be woken without holding its stripe.
+     */
+    private static class Request {
+        final TransactionId tid;
+        final boolean exclusive;
+        // protected by the request's monitor
+        boolean signalled;
+        boolean aborted;
+
+        Request(TransactionId tid, boolean exclusive) {
+            this.tid = tid;
+            this.exclusive = exclusive;
+        }
+
+        synchronized void signal(boolean abort) {
+            signalled = true;
+            aborted |= abort;
+            notifyAll();
+        }
+    }
+
+    private static class Stripe {
+        final HashMap<PageId, PageLock> locks = new HashMap<PageId, PageLock>();
+    }
+
+    private final Stripe[] stripes;
+    // pages on which each transaction holds a lock
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> held;
+    private volatile long timeoutMs = 0;
+
+    // waits-for graph and the request each blocked transaction is waiting
+    // on; both protected by graphLock
+    private final Object graphLock = new Object();
+    private final HashMap<TransactionId, HashSet<TransactionId>> waitsFor;
+    private final HashMap<TransactionId, Request> waiting;
+
+    // deadlock metrics, protected by graphLock
+    private long deadlocks;
+    private long detections;
+    private long detectionNanos;
+    private long maxDetectionNanos;
+
+    public LockManager() {
+        stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new Stripe();
+        held = new ConcurrentHashMap<TransactionId, Set<PageId>>();
+        waitsFor = new HashMap<TransactionId, HashSet<TransactionId>>();
+        waiting = new HashMap<TransactionId, Request>();
+    }
+
+    private Stripe stripeOf(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return stripes[(h & 0x7fffffff) % STRIPES];
+    }
+
+    /**
+     * Set how long acquire waits before giving up, in milliseconds. Deadlocks
+     * are detected without it; 0 (the default) means wait as long as needed.
+     */
+    public void setTimeout(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Acquire a lock on a page for a transaction, blocking until it can be
+     * granted. Returns immediately if the transaction already holds a lock
+     * at least as strong.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     * @throws TransactionAbortedException if the transaction was chosen as
+     *         the victim of a deadlock, or the timeout (if any) expired
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        boolean exclusive = perm == Permissions.READ_WRITE;
+        Stripe stripe = stripeOf(pid);
+        Request req;
+        synchronized (stripe) {
+            PageLock lock = stripe.locks.get(pid);
+            if (lock == null) {
+                lock = new PageLock();
+                stripe.locks.put(pid, lock);
+            }
+            if (lock.holds(tid, exclusive))
+                return;
+            boolean upgrade = lock.sharers.contains(tid);
+            if (lock.compatible(tid, exclusive) && (lock.queue.isEmpty() || upgrade)) {
+                lock.grant(tid, exclusive);
+                addHeld(tid, pid);
+                return;
+            }
+
+            req = new Request(tid, exclusive);
+            // upgrades go before other waiters; they already hold the page
+            if (upgrade)
+                lock.queue.add(0, req);
+            else
+                lock.queue.add(req);
+        }
+
+        long deadline = timeoutMs > 0 ? System.currentTimeMillis() + timeoutMs : 0;
+        while (true) {
+            synchronized (stripe) {
+                PageLock lock = stripe.locks.get(pid);
+                boolean aborted;
+                synchronized (req) {
+                    aborted = req.aborted;
+                    req.signalled = false;
+                }
+                if (!aborted && lock.compatible(tid, exclusive) && lock.queue.get(0) == req) {
+                    lock.queue.remove(0);
+                    lock.grant(tid, exclusive);
+                    addHeld(tid, pid);
+                    stopWaiting(tid);
+                    // compatible requests behind this one may go too
+                    signalAll(lock);
+                    return;
+                }
+                if (aborted || (deadline > 0 && System.currentTimeMillis() >= deadline)
+                        || !waitFor(req, blockers(lock, req))) {
+                    lock.queue.remove(req);
+                    if (lock.isFree())
+                        stripe.locks.remove(pid);
+                    stopWaiting(tid);
+                    signalAll(lock);
+                    throw new TransactionAbortedException();
+                }
+            }
+            try {
+                synchronized (req) {
+                    while (!req.signalled) {
+                        long left = deadline > 0 ? deadline - System.currentTimeMillis() : 0;
+                        if (deadline > 0 && left <= 0)
+                            break;
+                        req.wait(left);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                req.signal(true);
+            }
+        }
+    }
+
+    // the transactions a queued request has to wait for: incompatible
+    // holders, and everybody queued ahead of it
+    private static HashSet<TransactionId> blockers(PageLock lock, Request req) {
+        HashSet<TransactionId> result = new HashSet<TransactionId>();
+        if (lock.exclusive != null)
+            result.add(lock.exclusive);
+        if (req.exclusive)
+            result.addAll(lock.sharers);
+        for (Request r : lock.queue) {
+            if (r == req)
+                break;
+            result.add(r.tid);
+        }
+        result.remove(req.tid);
+        return result;
+    }
+
+    private static void signalAll(PageLock lock) {
+        for (Request r : lock.queue)
+            r.signal(false);
+    }
+
+    /**
+     * Record that req's transaction waits for the given transactions and
+     * look for a deadlock through it. If there is one, its youngest
+     * transaction is aborted.
+     *
+     * @return false if req's own transaction is the victim
+     */
+    private boolean waitFor(Request req, HashSet<TransactionId> blockers) {
+        synchronized (graphLock) {
+            waitsFor.put(req.tid, blockers);
+            waiting.put(req.tid, req);
+
+            long start = System.nanoTime();
+            List<TransactionId> cycle = findCycle(req.tid);
+            long elapsed = System.nanoTime() - start;
+            detections++;
+            detectionNanos += elapsed;
+            maxDetectionNanos = Math.max(maxDetectionNanos, elapsed);
+            if (cycle == null)
+                return true;
+
+            deadlocks++;
+            TransactionId victim = cycle.get(0);
+            for (TransactionId t : cycle) {
+                if (t.getId() > victim.getId())
+                    victim = t;
+            }
+            if (victim.equals(req.tid))
+                return false;
+            Request victimReq = waiting.get(victim);
+            if (victimReq != null)
+                victimReq.signal(true);
+            return true;
+        }
+    }
+
+    // depth-first search for a path in the waits-for graph leading from
+    // start back to itself; returns the transactions on it, or null
+    private List<TransactionId> findCycle(TransactionId start) {
+        ArrayList<TransactionId> path = new ArrayList<TransactionId>();
+        ArrayList<Iterator<TransactionId>> stack = new ArrayList<Iterator<TransactionId>>();
+        HashSet<TransactionId> visited = new HashSet<TransactionId>();
+        path.add(start);
+        stack.add(waitsFor.get(start).iterator());
+        visited.add(start);
+        while (!stack.isEmpty()) {
+            Iterator<TransactionId> it = stack.get(stack.size() - 1);
+            if (!it.hasNext()) {
+                stack.remove(stack.size() - 1);
+                path.remove(path.size() - 1);
+                continue;
+            }
+            TransactionId next = it.next();
+            if (next.equals(start))
+                return path;
+            HashSet<TransactionId> out = waitsFor.get(next);
+            if (out != null && visited.add(next)) {
+                path.add(next);
+                stack.add(out.iterator());
+            }
+        }
+        return null;
+    }
+
+    private void stopWaiting(TransactionId tid) {
+        synchronized (graphLock) {
+            waitsFor.remove(tid);
+            waiting.remove(tid);
+        }
+    }
+
+    /** @return the number of deadlocks found so far. */
+    public long getDeadlockCount() {
+        synchronized (graphLock) {
+            return deadlocks;
+        }
+    }
+
+    /** @return how many times the waits-for graph was searched. */
+    public long getDetectionCount() {
+        synchronized (graphLock) {
+            return detections;
+        }
+    }
+
+    /** @return the average time of one waits-for graph search, in ns. */
+    public long getAverageDetectionNanos() {
+        synchronized (graphLock) {
+            return detections == 0 ? 0 : detectionNanos / detections;
+        }
+    }
+
+    /** @return the longest waits-for graph search so far, in ns. */
+    public long getMaxDetectionNanos() {
+        synchronized (graphLock) {
+            return maxDetectionNanos;
+        }
+    }
+
+    private void addHeld(TransactionId tid, PageId pid) {
+        Set<PageId> pages = held.get(tid);
+        if (pages == null) {
+            Set<PageId> fresh = ConcurrentHashMap.newKeySet();
+            pages = held.putIfAbsent(tid, fresh);
+            if (pages == null)
+                pages = fresh;
+        }
+        pages.add(pid);
+    }
+
+    /** Release the lock a transaction holds on a page, if any. */
+    public void release(TransactionId tid, PageId pid) {
+        Set<PageId> pages = held.get(tid);
+        if (pages != null)
+            pages.remove(pid);
+        releaseLock(tid, pid);
+    }
+
+    private void releaseLock(TransactionId tid, PageId pid) {
+        Stripe stripe = stripeOf(pid);
+        synchronized (stripe) {
+            PageLock lock = stripe.locks.get(pid);
+            if (lock == null)
+                return;
+            if (tid.equals(lock.exclusive))
+                lock.exclusive = null;
+            lock.sharers.remove(tid);
+            if (lock.isFree())
+                stripe.locks.remove(pid);
+            else
+                signalAll(lock);
+        }
+    }
+
+    /** Release every lock held by a transaction. */
+    public void releaseAll(TransactionId tid) {
+        stopWaiting(tid);
+        Set<PageId> pages = held.remove(tid);
+        if (pages == null)
+            return;
+        for (PageId pid : pages)
+            releaseLock(tid, pid);
+    }
+
+    /** @return true if the transaction holds any lock on the page. */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        Set<PageId> pages = held.get(tid);
+        return pages != null && pages.contains(pid);
+    }
+
+    /** @return true if the transaction holds an exclusive lock on the page. */
+    public boolean holdsExclusive(TransactionId tid, PageId pid) {
+        Stripe stripe = stripeOf(pid);
+        synchronized (stripe) {
+            PageLock lock = stripe.locks.get(pid);
+            return lock != null && tid.equals(lock.exclusive);
+        }
+    }
+
+    /** @return the pages a transaction holds locks on (a snapshot). */
+    public Set<PageId> lockedPages(TransactionId tid) {
+        Set<PageId> pages = held.get(tid);
+        if (pages == null)
+            return Collections.emptySet();
+        return new HashSet<PageId>(pages);
+    }
+}
@@ -3,7 +3,10 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
-import java.lang.reflect.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -11,6 +14,11 @@ able to write different log records as needed, but it is the
 responsibility of the caller to ensure that write ahead logging and
 two-phase locking discipline are followed.  <p>
 
+Commits are forced in groups: logCommit appends its record under the
+monitor, then waits without it for the flusher thread, which forces the
+log once for all records appended so far.  See setGroupCommit.
+<p>
+
 <u> Locking note: </u>
 <p>
 
@@ -45,21 +53,29 @@ last written checkpoint, or -1 if there are no checkpoints
 <li> All additional data in the log consists of log records.  Log
 records are variable length.
 
-<li> Each log record begins with an integer type and a long integer
-transaction id.
+<li> Each log record begins with a byte type, a long integer
+transaction id and the integer length of the record's data, which
+follows.
 
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> Each log record ends with an integer CRC32 of everything before it
+in the record, and a long integer file offset representing the position
+in the log file where the record began.
 
 <li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
 CHECKPOINT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
-<li>UPDATE RECORDS consist of two entries, a before image and an
-after image.  These images are serialized Page objects, and can be
-accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+<li>UPDATE RECORDS hold the integer table id and page number of the
+page, an integer count of changed byte ranges, and for each range its
+integer offset and length, followed by the range's bytes in the before
+image and in the after image.  Only bytes that differ between the two
+images (and short gaps between them) are logged.  Replaying a record
+patches the page as it is on disk; see applyUpdate().  Once a page has
+been logged and written while its transaction runs, the next record of
+the page is taken against that image, not the before image, so the
+records of a transaction chain up: redo replays them in order, undo
+newest first.
 
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
@@ -87,12 +103,58 @@ public class LogFile {
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
+    // type, tid and data length in front of a record; crc and start
+    // offset behind it
+    final static int RECORD_HEADER_SIZE = 1 + LONG_SIZE + INT_SIZE;
+    final static int RECORD_TRAILER_SIZE = INT_SIZE + LONG_SIZE;
+    // changed ranges closer than this are logged as one range
+    final static int RANGE_GAP = 2 * INT_SIZE;
+    static final byte[] NO_DATA = new byte[0];
+
     long currentOffset = -1;//protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    // threads recover() replays pages with
+    private volatile int recoveryThreads = Runtime.getRuntime().availableProcessors();
+
+    // one checkpoint at a time
+    private final Object checkpointLock = new Object();
+
+    /** A record as read back from the log. */
+    static class LogRecord {
+        final int type;
+        final long tid;
+        final byte[] data;
+        final long offset;
+
+        LogRecord(int type, long tid, byte[] data, long offset) {
+            this.type = type;
+            this.tid = tid;
+            this.data = data;
+            this.offset = offset;
+        }
+    }
+
+    // group commit. Records are counted as they are appended (written
+    // under this); committers wait on flushLock until the flusher thread
+    // has forced their record. Counts, unlike offsets, survive truncation.
+    static final long FLUSHER_IDLE_MS = 1000;
+    private volatile long appendedRecords = 0;
+    private final Object flushLock = new Object();
+    // held while forcing or replacing raf
+    private final Object forceLock = new Object();
+    private long flushedRecords = 0; // protected by flushLock
+    private long requestedRecords = 0; // protected by flushLock
+    private int waiters = 0; // protected by flushLock
+    private Thread flusher; // protected by flushLock
+    private IOException flushError; // protected by flushLock
+    private long forces = 0; // protected by flushLock
+    private long batchWindowNanos = 0; // protected by flushLock
+    private int maxBatchSize = 64; // protected by flushLock
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -127,11 +189,7 @@ public class LogFile {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            preAppendEmpty();
         }
     }
 
@@ -158,10 +216,7 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                appendRecord(ABORT_RECORD, tid.getId(), NO_DATA);
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -169,21 +224,24 @@ public class LogFile {
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk. Returns once a force of the flusher
+        thread covers the record.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        long record;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            record = appendRecord(COMMIT_RECORD, tid.getId(), NO_DATA);
+            tidToFirstLogRecord.remove(tid.getId());
+        }
+        // group commit: wait outside the monitor, so that other committers
+        // can append their records and share the force
+        waitForFlush(record);
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -197,102 +255,218 @@ public class LogFile {
     public  synchronized void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        logWrite(tid, before.getPageData(), after.getId(), after.getPageData());
+    }
+
+    /**
+     * Like logWrite(tid, before, after), with both images given as the
+     * bytes of the page: the caller can write the same after bytes to
+     * disk, and take the record against the image it last logged for the
+     * page rather than the before image (see Page.getLoggedImage).
+     */
+    public  synchronized void logWrite(TransactionId tid, byte[] before,
+                                       PageId pid, byte[] after)
+        throws IOException  {
+        Debug.log("WRITE, offset = " + currentOffset);
         preAppend();
-        /* update record conists of
-
-           record type
-           transaction id
-           before page data (see writePageData)
-           after page data
-           start offset
-        */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        appendRecord(UPDATE_RECORD, tid.getId(),
+                encodeUpdate(pid, before, after));
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int pageInfo[] = pid.serialize();
-
-        //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
+    /**
+     * Encode the changes between two images of a page as UPDATE record
+     * data: table id, page number, and the changed byte ranges with their
+     * before and after contents.
+     */
+    static byte[] encodeUpdate(PageId pid, byte[] before, byte[] after) {
+        // find the ranges, merging the ones separated by short gaps
+        // (a range costs two ints of its own)
+        ArrayList<int[]> ranges = new ArrayList<int[]>();
+        int changed = 0;
+        int i = 0;
+        while (i < after.length) {
+            if (before[i] == after[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1; // exclusive end of the last differing byte
+            for (i = end; i < after.length && i - end < RANGE_GAP; i++) {
+                if (before[i] != after[i]) {
+                    end = i + 1;
+                }
+            }
+            ranges.add(new int[] { start, end - start });
+            changed += end - start;
+            i = end;
+        }
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
+        ByteBuffer buf = ByteBuffer.allocate(3 * INT_SIZE
+                + ranges.size() * 2 * INT_SIZE + 2 * changed);
+        buf.putInt(pid.getTableId());
+        buf.putInt(pid.getPageNumber());
+        buf.putInt(ranges.size());
+        for (int[] r : ranges) {
+            buf.putInt(r[0]);
+            buf.putInt(r[1]);
+            buf.put(before, r[0], r[1]);
+            buf.put(after, r[0], r[1]);
+        }
+        return buf.array();
+    }
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+    /**
+     * Apply the after (redo) or before (undo) contents of an UPDATE
+     * record to the page on disk, and drop any cached copy of it.
+     */
+    void applyUpdate(byte[] update, boolean redo) throws IOException {
+        PageId pid = replay(Collections.singletonList(update), redo);
+        Database.getBufferPool().discardPage(pid);
+    }
 
-        raf.writeInt(pageInfo.length);
-        for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
+    // apply UPDATE records of one page, in the given order, to the page on
+    // disk with a single read and write; returns the page. Does not touch
+    // the buffer pool, so that recovery workers can run it.
+    private static PageId replay(List<byte[]> updates, boolean redo) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(updates.get(0));
+        DbFile file = Database.getCatalog().getDatabaseFile(buf.getInt());
+        PageId pid = file.getPageId(buf.getInt());
+        // a page torn by the crash doesn't match its checksum; replaying
+        // the updates repairs it
+        Page page = file instanceof HeapFile ? ((HeapFile) file).readPage(pid, false)
+                : file.readPage(pid);
+        byte[] data = page.getPageData();
+        for (byte[] update : updates) {
+            buf = ByteBuffer.wrap(update);
+            buf.position(2 * INT_SIZE);
+            int numRanges = buf.getInt();
+            for (int i = 0; i < numRanges; i++) {
+                int offset = buf.getInt();
+                int length = buf.getInt();
+                if (redo) {
+                    buf.position(buf.position() + length);
+                }
+                buf.get(data, offset, length);
+                if (!redo) {
+                    buf.position(buf.position() + length);
+                }
+            }
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+        file.writePage(file.createPage(pid, data));
+        return pid;
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+    /** Set the number of threads recover() replays pages with. */
+    public void setRecoveryThreads(int threads) {
+        recoveryThreads = Math.max(1, threads);
+    }
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+    // replay UPDATE records (in the order given) in parallel: records are
+    // grouped by page, keeping their order within a page, and each page
+    // is one task of the worker pool. Cached copies of the pages are
+    // dropped afterwards by the calling thread, which may hold the buffer
+    // pool's monitor.
+    private void replayParallel(List<LogRecord> records, boolean redo) throws IOException {
+        // page key: table id and page number, the first two ints
+        LinkedHashMap<Long, List<byte[]>> byPage = new LinkedHashMap<Long, List<byte[]>>();
+        for (LogRecord r : records) {
+            ByteBuffer buf = ByteBuffer.wrap(r.data);
+            long key = ((long) buf.getInt() << 32) | (buf.getInt() & 0xffffffffL);
+            List<byte[]> updates = byPage.get(key);
+            if (updates == null) {
+                updates = new ArrayList<byte[]>();
+                byPage.put(key, updates);
+            }
+            updates.add(r.data);
+        }
+        if (byPage.isEmpty()) {
+            return;
+        }
 
+        int threads = Math.min(recoveryThreads, byPage.size());
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<PageId>> replayed = new ArrayList<Future<PageId>>();
         try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = new Integer(raf.readInt());
+            for (final List<byte[]> updates : byPage.values()) {
+                final boolean redoPage = redo;
+                replayed.add(workers.submit(new Callable<PageId>() {
+                    public PageId call() throws IOException {
+                        return replay(updates, redoPage);
+                    }
+                }));
             }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
-
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            for (Future<PageId> f : replayed) {
+                Database.getBufferPool().discardPage(f.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted during recovery");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+    // append a record at the end of the log; returns its number in the
+    // order of the log
+    private long appendRecord(int type, long tid, byte[] data) throws IOException {
+        writeRecord(raf, type, tid, data, currentOffset);
+        currentOffset = raf.getFilePointer();
+        return ++appendedRecords;
+    }
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+    // write one record, with its crc, in a single write
+    static void writeRecord(RandomAccessFile out, int type, long tid, byte[] data,
+            long start) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER_SIZE + data.length
+                + RECORD_TRAILER_SIZE);
+        buf.put((byte) type);
+        buf.putLong(tid);
+        buf.putInt(data.length);
+        buf.put(data);
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int) crc.getValue());
+        buf.putLong(start);
+        out.write(buf.array());
+    }
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException e){
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-            throw new IOException();
+    /**
+     * Read the record at the file pointer of in.
+     *
+     * @throws EOFException at the end of the log, or if the record was cut
+     *         short
+     * @throws IOException if the record fails its crc check
+     */
+    static LogRecord readRecord(RandomAccessFile in) throws IOException {
+        long start = in.getFilePointer();
+        byte[] header = new byte[RECORD_HEADER_SIZE];
+        in.readFully(header);
+        ByteBuffer buf = ByteBuffer.wrap(header);
+        int type = buf.get();
+        long tid = buf.getLong();
+        int length = buf.getInt();
+        if (length < 0 || length > in.length() - in.getFilePointer()) {
+            throw new EOFException();
         }
-        return newPage;
-
+        byte[] data = new byte[length];
+        in.readFully(data);
+        int storedCrc = in.readInt();
+        long storedStart = in.readLong();
+
+        CRC32 crc = new CRC32();
+        crc.update(header);
+        crc.update(data);
+        if ((int) crc.getValue() != storedCrc || storedStart != start) {
+            throw new IOException("corrupt log record at offset " + start);
+        }
+        return new LogRecord(type, tid, data, start);
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -307,56 +481,125 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        appendRecord(BEGIN_RECORD, tid.getId(), NO_DATA);
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    // CHECKPOINT record data: active transactions and their first record
+    private static byte[] encodeCheckpoint(Map<Long,Long> firstRecords) {
+        ByteBuffer buf = ByteBuffer.allocate(INT_SIZE + firstRecords.size() * 2 * LONG_SIZE);
+        buf.putInt(firstRecords.size());
+        for (Map.Entry<Long,Long> e : firstRecords.entrySet()) {
+            buf.putLong(e.getKey());
+            buf.putLong(e.getValue());
+        }
+        return buf.array();
+    }
+
+    private static Map<Long,Long> decodeCheckpoint(byte[] data) {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int numXactions = buf.getInt();
+        LinkedHashMap<Long,Long> firstRecords = new LinkedHashMap<Long,Long>();
+        while (numXactions-- > 0) {
+            long xid = buf.getLong();
+            firstRecords.put(xid, buf.getLong());
+        }
+        return firstRecords;
+    }
+
+    /** Checkpoint the log and write a checkpoint record.
+
+        The checkpoint is fuzzy: transactions keep running while it is
+        taken.  The checkpoint record is appended first; at that point
+        every change logged before it is either on disk or in a page that
+        is dirty in the buffer pool.  Those pages (the dirty page table)
+        are then flushed one at a time, the data files forced to disk, and
+        only after that is the checkpoint made the start of redo in the log
+        header, and the log truncated.  A crash in between recovers from the previous
+        checkpoint.
+    */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
+        synchronized (checkpointLock) {
+            BufferPool bp = Database.getBufferPool();
+            long startCpOffset;
             synchronized (this) {
                 //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+                startCpOffset = currentOffset;
+                //no tid, -1 as a placeholder
+                appendRecord(CHECKPOINT_RECORD, -1, encodeCheckpoint(tidToFirstLogRecord));
+            }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
+            // taken after the record, so pages dirtied by changes logged
+            // before it are all in here
+            ArrayList<PageId> dirtyPages = bp.dirtyPages();
+            bp.flushPagesGradually(dirtyPages);
+            saveFreeSpaceMaps();
+            // the writes above (and any steal before the checkpoint record)
+            // may still be in the OS cache; they must be on disk before
+            // the log before the checkpoint can go
+            forceDataFiles();
+
+            //once the pages are out, make sure the CP location at the
+            // beginning of the log file is updated
+            synchronized (this) {
                 raf.seek(0);
                 raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                raf.seek(currentOffset);
                 //Debug.log("CP OFFSET = " + currentOffset);
             }
+            forceFile();
         }
 
         logTruncate();
     }
 
+    // the free space maps are only hints, but saving them with the pages
+    // keeps them close to what is on disk
+    private void saveFreeSpaceMaps() throws IOException {
+        Catalog catalog = Database.getCatalog();
+        Iterator<Integer> ids = catalog.tableIdIterator();
+        while (ids.hasNext()) {
+            DbFile file = catalog.getDatabaseFile(ids.next());
+            if (file instanceof HeapFile) {
+                ((HeapFile) file).saveFreeSpaceMap();
+            }
+        }
+    }
+
+    // force every heap file and its checksums to disk
+    private void forceDataFiles() throws IOException {
+        Catalog catalog = Database.getCatalog();
+        Iterator<Integer> ids = catalog.tableIdIterator();
+        while (ids.hasNext()) {
+            DbFile file = catalog.getDatabaseFile(ids.next());
+            if (file instanceof HeapFile) {
+                ((HeapFile) file).force();
+            }
+        }
+    }
+
+    /** Take a checkpoint on a background thread.
+        @return the thread taking the checkpoint
+    */
+    public Thread logCheckpointInBackground() {
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    logCheckpoint();
+                } catch (IOException e) {
+                    System.out.println("CHECKPOINT FAILED");
+                    e.printStackTrace();
+                }
+            }
+        }, "checkpointer");
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
     /** Truncate any unneeded portion of the log to reduce its space
         consumption */
     public synchronized void logTruncate() throws IOException {
@@ -368,20 +611,11 @@ public class LogFile {
 
         if (cpLoc != -1L) {
             raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
+            LogRecord cp = readRecord(raf);
+            if (cp.type != CHECKPOINT_RECORD) {
                 throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
             }
-
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
+            for (long firstLogRecord : decodeCheckpoint(cp.data).values()) {
                 if (firstLogRecord < minLogRecord) {
                     minLogRecord = firstLogRecord;
                 }
@@ -398,58 +632,46 @@ public class LogFile {
 
         //have to rewrite log records since offsets are different after truncation
         while (true) {
+            LogRecord r;
             try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
+                r = readRecord(raf);
             } catch (EOFException e) {
                 break;
             }
+            long newStart = logNew.getFilePointer();
+            Debug.log("NEW START = " + newStart);
+
+            byte[] data = r.data;
+            switch (r.type) {
+            case CHECKPOINT_RECORD:
+                Map<Long,Long> firstRecords = decodeCheckpoint(data);
+                for (Map.Entry<Long,Long> e : firstRecords.entrySet()) {
+                    e.setValue((e.getValue() - minLogRecord) + LONG_SIZE);
+                }
+                data = encodeCheckpoint(firstRecords);
+                break;
+            case BEGIN_RECORD:
+                tidToFirstLogRecord.put(r.tid, newStart);
+                break;
+            }
+            writeRecord(logNew, r.type, r.tid, data, newStart);
         }
 
         Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
 
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
+        logNew.getChannel().force(true);
+        logNew.close();
+        synchronized (forceLock) {
+            raf.close();
+            logFile.delete();
+            newFile.renameTo(logFile);
+            raf = new RandomAccessFile(logFile, "rw");
+            raf.seek(raf.length());
+        }
         newFile.delete();
 
         currentOffset = raf.getFilePointer();
+        markFlushed();
         //print();
     }
 
@@ -466,7 +688,26 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null) {
+                    throw new NoSuchElementException("no live transaction " + tid.getId());
+                }
+
+                // collect the transaction's updates, then undo them
+                // newest first
+                ArrayList<byte[]> updates = new ArrayList<byte[]>();
+                raf.seek(first);
+                while (raf.getFilePointer() < currentOffset) {
+                    LogRecord r = readRecord(raf);
+                    if (r.type == UPDATE_RECORD && r.tid == tid.getId()) {
+                        updates.add(r.data);
+                    }
+                }
+                raf.seek(currentOffset);
+
+                for (int i = updates.size() - 1; i >= 0; i--) {
+                    applyUpdate(updates.get(i), false);
+                }
             }
         }
     }
@@ -475,10 +716,14 @@ public class LogFile {
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                synchronized (forceLock) {
+                    raf.close();
+                }
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -488,23 +733,269 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        Redo, then undo, replay pages in parallel on a pool of worker
+        threads; see setRecoveryThreads.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                tidToFirstLogRecord.clear();
+                if (raf.length() < LONG_SIZE) {
+                    // nothing was ever logged
+                    preAppendEmpty();
+                    return;
+                }
+                raf.seek(0);
+                long cpLoc = raf.readLong();
+
+                // analysis: find the outcome of every transaction and
+                // its updates
+                HashSet<Long> began = new HashSet<Long>();
+                HashSet<Long> finished = new HashSet<Long>();
+                HashSet<Long> committed = new HashSet<Long>();
+                ArrayList<LogRecord> updates = new ArrayList<LogRecord>();
+                long end = LONG_SIZE;
+                raf.seek(end);
+                while (true) {
+                    LogRecord r;
+                    try {
+                        r = readRecord(raf);
+                    } catch (IOException e) {
+                        // end of the log, or a record torn by the crash
+                        break;
+                    }
+                    switch (r.type) {
+                    case UPDATE_RECORD:
+                        updates.add(r);
+                        break;
+                    case BEGIN_RECORD:
+                        began.add(r.tid);
+                        break;
+                    case COMMIT_RECORD:
+                        committed.add(r.tid);
+                        finished.add(r.tid);
+                        break;
+                    case ABORT_RECORD:
+                        // rollback restored its pages before the record
+                        // was written
+                        finished.add(r.tid);
+                        break;
+                    case CHECKPOINT_RECORD:
+                        began.addAll(decodeCheckpoint(r.data).keySet());
+                        break;
+                    }
+                    end = raf.getFilePointer();
+                }
+                raf.setLength(end);
+
+                // redo: install the updates of committed transactions in
+                // log order. Everything before the checkpoint is on disk.
+                long redoFrom = cpLoc == NO_CHECKPOINT_ID ? 0 : cpLoc;
+                ArrayList<LogRecord> redo = new ArrayList<LogRecord>();
+                for (LogRecord r : updates) {
+                    if (r.offset >= redoFrom && committed.contains(r.tid)) {
+                        redo.add(r);
+                    }
+                }
+                replayParallel(redo, true);
+
+                // undo: put back the before images of transactions that
+                // never finished, newest first
+                began.removeAll(finished);
+                ArrayList<LogRecord> undo = new ArrayList<LogRecord>();
+                for (int i = updates.size() - 1; i >= 0; i--) {
+                    if (began.contains(updates.get(i).tid)) {
+                        undo.add(updates.get(i));
+                    }
+                }
+                replayParallel(undo, false);
+
+                // the losers are aborted now; say so, so that a later
+                // recovery does not undo them again
+                raf.seek(end);
+                currentOffset = end;
+                for (Long loser : began) {
+                    appendRecord(ABORT_RECORD, loser, NO_DATA);
+                }
+                force();
             }
          }
     }
 
+    // start an empty log, as preAppend does for a new database
+    private void preAppendEmpty() throws IOException {
+        raf.seek(0);
+        raf.setLength(0);
+        raf.writeLong(NO_CHECKPOINT_ID);
+        currentOffset = raf.getFilePointer();
+    }
+
     /** Print out a human readable represenation of the log */
-    public void print() throws IOException {
-        // some code goes here
+    public synchronized void print() throws IOException {
+        raf.seek(0);
+        System.out.println("checkpoint at " + raf.readLong());
+        while (true) {
+            LogRecord r;
+            try {
+                r = readRecord(raf);
+            } catch (EOFException e) {
+                break;
+            }
+            String[] names = { "?", "ABORT", "COMMIT", "UPDATE", "BEGIN", "CHECKPOINT" };
+            String line = r.offset + ": " + names[r.type] + " tid " + r.tid;
+            if (r.type == UPDATE_RECORD) {
+                ByteBuffer buf = ByteBuffer.wrap(r.data);
+                line += " table " + buf.getInt() + " page " + buf.getInt()
+                    + ", " + buf.getInt() + " ranges, " + r.data.length + " bytes";
+            } else if (r.type == CHECKPOINT_RECORD) {
+                line += " active " + decodeCheckpoint(r.data);
+            }
+            System.out.println(line);
+        }
+        raf.seek(currentOffset);
+    }
+
+    // force the file as it is, including the header, which is not a
+    // record and so not covered by force()
+    private void forceFile() throws IOException {
+        synchronized (forceLock) {
+            raf.getChannel().force(true);
+        }
+    }
+
+    /** Force everything appended to the log so far to disk. */
+    public void force() throws IOException {
+        waitForFlush(appendedRecords);
+    }
+
+    /**
+     * Configure group commit.
+     *
+     * @param batchWindowMicros how long the flusher waits for more
+     *        committers once one is waiting; 0 forces right away
+     * @param maxBatchSize the number of waiting committers that ends the
+     *        window early
+     */
+    public void setGroupCommit(long batchWindowMicros, int maxBatchSize) {
+        synchronized (flushLock) {
+            this.batchWindowNanos = batchWindowMicros * 1000;
+            this.maxBatchSize = Math.max(1, maxBatchSize);
+        }
+    }
+
+    /** @return the number of times the flusher forced the log. */
+    public long getForceCount() {
+        synchronized (flushLock) {
+            return forces;
+        }
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    // block until the given record is on disk, starting the flusher
+    // thread if it is not running
+    private void waitForFlush(long record) throws IOException {
+        synchronized (flushLock) {
+            if (flushedRecords >= record) {
+                return;
+            }
+            requestedRecords = Math.max(requestedRecords, record);
+            waiters++;
+            if (flusher == null) {
+                flusher = new Thread(new Runnable() {
+                    public void run() {
+                        flushLoop();
+                    }
+                }, "log flusher");
+                flusher.setDaemon(true);
+                flusher.start();
+            }
+            flushLock.notifyAll();
+            if (waiters >= maxBatchSize) {
+                LockSupport.unpark(flusher);
+            }
+            try {
+                while (flushedRecords < record && flushError == null) {
+                    flushLock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for log force");
+            } finally {
+                waiters--;
+            }
+            if (flushedRecords < record) {
+                throw new IOException("log force failed: " + flushError.getMessage());
+            }
+        }
+    }
+
+    // body of the flusher thread: wait for committers, let the batch window
+    // collect more of them, then force once for all records appended so
+    // far. Exits after FLUSHER_IDLE_MS without work.
+    private void flushLoop() {
+        while (true) {
+            synchronized (flushLock) {
+                try {
+                    long idleUntil = System.currentTimeMillis() + FLUSHER_IDLE_MS;
+                    while (requestedRecords <= flushedRecords) {
+                        long left = idleUntil - System.currentTimeMillis();
+                        if (left <= 0) {
+                            flusher = null;
+                            return;
+                        }
+                        flushLock.wait(left);
+                    }
+                } catch (InterruptedException e) {
+                    flusher = null;
+                    flushLock.notifyAll();
+                    return;
+                }
+            }
+
+            // batch window, spent parked rather than in Object.wait, whose
+            // resolution is a millisecond; a full batch unparks us early
+            long windowEnd = System.nanoTime() + batchWindowNanos;
+            while (true) {
+                synchronized (flushLock) {
+                    if (waiters >= maxBatchSize) {
+                        break;
+                    }
+                }
+                long left = windowEnd - System.nanoTime();
+                if (left <= 0) {
+                    break;
+                }
+                LockSupport.parkNanos(this, left);
+            }
+
+            // every record counted here has been written completely
+            long target = appendedRecords;
+            try {
+                synchronized (forceLock) {
+                    raf.getChannel().force(true);
+                }
+            } catch (IOException e) {
+                synchronized (flushLock) {
+                    flushError = e;
+                    flusher = null;
+                    flushLock.notifyAll();
+                }
+                return;
+            }
+            synchronized (flushLock) {
+                flushedRecords = Math.max(flushedRecords, target);
+                forces++;
+                flushLock.notifyAll();
+            }
+        }
+    }
+
+    // everything in the log is on disk, e.g. after truncation
+    private void markFlushed() {
+        synchronized (flushLock) {
+            flushedRecords = Math.max(flushedRecords, appendedRecords);
+            flushLock.notifyAll();
+        }
     }
 
 }
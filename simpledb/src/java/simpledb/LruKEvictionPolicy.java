@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+
+/**
+ * LRU-K eviction (O'Neil, O'Neil and Weikum), with K = 2 by default. The
+ * victim is the page whose K-th most recent reference is the oldest; pages
+ * that have been referenced fewer than K times are evicted first, in LRU
+ * order. Pages that are only read once by a sequential scan therefore never
+ * push out pages that are referenced repeatedly.
+ * <p>
+ * Reference history is kept for a bounded number of recently evicted pages
+ * so that a page coming back into the pool does not start from scratch.
+ */
+public class LruKEvictionPolicy implements EvictionPolicy {
+
+    private final int k;
+    private long clock;
+    // history[frame][0] is the most recent reference, history[frame][k-1]
+    // the k-th most recent one (0 if the page has fewer references)
+    private long[][] history;
+    private PageId[] pids;
+    // resident frames ordered by k-th reference, then by last reference
+    private TreeSet<Integer> order;
+    private LinkedHashMap<PageId, long[]> retained;
+
+    public LruKEvictionPolicy() {
+        this(2);
+    }
+
+    public LruKEvictionPolicy(int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("K must be at least 1");
+        this.k = k;
+    }
+
+    public void init(final int numFrames) {
+        clock = 0;
+        history = new long[numFrames][k];
+        pids = new PageId[numFrames];
+        order = new TreeSet<Integer>(new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                long[] ha = history[a], hb = history[b];
+                if (ha[k - 1] != hb[k - 1])
+                    return ha[k - 1] < hb[k - 1] ? -1 : 1;
+                if (ha[0] != hb[0])
+                    return ha[0] < hb[0] ? -1 : 1;
+                return Integer.compare(a, b);
+            }
+        });
+        retained = new LinkedHashMap<PageId, long[]>(16, 0.75f, false) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> e) {
+                return size() > numFrames;
+            }
+        };
+    }
+
+    public void pageLoaded(int frame, PageId pid) {
+        pids[frame] = pid;
+        long[] old = retained.remove(pid);
+        if (old != null) {
+            System.arraycopy(old, 0, history[frame], 0, k);
+        } else {
+            Arrays.fill(history[frame], 0);
+        }
+        reference(frame);
+        order.add(frame);
+    }
+
+    public void pageAccessed(int frame) {
+        order.remove(frame);
+        reference(frame);
+        order.add(frame);
+    }
+
+    public void pageRemoved(int frame) {
+        if (pids[frame] == null)
+            return;
+        order.remove(frame);
+        retained.put(pids[frame], history[frame].clone());
+        pids[frame] = null;
+    }
+
+    public int chooseVictim(PageId incoming, IntPredicate evictable) {
+        for (int frame : order) {
+            if (evictable.test(frame))
+                return frame;
+        }
+        return -1;
+    }
+
+    // shift the reference history of frame and record a reference now
+    private void reference(int frame) {
+        long[] h = history[frame];
+        System.arraycopy(h, 0, h, 1, k - 1);
+        h[0] = ++clock;
+    }
+}
@@ -3,18 +3,19 @@ package simpledb;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY, on one or
+ * more fields. The tuples are sorted with an ExternalSort, so a child that
+ * doesn't fit in the memory budget is sorted in runs on disk.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
-    private String orderByFieldName;
-    private Iterator<Tuple> it;
-    private boolean asc;
+    private int[] orderByFields;
+    private boolean[] asc;
+    private int budget = ExternalSort.RUN_SIZE;
+    private ExternalSort sort;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,26 +28,71 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child);
+    }
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator, sorting
+     * on several fields: by the first, tuples equal on it by the second, and
+     * so on.
+     * 
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, DbIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one order per sort field");
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
+        this.orderByFields = orderbyFields;
         this.asc = asc;
     }
     
     public boolean isASC()
     {
-	return this.asc;
+	return this.asc[0];
     }
     
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
     
     public String getOrderFieldName()
     {
-	return this.orderByFieldName;
+	return td.getFieldName(this.orderByFields[0]);
+    }
+
+    /** @return the sort fields, most significant first */
+    public int[] getOrderByFields() {
+        return this.orderByFields;
+    }
+
+    /** @return for each sort field, true if it is sorted ascending */
+    public boolean[] getAscending() {
+        return this.asc;
+    }
+
+    /**
+     * Set the most tuples kept in memory while sorting. Takes effect on the
+     * next open.
+     *
+     * @throws IllegalArgumentException if tuples is less than 1
+     */
+    public void setMemoryBudget(int tuples) {
+        if (tuples < 1)
+            throw new IllegalArgumentException("memory budget of " + tuples + " tuples");
+        this.budget = tuples;
+    }
+
+    /** @return true if the last open had to sort in runs on disk */
+    public boolean isSpilled() {
+        return sort != null && sort.isSpilled();
     }
     
     public TupleDesc getTupleDesc() {
@@ -55,22 +101,21 @@ public class OrderBy extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        sort = new ExternalSort(child, new TupleComparator(orderByFields, asc));
+        sort.setMemoryBudget(budget);
+        sort.open();
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        if (sort != null)
+            sort.close();
+        sort = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        sort.rewind();
     }
 
     /**
@@ -82,8 +127,8 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
+        if (sort != null && sort.hasNext()) {
+            return sort.next();
         } else
             return null;
     }
@@ -99,25 +144,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
@@ -56,4 +56,14 @@ public interface Page {
      * copy current content to the before image.
      */
     public void setBeforeImage();
+
+    /**
+     * @return the image of this page as of its last update record: the
+     *         one logged since setBeforeImage, or else the before image.
+     *         The next update record of the page is taken against it.
+     */
+    public byte[] getLoggedImage();
+
+    /** Remember data as the image of this page last logged. */
+    public void setLoggedImage(byte[] data);
 }
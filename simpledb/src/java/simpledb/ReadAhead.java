@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.concurrent.Future;
+
+/**
+ * ReadAhead watches the pages a scan of a HeapFile asks for and, once the
+ * scan reads them in order, keeps reads of the next few pages going in the
+ * background (see {@link BufferPool#prefetchPage}), so that the I/O
+ * overlaps with whatever the operators above the scan do with the tuples.
+ * <p>
+ * The number of pages kept in flight adapts to the consumer: it doubles
+ * every time the scan has to wait for a page that is still being read,
+ * and shrinks by one after a window's worth of pages that were ready in
+ * time.
+ */
+class ReadAhead {
+
+    // pages read in order before read ahead starts
+    static final int SEQUENTIAL_RUN = 2;
+
+    private final BufferPool pool;
+    private final int tableId;
+    private final BufferRing ring;
+    private final int max;
+
+    private int window = 1;
+    private int lastPage = -2;
+    private int run = 0;
+    // pages ready when the scan got to them since the window last changed
+    private int ready = 0;
+    // last page a read was issued for
+    private int issued = -1;
+    private final HashMap<Integer, Future<Page>> inFlight = new HashMap<Integer, Future<Page>>();
+
+    ReadAhead(BufferPool pool, int tableId, BufferRing ring) {
+        this.pool = pool;
+        this.tableId = tableId;
+        this.ring = ring;
+        this.max = pool.maxReadAhead(ring);
+    }
+
+    /** @return the number of pages currently kept in flight ahead of the scan. */
+    int window() {
+        return window;
+    }
+
+    /**
+     * Called by the scan right before it gets page pageNo of a file of
+     * numPages pages.
+     */
+    void beforeRead(int pageNo, int numPages) {
+        if (max == 0) {
+            return;
+        }
+        if (pageNo == lastPage + 1) {
+            run++;
+        } else {
+            // the scan jumped, e.g. it was rewound
+            run = 0;
+            inFlight.clear();
+            issued = pageNo;
+        }
+        lastPage = pageNo;
+
+        Future<Page> f = inFlight.remove(pageNo);
+        if (f != null) {
+            if (!f.isDone()) {
+                // the scan caught up with the reads
+                window = Math.min(max, window * 2);
+                ready = 0;
+            } else if (++ready >= window && window > 1) {
+                window--;
+                ready = 0;
+            }
+        }
+        if (run < SEQUENTIAL_RUN) {
+            return;
+        }
+        int last = Math.min(pageNo + window, numPages - 1);
+        for (int p = Math.max(issued + 1, pageNo + 1); p <= last; p++) {
+            Future<Page> read = pool.prefetchPage(new HeapPageId(tableId, p), ring);
+            if (read != null) {
+                inFlight.put(p, read);
+            }
+            issued = p;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedFile is a HeapFile whose pages are SlottedPages: tuples are
+ * stored with variable-length strings, so a table of short strings gets
+ * many more tuples per page, and a scan reads that many fewer pages.
+ * Page I/O, the free space map and scans are those of HeapFile; only the
+ * way tuples are put into and taken out of pages differs.
+ * <p>
+ * A table is stored this way when its line in the catalog file ends with
+ * "slotted", e.g. <tt>names (id int pk, name string) slotted</tt>.
+ *
+ * @see simpledb.SlottedPage
+ */
+public class SlottedFile extends HeapFile {
+
+    /**
+     * Constructs a slotted file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file.
+     */
+    public SlottedFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    protected Page newPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        return new SlottedPage(pid, data);
+    }
+
+    @Override
+    protected Iterator<Tuple> pageTuples(Page page) {
+        return ((SlottedPage) page).iterator();
+    }
+
+    // the fewest bytes a tuple of this table takes on a new slot: all its
+    // strings empty
+    private int minRecordSize() {
+        TupleDesc td = getTupleDesc();
+        int size = SlottedPage.SLOT_SIZE;
+        for (int j = 0; j < td.numFields(); j++)
+            size += td.getFieldType(j) == Type.STRING_TYPE ? 2 : td.getFieldType(j).getLen();
+        return size;
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (SlottedPage.HEADER_SIZE + SlottedPage.SLOT_SIZE + SlottedPage.recordSize(t)
+                > BufferPool.getPageSize())
+            throw new DbException("tuple doesn't fit on a page");
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = freeSpaceMap();
+        ArrayList<Page> al = new ArrayList<Page>();
+        // like HeapFile.insertTuple. A page without room for this tuple is
+        // marked full even if a shorter one would still fit; deletes mark
+        // it free again.
+        int pageNo;
+        while ((pageNo = fsm.findPage(this.numPages())) != -1) {
+            HeapPageId pid = new HeapPageId(getId(), pageNo);
+            boolean held = bp.holdsLock(tid, pid);
+            SlottedPage sp = (SlottedPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+            if (!sp.hasRoomFor(t)) {
+                fsm.markFull(pageNo);
+                if (!held) {
+                    bp.releasePage(tid, pid);
+                }
+                continue;
+            }
+            insertInto(sp, t);
+            al.add(sp);
+            return al;
+        }
+        SlottedPage sp = (SlottedPage) bp.getPage(tid, appendEmptyPage(), Permissions.READ_WRITE);
+        insertInto(sp, t);
+        if (sp.getFreeSpace() >= minRecordSize()) {
+            // appended pages stay full in the map until they are filled
+            fsm.markFree(sp.getId().getPageNumber());
+        }
+        al.add(sp);
+        return al;
+    }
+
+    private void insertInto(SlottedPage sp, Tuple t) throws DbException {
+        sp.insertTuple(t);
+        if (sp.getFreeSpace() < minRecordSize()) {
+            freeSpaceMap().markFull(sp.getId().getPageNumber());
+        }
+    }
+
+    /**
+     * Adds many tuples on behalf of transaction tid, one at a time.
+     *
+     * @return the pages that were modified, each once
+     */
+    @Override
+    public ArrayList<Page> insertTuples(TransactionId tid, List<Tuple> ts)
+            throws DbException, IOException, TransactionAbortedException {
+        LinkedHashSet<Page> dirtied = new LinkedHashSet<Page>();
+        for (Tuple t : ts) {
+            dirtied.addAll(insertTuple(tid, t));
+        }
+        return new ArrayList<Page>(dirtied);
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        PageId pid = t.getRecordId().getPageId();
+        SlottedPage sp = (SlottedPage) Database.getBufferPool().getPage(tid, pid,
+                Permissions.READ_WRITE);
+        sp.deleteTuple(t);
+        pageFreed(pid.getPageNumber());
+        ArrayList<Page> al = new ArrayList<Page>();
+        al.add(sp);
+        return al;
+    }
+}
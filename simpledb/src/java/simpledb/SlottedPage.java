@@ -0,0 +1,405 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Each instance of SlottedPage stores data for one page of SlottedFiles.
+ * Unlike a HeapPage, whose slots all have the size of the largest
+ * possible tuple, a SlottedPage stores each tuple in as many bytes as its
+ * fields need, so a string only takes up the characters it has.
+ * <p>
+ * The layout of a page is:
+ * <pre>
+ *   slot count (2 bytes) | start of the record area (2 bytes) |
+ *   slot directory: offset (2 bytes), length (2 bytes) per slot |
+ *   free space | records, growing down from the end of the page
+ * </pre>
+ * A slot with offset 0 is empty. A page of all zeros is an empty page, so
+ * HeapPage.createEmptyPageData works for SlottedPages as well.
+ * <p>
+ * Records encode ints as 4 bytes and strings as a 2-byte length followed
+ * by the low byte of each character, up to Type.STRING_LEN characters.
+ * <p>
+ * A tuple keeps its slot number for as long as it is on the page, so its
+ * RecordId stays valid. Deleting a tuple leaves a hole in the record area;
+ * when an insert doesn't find enough contiguous free space but the holes
+ * add up to enough, the page is compacted first.
+ * <p>
+ * Offsets are 2 bytes, so pages can be at most 64KB.
+ *
+ * @see SlottedFile
+ * @see BufferPool
+ */
+public class SlottedPage implements Page {
+
+    static final int HEADER_SIZE = 4;
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    // the page image, kept up to date by insertTuple and deleteTuple
+    final byte data[];
+
+    private TransactionId tid; // dirty mark
+
+    byte[] oldData;
+    // the image last logged since the before image was taken, null if none
+    byte[] loggedData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk, in
+     * the format described above.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a SlottedPage from the bytes between the position and the
+     * limit of a buffer. The buffer is only read while the page is being
+     * constructed and is not modified.
+     */
+    public SlottedPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.tid = null;
+        if (BufferPool.getPageSize() > 0x10000)
+            throw new IOException("page size " + BufferPool.getPageSize() + " too big for slotted pages");
+        if (data.remaining() < BufferPool.getPageSize())
+            throw new IOException("short page " + id.getPageNumber());
+        this.data = new byte[BufferPool.getPageSize()];
+        data.duplicate().get(this.data);
+        setBeforeImage();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage(){
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new SlottedPage(pid,oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        oldData = data.clone();
+        loggedData = null;
+        }
+    }
+
+    public byte[] getLoggedImage() {
+        synchronized(oldDataLock)
+        {
+            return loggedData != null ? loggedData : oldData;
+        }
+    }
+
+    public void setLoggedImage(byte[] data) {
+        synchronized(oldDataLock)
+        {
+            loggedData = data;
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return this.pid;
+    }
+
+    // 2-byte unsigned values of the header and the slot directory
+    private int getShort(int off) {
+        return ((data[off] & 0xff) << 8) | (data[off + 1] & 0xff);
+    }
+
+    private void putShort(int off, int v) {
+        data[off] = (byte) (v >>> 8);
+        data[off + 1] = (byte) v;
+    }
+
+    /** @return the number of entries in the slot directory, used or not. */
+    public int getNumSlots() {
+        return getShort(0);
+    }
+
+    // start of the record area; 0 on a page that never had a record
+    private int recordStart() {
+        int start = getShort(2);
+        return start == 0 ? data.length : start;
+    }
+
+    private int slotOffset(int slotId) {
+        return getShort(HEADER_SIZE + slotId * SLOT_SIZE);
+    }
+
+    private int slotLength(int slotId) {
+        return getShort(HEADER_SIZE + slotId * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slotId, int offset, int length) {
+        putShort(HEADER_SIZE + slotId * SLOT_SIZE, offset);
+        putShort(HEADER_SIZE + slotId * SLOT_SIZE + 2, length);
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int slotId) {
+        return slotId >= 0 && slotId < getNumSlots() && slotOffset(slotId) != 0;
+    }
+
+    /**
+     * @return the number of bytes in the record area of a tuple
+     */
+    public static int recordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE)
+                size += 2 + Math.min(((StringField) t.getField(j)).getValue().length(), Type.STRING_LEN);
+            else
+                size += td.getFieldType(j).getLen();
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of bytes free between the slot directory and the
+     *         record area
+     */
+    private int contiguousFree() {
+        return recordStart() - HEADER_SIZE - getNumSlots() * SLOT_SIZE;
+    }
+
+    /**
+     * Returns the number of bytes available for new records, counting the
+     * holes left by deleted ones.
+     */
+    public int getFreeSpace() {
+        int used = 0;
+        int n = getNumSlots();
+        for (int i = 0; i < n; i++)
+            used += slotLength(i);
+        return data.length - HEADER_SIZE - n * SLOT_SIZE - used;
+    }
+
+    // slot a new record goes into: the first empty one, or a new one at
+    // the end of the directory
+    private int freeSlot() {
+        int n = getNumSlots();
+        for (int i = 0; i < n; i++) {
+            if (slotOffset(i) == 0)
+                return i;
+        }
+        return n;
+    }
+
+    /**
+     * @return true if the tuple can be inserted into this page, possibly
+     *         after compacting it
+     */
+    public boolean hasRoomFor(Tuple t) {
+        int need = recordSize(t);
+        if (freeSlot() == getNumSlots())
+            need += SLOT_SIZE;
+        return need <= getFreeSpace();
+    }
+
+    /**
+     * Move the records of the page together at the end of the page, so
+     * that all free space is between the slot directory and the records.
+     * Slot numbers don't change.
+     */
+    public void compact() {
+        int n = getNumSlots();
+        Integer[] order = new Integer[n];
+        int used = 0;
+        for (int i = 0; i < n; i++) {
+            if (slotOffset(i) != 0)
+                order[used++] = i;
+        }
+        // the records highest up in the page move first, each of them only
+        // moves toward the end of the page, so nothing is overwritten
+        // before it was moved
+        Arrays.sort(order, 0, used, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return slotOffset(b) - slotOffset(a);
+            }
+        });
+        int end = data.length;
+        for (int k = 0; k < used; k++) {
+            int slot = order[k];
+            int len = slotLength(slot);
+            end -= len;
+            System.arraycopy(data, slotOffset(slot), data, end, len);
+            setSlot(slot, end, len);
+        }
+        Arrays.fill(data, HEADER_SIZE + n * SLOT_SIZE, end, (byte) 0);
+        putShort(2, end == data.length ? 0 : end);
+    }
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the page doesn't have room for the tuple or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(this.td))
+            throw new DbException("TupleDesc does not match.");
+        if (!hasRoomFor(t))
+            throw new DbException("SlottedPage has no room for the tuple.");
+        int slot = freeSlot();
+        int len = recordSize(t);
+        int dirGrowth = slot == getNumSlots() ? SLOT_SIZE : 0;
+        if (contiguousFree() < len + dirGrowth)
+            compact();
+        if (dirGrowth != 0)
+            putShort(0, slot + 1);
+        int off = recordStart() - len;
+        writeRecord(t, off);
+        setSlot(slot, off, len);
+        putShort(2, off);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Delete the specified tuple from the page;  the tuple should be updated to reflect
+     *   that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId todelete = t.getRecordId();
+        if (todelete == null || !this.pid.equals(todelete.getPageId()))
+            throw new DbException("Tuple is empty or not on page.");
+        int slot = todelete.getTupleNumber();
+        if (!isSlotUsed(slot))
+            throw new DbException("Tupleno is already deleted.");
+        Arrays.fill(data, slotOffset(slot), slotOffset(slot) + slotLength(slot), (byte) 0);
+        setSlot(slot, 0, 0);
+        // trailing empty slots go away, the others have to stay so that
+        // slot numbers don't change
+        int n = getNumSlots();
+        while (n > 0 && slotOffset(n - 1) == 0)
+            n--;
+        putShort(0, n);
+        if (n == 0)
+            putShort(2, 0);
+    }
+
+    // helper function to put the fields of a tuple into the record area
+    private void writeRecord(Tuple t, int off) {
+        for (int j = 0; j < td.numFields(); j++) {
+            Field f = t.getField(j);
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                putShort(off, len);
+                off += 2;
+                for (int i = 0; i < len; i++)
+                    data[off++] = (byte) s.charAt(i);
+            } else {
+                td.getFieldType(j).encode(f, data, off);
+                off += td.getFieldType(j).getLen();
+            }
+        }
+    }
+
+    /**
+     * Return the tuple in a slot, decoded from the page, or null if the
+     * slot is empty.
+     */
+    Tuple getTuple(int slotId) {
+        if (!isSlotUsed(slotId))
+            return null;
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        int off = slotOffset(slotId);
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                int len = getShort(off);
+                t.setField(j, new StringField(new String(data, off + 2, len), Type.STRING_LEN));
+                off += 2 + len;
+            } else {
+                t.setField(j, td.getFieldType(j).decode(data, off));
+                off += td.getFieldType(j).getLen();
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     */
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.tid = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return this.tid;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        // tuples are decoded one at a time as the iterator gets to them;
+        // slots emptied meanwhile are skipped
+        return new Iterator<Tuple>() {
+            private final int slots = getNumSlots();
+            private int next = nextUsed(0);
+
+            public boolean hasNext() {
+                return next < slots;
+            }
+
+            public Tuple next() {
+                if (next >= slots)
+                    throw new NoSuchElementException();
+                Tuple t = getTuple(next);
+                next = nextUsed(next + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            private int nextUsed(int i) {
+                while (i < slots && !isSlotUsed(i))
+                    i++;
+                return i;
+            }
+        };
+    }
+}
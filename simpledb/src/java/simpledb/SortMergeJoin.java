@@ -0,0 +1,316 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator joins two children sorted on their join fields,
+ * for the =, &lt;, &lt;=, &gt; and &gt;= predicates. Unless the children are
+ * declared sorted (setInputsSorted), each is sorted first with an
+ * ExternalSort.
+ * <p>
+ * For =, the children are merged, and the child2 tuples with the key of the
+ * current child1 tuple (a duplicate run) are kept in memory while the child1
+ * tuples with that key go by. Past the memory budget, the rest of the run
+ * is read again from its input for each child1 tuple.
+ * <p>
+ * For the others, the tuples matching a tuple of one side are a prefix of
+ * the other side: for child1.f &gt; child2.f, the child2 tuples smaller than
+ * the child1 tuple, and the other way around for &lt;. As the first side
+ * goes up, that prefix only grows, so it is kept in memory and extended
+ * instead of being read again. Past the memory budget, the rest of the
+ * prefix is read again from its input for each tuple.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private JoinPredicate p;
+    private DbIterator child1, child2;
+    private TupleDesc comboTD;
+    private boolean inputsSorted = false;
+    private int budget = ExternalSort.RUN_SIZE;
+
+    // the children in join field order: the children themselves if they
+    // are sorted already, else ExternalSorts of them
+    transient private DbIterator left, right;
+
+    // for =: the current child1 tuple, the child2 tuples with its key (up
+    // to the budget), and the first child2 tuple past them
+    transient private Tuple t1;
+    transient private ArrayList<Tuple> group;
+    transient private int groupPos;
+    transient private Tuple peek;
+    // tuples taken from right so far
+    transient private int rightPos;
+    // when the run is over the budget: its first tuple not in group, and
+    // rightPos just after it was read; restFirst is null otherwise
+    transient private Tuple restFirst;
+    transient private int restPos;
+    // tuples of the rest of the run read for t1, -1 if not reading it
+    transient private int rest;
+
+    // for the others: the side whose tuples are matched one at a time, the
+    // side whose prefix matches, the current tuple of the first, the prefix
+    // of the second read so far and the tuple after it
+    transient private DbIterator drive, other;
+    transient private Tuple d;
+    transient private ArrayList<Tuple> prefix;
+    transient private int prefixPos;
+    transient private Tuple after;
+    // tuples of other read past the prefix for d, when the prefix is over
+    // the budget; -1 if not reading past it
+    transient private int overflow;
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children, one of =, &lt;,
+     *            &lt;=, &gt; and &gt;=
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (p.getOperator() == Predicate.Op.LIKE || p.getOperator() == Predicate.Op.NOT_EQUALS)
+            throw new IllegalArgumentException("can't merge join on " + p.getOperator());
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    /**
+     * Declare that both children already come in ascending order of their
+     * join fields, so open doesn't sort them. Takes effect on the next open.
+     */
+    public void setInputsSorted(boolean sorted) {
+        this.inputsSorted = sorted;
+    }
+
+    /**
+     * Set the most tuples kept in memory, by each sort and for a duplicate
+     * run or prefix. Takes effect on the next open.
+     *
+     * @throws IllegalArgumentException if tuples is less than 1
+     */
+    public void setMemoryBudget(int tuples) {
+        if (tuples < 1)
+            throw new IllegalArgumentException("memory budget of " + tuples + " tuples");
+        this.budget = tuples;
+    }
+
+    private DbIterator sorted(DbIterator child, int field) {
+        if (inputsSorted)
+            return child;
+        ExternalSort sort = new ExternalSort(child, new TupleComparator(field, true));
+        sort.setMemoryBudget(budget);
+        return sort;
+    }
+
+    private boolean greater() {
+        return p.getOperator() == Predicate.Op.GREATER_THAN
+                || p.getOperator() == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        left = sorted(child1, p.getField1());
+        right = sorted(child2, p.getField2());
+        left.open();
+        right.open();
+        // child1 > child2: child2 tuples below each child1 tuple;
+        // child1 < child2: child1 tuples below each child2 tuple
+        drive = greater() ? left : right;
+        other = greater() ? right : left;
+        group = new ArrayList<Tuple>();
+        prefix = new ArrayList<Tuple>();
+        reset();
+        super.open();
+    }
+
+    private void reset() throws DbException, TransactionAbortedException {
+        t1 = null;
+        group.clear();
+        groupPos = 0;
+        rightPos = 0;
+        restFirst = null;
+        rest = -1;
+        d = null;
+        prefix.clear();
+        prefixPos = 0;
+        overflow = -1;
+        if (p.getOperator() == Predicate.Op.EQUALS)
+            peek = nextRight();
+        else
+            after = other.hasNext() ? other.next() : null;
+    }
+
+    public void close() {
+        super.close();
+        if (left != null)
+            left.close();
+        if (right != null)
+            right.close();
+        left = right = drive = other = null;
+        t1 = d = peek = after = restFirst = null;
+        group = prefix = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        left.rewind();
+        right.rewind();
+        reset();
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(comboTD);
+        int n1 = t1.getTupleDesc().numFields();
+        int n2 = t2.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < n2; i++)
+            t.setField(n1 + i, t2.getField(i));
+        return t;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (p.getOperator() == Predicate.Op.EQUALS)
+            return fetchEquals();
+        return fetchRange();
+    }
+
+    private Tuple nextRight() throws TransactionAbortedException, DbException {
+        if (!right.hasNext())
+            return null;
+        rightPos++;
+        return right.next();
+    }
+
+    private Tuple fetchEquals() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (t1 != null && groupPos < group.size())
+                return merge(t1, group.get(groupPos++));
+            if (t1 != null && rest >= 0) {
+                // the run went over the budget: read the rest of it from
+                // right, which ends up just past the run like peek
+                Tuple x = rest == 0 ? restFirst : nextRight();
+                rest++;
+                if (x != null && x.getField(p.getField2()).compare(Predicate.Op.EQUALS,
+                        t1.getField(p.getField1())))
+                    return merge(t1, x);
+                peek = x;
+                rest = -1;
+            }
+            if (!left.hasNext())
+                return null;
+            t1 = left.next();
+            groupPos = 0;
+            Field f1 = t1.getField(p.getField1());
+            if (!group.isEmpty() && group.get(0).getField(p.getField2()).compare(Predicate.Op.EQUALS, f1)) {
+                // same key as the last child1 tuple
+                if (restFirst != null) {
+                    // go back to just past restFirst
+                    if (rightPos != restPos) {
+                        right.rewind();
+                        for (rightPos = 0; rightPos < restPos; rightPos++)
+                            right.next();
+                    }
+                    rest = 0;
+                }
+                continue;
+            }
+            group.clear();
+            restFirst = null;
+            while (peek != null && peek.getField(p.getField2()).compare(Predicate.Op.LESS_THAN, f1))
+                peek = nextRight();
+            while (peek != null && peek.getField(p.getField2()).compare(Predicate.Op.EQUALS, f1)) {
+                if (group.size() >= budget) {
+                    restFirst = peek;
+                    restPos = rightPos;
+                    rest = 0;
+                    break;
+                }
+                group.add(peek);
+                peek = nextRight();
+            }
+            if (group.isEmpty() && peek == null)
+                return null; // nothing left in child2 to match
+        }
+    }
+
+    // x, a tuple of other, matches d
+    private boolean matches(Tuple x) {
+        return greater() ? p.filter(d, x) : p.filter(x, d);
+    }
+
+    // the joined tuple of d and x, child1 fields first
+    private Tuple out(Tuple x) {
+        return greater() ? merge(d, x) : merge(x, d);
+    }
+
+    private Tuple fetchRange() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (d != null) {
+                if (prefixPos < prefix.size())
+                    return out(prefix.get(prefixPos++));
+                if (overflow >= 0) {
+                    // the prefix went over the budget: read the rest of it
+                    // from other, then go back to just past the buffered part
+                    Tuple x = overflow == 0 ? after : (other.hasNext() ? other.next() : null);
+                    overflow++;
+                    if (x != null && matches(x))
+                        return out(x);
+                    if (overflow > 1) {
+                        other.rewind();
+                        for (int i = 0; i <= prefix.size(); i++)
+                            other.next();
+                    }
+                    overflow = -1;
+                }
+                d = null;
+            }
+            if (!drive.hasNext())
+                return null;
+            d = drive.next();
+            prefixPos = 0;
+            // drive is sorted, so the prefix for d takes in the last one's
+            while (after != null && prefix.size() < budget && matches(after)) {
+                prefix.add(after);
+                after = other.hasNext() ? other.next() : null;
+            }
+            if (after != null && prefix.size() >= budget)
+                overflow = 0;
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+}
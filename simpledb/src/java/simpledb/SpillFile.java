@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * SpillFile is a temporary file that operators write tuples to when they
+ * don't fit in memory, and read back in the order they were written. Each
+ * tuple takes TupleDesc.getSize() bytes, encoded like in a HeapPage, and
+ * the file is written and read a page at a time. It is deleted by close.
+ * <p>
+ * SpillFiles don't go through the BufferPool: they are private to the
+ * operator that made them and don't need locking or logging.
+ */
+public class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private final byte[] buf;
+    private DataOutputStream out;
+    private int size = 0;
+
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("spill", ".tmp");
+        this.file.deleteOnExit();
+        this.buf = new byte[td.getSize()];
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(this.file), BufferPool.getPageSize()));
+    }
+
+    /** @return the number of tuples written */
+    public int size() {
+        return size;
+    }
+
+    /** Append a tuple to the file. */
+    public void add(Tuple t) throws IOException {
+        int off = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            td.getFieldType(j).encode(t.getField(j), buf, off);
+            off += td.getFieldType(j).getLen();
+        }
+        out.write(buf);
+        size++;
+    }
+
+    /**
+     * @return a reader over the tuples written so far, from the first. No
+     *         more tuples can be added afterwards.
+     */
+    public Reader reader() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        return new Reader();
+    }
+
+    /** Close the file and delete it. */
+    public void close() {
+        try {
+            if (out != null)
+                out.close();
+        } catch (IOException e) {
+            // deleting it anyway
+        }
+        out = null;
+        file.delete();
+    }
+
+    /**
+     * Reads the tuples of a SpillFile back, in order. Several readers can
+     * read the same file at once.
+     */
+    public class Reader {
+        private final DataInputStream in;
+        private final byte[] b = new byte[td.getSize()];
+        private int left;
+
+        private Reader() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file), BufferPool.getPageSize()));
+            left = size;
+        }
+
+        /** @return true if there are tuples left to read */
+        public boolean hasNext() {
+            return left > 0;
+        }
+
+        /** @return the next tuple, or null after the last one */
+        public Tuple next() throws IOException {
+            if (left == 0) {
+                close();
+                return null;
+            }
+            in.readFully(b);
+            left--;
+            Tuple t = new Tuple(td);
+            int off = 0;
+            for (int j = 0; j < td.numFields(); j++) {
+                t.setField(j, td.getFieldType(j).decode(b, off));
+                off += td.getFieldType(j).getLen();
+            }
+            return t;
+        }
+
+        public void close() throws IOException {
+            left = 0;
+            in.close();
+        }
+    }
+}
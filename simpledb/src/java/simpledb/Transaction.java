@@ -47,8 +47,10 @@ public class Transaction {
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } else {
-                //write all the dirty pages for this transaction out
-                Database.getBufferPool().flushPages(tid);
+                //log the dirty pages of this transaction; the commit
+                //record forces them to disk, the pages themselves stay
+                //in the buffer pool (NO-FORCE)
+                Database.getBufferPool().logDirtyPages(tid);
                 Database.getLogFile().logCommit(tid);
             }
 
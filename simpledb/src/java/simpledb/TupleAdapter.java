@@ -0,0 +1,65 @@
+package simpledb;
+
+/**
+ * TupleAdapter turns the selected rows of the batches of a BatchIterator
+ * back into Tuples, so that a batch plan can be used wherever a DbIterator
+ * is expected.
+ *
+ * @see BatchAdapter for the other direction
+ */
+public class TupleAdapter extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private BatchIterator child;
+    private transient ColumnBatch batch;
+    // next selected row of batch to return
+    private int next;
+
+    public TupleAdapter(BatchIterator child) {
+        this.child = child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.child.open();
+        this.batch = null;
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (this.batch == null || this.next >= this.batch.numSelected()) {
+            this.batch = this.child.nextBatch();
+            this.next = 0;
+            if (this.batch == null) {
+                return null;
+            }
+        }
+        return this.batch.getTuple(this.batch.selectedRow(this.next++));
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child.rewind();
+        this.batch = null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.child.getTupleDesc();
+    }
+
+    public void close() {
+        super.close();
+        this.child.close();
+        this.batch = null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        // the child is not a DbIterator
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        throw new UnsupportedOperationException("the child of a TupleAdapter is a BatchIterator");
+    }
+}
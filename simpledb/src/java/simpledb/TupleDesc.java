@@ -225,8 +225,9 @@ public class TupleDesc implements Serializable {
      */
     public String toString() {
     		String descStr = "";
-    		while(this.iterator().hasNext()){
-    			descStr += this.iterator().next().toString(); //using TDItem's toString method that returns a string for each field.
+    		Iterator<TDItem> it = this.iterator(); // one iterator, a new one each time never ends
+    		while(it.hasNext()){
+    			descStr += it.next().toString(); //using TDItem's toString method that returns a string for each field.
     		}
     		return descStr;
     }
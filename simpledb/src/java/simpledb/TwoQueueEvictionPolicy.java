@@ -0,0 +1,91 @@
+package simpledb;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+
+/**
+ * Full 2Q eviction (Johnson and Shasha). Pages seen for the first time go
+ * into the FIFO queue A1in; when they are evicted from there, their ids are
+ * remembered in the ghost queue A1out. A page that is loaded again while
+ * its id is in A1out is considered hot and goes into Am, which is managed
+ * as an LRU list. Hits in A1in do not promote a page, so one-off accesses
+ * from a scan only ever cycle through A1in.
+ */
+public class TwoQueueEvictionPolicy implements EvictionPolicy {
+
+    private static final int IN_A1IN = 1;
+    private static final int IN_AM = 2;
+
+    private int kIn;
+    private int kOut;
+    private PageId[] pids;
+    private int[] queue;
+    // iteration order is oldest first for all three
+    private LinkedHashSet<Integer> a1in;
+    private LinkedHashSet<Integer> am;
+    private LinkedHashSet<PageId> a1out;
+
+    public void init(int numFrames) {
+        // the tuning suggested in the 2Q paper: 25% / 50% of the pool
+        kIn = Math.max(1, numFrames / 4);
+        kOut = Math.max(1, numFrames / 2);
+        pids = new PageId[numFrames];
+        queue = new int[numFrames];
+        a1in = new LinkedHashSet<Integer>();
+        am = new LinkedHashSet<Integer>();
+        a1out = new LinkedHashSet<PageId>();
+    }
+
+    public void pageLoaded(int frame, PageId pid) {
+        pids[frame] = pid;
+        if (a1out.remove(pid)) {
+            queue[frame] = IN_AM;
+            am.add(frame);
+        } else {
+            queue[frame] = IN_A1IN;
+            a1in.add(frame);
+        }
+    }
+
+    public void pageAccessed(int frame) {
+        if (queue[frame] == IN_AM) {
+            am.remove(frame);
+            am.add(frame);
+        }
+    }
+
+    public void pageRemoved(int frame) {
+        if (queue[frame] == IN_A1IN) {
+            a1in.remove(frame);
+            a1out.add(pids[frame]);
+            if (a1out.size() > kOut) {
+                Iterator<PageId> it = a1out.iterator();
+                it.next();
+                it.remove();
+            }
+        } else if (queue[frame] == IN_AM) {
+            am.remove(frame);
+        }
+        queue[frame] = 0;
+        pids[frame] = null;
+    }
+
+    public int chooseVictim(PageId incoming, IntPredicate evictable) {
+        int victim = -1;
+        if (a1in.size() > kIn || am.isEmpty())
+            victim = first(a1in, evictable);
+        if (victim == -1)
+            victim = first(am, evictable);
+        if (victim == -1)
+            victim = first(a1in, evictable);
+        return victim;
+    }
+
+    private static int first(LinkedHashSet<Integer> frames, IntPredicate evictable) {
+        for (int frame : frames) {
+            if (evictable.test(frame))
+                return frame;
+        }
+        return -1;
+    }
+}
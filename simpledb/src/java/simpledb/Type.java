@@ -24,6 +24,16 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field decode(byte[] b, int off) {
+            return new IntField(readInt(b, off));
+        }
+
+        @Override
+        public void encode(Field f, byte[] b, int off) {
+            writeInt(((IntField) f).getValue(), b, off);
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +52,24 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field decode(byte[] b, int off) {
+            int strLen = Math.max(0, Math.min(readInt(b, off), STRING_LEN));
+            return new StringField(new String(b, off + 4, strLen), STRING_LEN);
+        }
+
+        @Override
+        public void encode(Field f, byte[] b, int off) {
+            // like StringField.serialize: length, low bytes of the chars,
+            // zero padding
+            String s = ((StringField) f).getValue();
+            int len = Math.min(s.length(), STRING_LEN);
+            writeInt(len, b, off);
+            for (int i = 0; i < len; i++)
+                b[off + 4 + i] = (byte) s.charAt(i);
+            java.util.Arrays.fill(b, off + 4 + len, off + 4 + STRING_LEN, (byte) 0);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +88,29 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object with the
+   *   contents of the getLen() bytes of b at offset off, as written by
+   *   Field.serialize.
+   */
+    public abstract Field decode(byte[] b, int off);
+
+  /**
+   * Write a Field of this type into the getLen() bytes of b at offset off,
+   * in the format of Field.serialize.
+   */
+    public abstract void encode(Field f, byte[] b, int off);
+
+    static void writeInt(int v, byte[] b, int off) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16)
+                | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
 }
@@ -0,0 +1,87 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BackgroundWriterTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 20;
+    private static final int TABLE_PAGES = 4;
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = TestUtil.createEmptyPagesHeapFile(TABLE_PAGES);
+        bp = Database.resetBufferPool(POOL_PAGES);
+    }
+
+    private int tuplesOnDisk() {
+        int n = 0;
+        for (int pg = 0; pg < TABLE_PAGES; pg++) {
+            HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pg));
+            n += p.numSlots - p.getNumEmptySlots();
+        }
+        return n;
+    }
+
+    // fill every page of the table in one transaction
+    private Transaction fill() throws Exception {
+        HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < p.numSlots * TABLE_PAGES; i++)
+            bp.insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] { i, i }));
+        return t;
+    }
+
+    private void waitForWriter(long pages) throws Exception {
+        long end = System.currentTimeMillis() + 5000;
+        while (bp.getWriterPageCount() < pages && System.currentTimeMillis() < end)
+            Thread.sleep(10);
+    }
+
+    @Test public void writesCommittedPagesTogether() throws Exception {
+        bp.setBackgroundWriter(true, 0);
+        Transaction t = fill();
+        // write locked pages are left alone
+        Thread.sleep(3 * BufferPool.WRITER_INTERVAL_MS);
+        assertEquals(0, bp.getWriterPageCount());
+        assertEquals(0, tuplesOnDisk());
+
+        t.commit();
+        waitForWriter(TABLE_PAGES);
+        assertEquals(TABLE_PAGES, bp.getWriterPageCount());
+        // the pages are adjacent, one write does
+        assertEquals(1, bp.getWriterWriteCount());
+        assertEquals(0.0, bp.getDirtyRatio(), 0);
+        assertTrue(bp.getWriterThroughput() > 0);
+        assertEquals(TABLE_PAGES * 504, tuplesOnDisk());
+    }
+
+    @Test public void leavesDirtyTarget() throws Exception {
+        bp.setBackgroundWriter(true, 2.0 / POOL_PAGES);
+        fill().commit();
+        waitForWriter(1);
+        assertTrue(bp.getWriterPageCount() >= TABLE_PAGES - 2);
+    }
+
+    @Test public void disabled() throws Exception {
+        bp.setBackgroundWriter(false, 0);
+        fill().commit();
+        Thread.sleep(3 * BufferPool.WRITER_INTERVAL_MS);
+        assertEquals(0, bp.getWriterPageCount());
+        assertEquals(0, tuplesOnDisk());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BackgroundWriterTest.class);
+    }
+}
@@ -0,0 +1,158 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Batch operators give the same answers as their tuple-at-a-time
+ * counterparts.
+ */
+public class BatchTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        // a few pages, values small enough for groups to repeat
+        hf = SystemTestUtil.createRandomHeapFile(3, 3000, 50, null, null);
+        tid = new TransactionId();
+    }
+
+    private static int count(DbIterator it) throws Exception {
+        int n = 0;
+        it.rewind();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    // same tuples, in any order
+    private static void assertSameTuples(DbIterator expected, DbIterator actual)
+            throws Exception {
+        expected.open();
+        actual.open();
+        assertEquals(count(expected), count(actual));
+        expected.rewind();
+        TestUtil.matchAllTuples(expected, actual);
+        expected.close();
+        actual.close();
+    }
+
+    @Test public void scanReturnsAllTuples() throws Exception {
+        assertSameTuples(new SeqScan(tid, hf.getId(), ""),
+                new TupleAdapter(new BatchScan(tid, hf.getId(), 100)));
+    }
+
+    @Test public void filterOverAdapter() throws Exception {
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(20));
+        Predicate q = new Predicate(2, Predicate.Op.NOT_EQUALS, new IntField(7));
+        // a tuple-at-a-time child, small batches, two filters in a row
+        BatchIterator batches = new BatchFilter(q,
+                new BatchFilter(p, new BatchAdapter(new SeqScan(tid, hf.getId(), ""), 7)));
+        assertSameTuples(new Filter(q, new Filter(p, new SeqScan(tid, hf.getId(), ""))),
+                new TupleAdapter(batches));
+    }
+
+    @Test public void scanFilterAggregate() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(10));
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+            for (int gfield : new int[] { Aggregator.NO_GROUPING, 2 }) {
+                BatchScan scan = new BatchScan(tid, hf.getId());
+                scan.setColumns(0, 1, 2);
+                DbIterator expected = new Aggregate(
+                        new Filter(p, new SeqScan(tid, hf.getId(), "")), 1, gfield, op);
+                DbIterator actual = new TupleAdapter(
+                        new BatchAggregate(new BatchFilter(p, scan), 1, gfield, op));
+                assertSameTuples(expected, actual);
+            }
+        }
+    }
+
+    @Test public void project() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(25));
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(2);
+        fields.add(0);
+        DbIterator expected = new Project(fields, new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                new Filter(p, new SeqScan(tid, hf.getId(), "")));
+        DbIterator actual = new TupleAdapter(new BatchProject(new int[] { 2, 0 },
+                new BatchFilter(p, new BatchScan(tid, hf.getId()))));
+        assertSameTuples(expected, actual);
+    }
+
+    /**
+     * Same rows as HashEquiJoin, with output batches filling up in the
+     * middle of a probe row's matches, and after a rewind.
+     */
+    @Test public void hashJoin() throws Exception {
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(150));
+        BatchHashJoin join = new BatchHashJoin(0, 0,
+                new BatchAdapter(HashEquiJoinTest.table(2000, 2, 40, 1), 100),
+                new BatchFilter(p, new BatchAdapter(HashEquiJoinTest.table(300, 3, 40, 2), 64)));
+        DbIterator actual = new TupleAdapter(join);
+        actual.open();
+        ArrayList<String> got = HashEquiJoinTest.rows(actual);
+
+        DbIterator expected = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                HashEquiJoinTest.table(2000, 2, 40, 1),
+                new Filter(p, HashEquiJoinTest.table(300, 3, 40, 2)));
+        expected.open();
+        assertEquals(HashEquiJoinTest.rows(expected), got);
+        assertTrue(got.size() > ColumnBatch.DEFAULT_SIZE);
+
+        actual.rewind();
+        assertEquals(got, HashEquiJoinTest.rows(actual));
+        actual.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void hashJoinStrings() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+        BatchIterator strings = new BatchAdapter(new TupleIterator(td, new ArrayList<Tuple>()));
+        new BatchHashJoin(0, 0, strings, strings);
+    }
+
+    @Test public void stringColumns() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        for (int i = 0; i < 100; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("s" + (i % 10), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            tuples.add(t);
+        }
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new StringField("s4", Type.STRING_LEN));
+        BatchIterator batches = new BatchAggregate(
+                new BatchFilter(p, new BatchAdapter(new TupleIterator(td, tuples), 16)),
+                1, 0, Aggregator.Op.COUNT);
+        DbIterator actual = new TupleAdapter(batches);
+        actual.open();
+        int groups = 0;
+        while (actual.hasNext()) {
+            Tuple t = actual.next();
+            assertTrue(((StringField) t.getField(0)).getValue().compareTo("s4") > 0);
+            assertEquals(10, ((IntField) t.getField(1)).getValue());
+            groups++;
+        }
+        actual.close();
+        assertEquals(5, groups);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchTest.class);
+    }
+}
@@ -0,0 +1,88 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferRingTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 32;
+    private HeapFile hot;
+    private HeapFile big;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hot = TestUtil.createEmptyPagesHeapFile(8);
+        big = TestUtil.createEmptyPagesHeapFile(200);
+        tid = new TransactionId();
+    }
+
+    private void readHot(BufferPool bp) throws Exception {
+        for (int i = 0; i < 8; i++)
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+    }
+
+    private void scanBig() throws Exception {
+        DbFileIterator it = big.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+    }
+
+    @Test public void ringOnlyForLargeTables() {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        assertNull(bp.newScanRing(POOL_PAGES / BufferPool.SCAN_RING_FRACTION));
+        BufferRing ring = bp.newScanRing(big.numPages());
+        assertNotNull(ring);
+        assertTrue(ring.size() <= BufferPool.SCAN_RING_PAGES);
+        bp.setScanRingsEnabled(false);
+        assertNull(bp.newScanRing(big.numPages()));
+    }
+
+    @Test public void scanKeepsWorkingSet() throws Exception {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        readHot(bp);
+        readHot(bp);
+        scanBig();
+        long misses = bp.getMissCount();
+        readHot(bp);
+        assertEquals(misses, bp.getMissCount());
+    }
+
+    @Test public void scanWithoutRingFlushesWorkingSet() throws Exception {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        bp.setScanRingsEnabled(false);
+        readHot(bp);
+        readHot(bp);
+        scanBig();
+        long misses = bp.getMissCount();
+        readHot(bp);
+        assertEquals(misses + 8, bp.getMissCount());
+    }
+
+    @Test public void ringPageUsedOutsideScanStays() throws Exception {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        BufferRing ring = bp.newScanRing(big.numPages());
+        PageId first = new HeapPageId(big.getId(), 0);
+        bp.getPage(tid, first, Permissions.READ_ONLY, ring);
+        bp.getPage(tid, first, Permissions.READ_ONLY);
+        for (int i = 1; i < 100; i++)
+            bp.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY, ring);
+        long misses = bp.getMissCount();
+        bp.getPage(tid, first, Permissions.READ_ONLY);
+        assertEquals(misses, bp.getMissCount());
+        ring.release();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    /**
+     * Drives an EvictionPolicy the same way BufferPool does, over a pool
+     * with a fixed number of frames.
+     */
+    static class Pool {
+        final EvictionPolicy policy;
+        final PageId[] frames;
+        final HashMap<PageId, Integer> table = new HashMap<PageId, Integer>();
+        int hits = 0;
+
+        Pool(EvictionPolicy policy, int numFrames) {
+            this.policy = policy;
+            this.frames = new PageId[numFrames];
+            policy.init(numFrames);
+        }
+
+        void access(int pageNo) {
+            PageId pid = new HeapPageId(1, pageNo);
+            Integer frame = table.get(pid);
+            if (frame != null) {
+                hits++;
+                policy.pageAccessed(frame);
+                return;
+            }
+            int free = -1;
+            for (int i = 0; i < frames.length && free == -1; i++)
+                if (frames[i] == null) free = i;
+            if (free == -1) {
+                free = policy.chooseVictim(pid, f -> true);
+                assertTrue(free >= 0);
+                table.remove(frames[free]);
+                frames[free] = null;
+                policy.pageRemoved(free);
+            }
+            frames[free] = pid;
+            table.put(pid, free);
+            policy.pageLoaded(free, pid);
+        }
+
+        boolean resident(int pageNo) {
+            return table.containsKey(new HeapPageId(1, pageNo));
+        }
+    }
+
+    /**
+     * Two hot pages are referenced repeatedly, then a long scan runs while
+     * the hot pages keep being looked up; the hot pages should stay.
+     */
+    private void checkScanResistant(EvictionPolicy policy) {
+        Pool pool = new Pool(policy, 8);
+        for (int round = 0; round < 3; round++) {
+            pool.access(0);
+            pool.access(1);
+        }
+        for (int i = 100; i < 200; i++) {
+            pool.access(i);
+            if (i % 4 == 0) {
+                pool.access(0);
+                pool.access(1);
+            }
+        }
+        assertTrue(pool.resident(0));
+        assertTrue(pool.resident(1));
+    }
+
+    @Test public void clockSecondChance() {
+        Pool pool = new Pool(new ClockEvictionPolicy(), 3);
+        pool.access(0);
+        pool.access(1);
+        pool.access(2);
+        pool.access(0); // hit, sets the reference bit of page 0
+        pool.access(3); // page 0 gets a second chance, page 1 goes
+        assertTrue(pool.resident(0));
+        assertFalse(pool.resident(1));
+        assertTrue(pool.resident(2));
+    }
+
+    @Test public void lru2ScanResistant() {
+        checkScanResistant(new LruKEvictionPolicy());
+    }
+
+    @Test public void twoQueueScanResistant() {
+        checkScanResistant(new TwoQueueEvictionPolicy());
+    }
+
+    @Test public void arcScanResistant() {
+        checkScanResistant(new ArcEvictionPolicy());
+    }
+
+    @Test public void lru2EvictsSingleReferenceFirst() {
+        Pool pool = new Pool(new LruKEvictionPolicy(), 2);
+        pool.access(0);
+        pool.access(0);
+        pool.access(1);
+        pool.access(2); // page 1 has only one reference
+        assertTrue(pool.resident(0));
+        assertFalse(pool.resident(1));
+    }
+
+    @Test public void victimRespectsFilter() {
+        for (EvictionPolicy policy : new EvictionPolicy[] {
+                new ClockEvictionPolicy(), new LruKEvictionPolicy(),
+                new TwoQueueEvictionPolicy(), new ArcEvictionPolicy() }) {
+            Pool pool = new Pool(policy, 4);
+            for (int i = 0; i < 4; i++)
+                pool.access(i);
+            assertEquals(2, policy.chooseVictim(null, f -> f == 2));
+            assertEquals(-1, policy.chooseVictim(null, f -> false));
+        }
+    }
+
+    @Test public void bufferPoolUsesPolicy() throws Exception {
+        HeapFile hf = TestUtil.createEmptyPagesHeapFile(6);
+        BufferPool bp = Database.resetBufferPool(3, new LruKEvictionPolicy());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 6; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        // page 0 was hit on every iteration after the first
+        assertEquals(1 + 5, bp.getMissCount());
+        assertEquals(6, bp.getHitCount());
+        assertEquals(3, bp.numResidentPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
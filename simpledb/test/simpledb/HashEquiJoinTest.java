@@ -0,0 +1,147 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+    /** A TupleIterator that counts the tuples handed out. */
+    static class CountingIterator extends TupleIterator {
+        private static final long serialVersionUID = 1L;
+        int reads = 0;
+
+        CountingIterator(TupleDesc td, Iterable<Tuple> tuples) {
+            super(td, tuples);
+        }
+
+        public Tuple next() {
+            reads++;
+            return super.next();
+        }
+    }
+
+    // rows of width columns, the first in [0, keys)
+    static CountingIterator table(int rows, int width, int keys, long seed) {
+        Random r = new Random(seed);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; i++) {
+            int[] values = new int[width];
+            values[0] = r.nextInt(keys);
+            for (int j = 1; j < width; j++)
+                values[j] = i;
+            tuples.add(Utility.getHeapTuple(values));
+        }
+        return new CountingIterator(Utility.getTupleDesc(width), tuples);
+    }
+
+    // the tuples of an iterator as sorted strings, to compare joins that
+    // return the same tuples in different orders
+    static ArrayList<String> rows(DbIterator it) throws Exception {
+        ArrayList<String> rows = new ArrayList<String>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+                sb.append(t.getField(i)).append(' ');
+            rows.add(sb.toString());
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    @Test public void spillsAndReadsChildrenOnce() throws Exception {
+        CountingIterator left = table(3000, 2, 500, 1);
+        CountingIterator right = table(4000, 3, 500, 2);
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin join = new HashEquiJoin(pred, left, right);
+        join.setMemoryBudget(100);
+        join.open();
+        assertTrue(join.isSpilled());
+        ArrayList<String> got = rows(join);
+        assertEquals(3000, left.reads);
+        assertEquals(4000, right.reads);
+
+        Join nested = new Join(pred, table(3000, 2, 500, 1), table(4000, 3, 500, 2));
+        nested.open();
+        assertEquals(rows(nested), got);
+
+        // the partitions are joined again, the children aren't read again
+        join.rewind();
+        assertEquals(got, rows(join));
+        assertEquals(3000, left.reads);
+        join.close();
+    }
+
+    @Test public void inMemory() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin join = new HashEquiJoin(pred, table(300, 2, 50, 3), table(400, 2, 50, 4));
+        join.open();
+        assertFalse(join.isSpilled());
+        Join nested = new Join(pred, table(300, 2, 50, 3), table(400, 2, 50, 4));
+        nested.open();
+        assertEquals(rows(nested), rows(join));
+        join.close();
+    }
+
+    /**
+     * child1 over PARTITIONS times the budget: the partitions are split
+     * again until each fits, so every probe side is read just once.
+     */
+    @Test public void repartitions() throws Exception {
+        int budget = 10;
+        int rows = HashEquiJoin.PARTITIONS * budget * 4;
+        CountingIterator left = table(rows, 2, rows / 2, 7);
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                left, table(2000, 2, rows / 2, 8));
+        join.setMemoryBudget(budget);
+        join.open();
+        assertTrue(join.numPartitions() > HashEquiJoin.PARTITIONS);
+        ArrayList<String> got = rows(join);
+        assertEquals(join.numPartitions(), join.probePasses);
+        assertEquals(rows, left.reads);
+
+        HashEquiJoin inMemory = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                table(rows, 2, rows / 2, 7), table(2000, 2, rows / 2, 8));
+        inMemory.open();
+        assertFalse(inMemory.isSpilled());
+        assertEquals(rows(inMemory), got);
+        join.close();
+    }
+
+    /**
+     * One key: all tuples land in one partition, bigger than the budget.
+     */
+    @Test public void skewedPartition() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin join = new HashEquiJoin(pred, table(250, 2, 1, 5), table(30, 2, 1, 6));
+        join.setMemoryBudget(100);
+        join.open();
+        assertTrue(join.isSpilled());
+        assertEquals(250 * 30, rows(join).size());
+        // can't be split: joined in three pieces
+        assertEquals(1, join.numPartitions());
+        assertEquals(3, join.probePasses);
+        join.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void zeroBudget() {
+        new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                table(1, 1, 1, 1), table(1, 1, 1, 1)).setMemoryBudget(0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
@@ -77,6 +77,86 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() from a mapping of the file.
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] expected = hf.readPage(pid).getPageData();
+        hf.setMemoryMapped(true);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertEquals(484, page.getNumEmptySlots());
+        assertArrayEquals(expected, page.getPageData());
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() after another thread was
+     * interrupted while reading, which closes the shared channel.
+     */
+    @Test
+    public void readPageAfterInterrupt() throws Exception {
+        final HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        Thread t = new Thread() {
+            public void run() {
+                Thread.currentThread().interrupt();
+                hf.readPage(pid);
+            }
+        };
+        t.start();
+        t.join();
+
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertNotNull(page);
+        assertEquals(484, page.getNumEmptySlots());
+    }
+
+    /**
+     * A page changed on disk after it was written is caught on the next
+     * read, unless checksums are off.
+     */
+    @Test
+    public void readPageChecksum() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        hf.writePage(hf.readPage(pid));
+        assertNotNull(hf.readPage(pid));
+
+        java.io.RandomAccessFile raf = new java.io.RandomAccessFile(hf.getFile(), "rw");
+        raf.seek(BufferPool.getPageSize() / 2);
+        raf.write(raf.read() ^ 1);
+        raf.close();
+        try {
+            hf.readPage(pid);
+            fail("expected ChecksumException");
+        } catch (ChecksumException e) {
+        }
+        try {
+            Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+        }
+
+        hf.setChecksums(false);
+        assertNotNull(hf.readPage(pid));
+    }
+
+    /**
+     * An image taken before the page changes is what gets written and
+     * checksummed.
+     */
+    @Test
+    public void writePageImage() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        byte[] image = page.getPageData();
+        page.deleteTuple(page.iterator().next());
+        hf.writePage(pid, image);
+
+        HeapPage read = (HeapPage) hf.readPage(pid);
+        assertTrue(Arrays.equals(image, read.getPageData()));
+        assertEquals(page.getNumEmptySlots() - 1, read.getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
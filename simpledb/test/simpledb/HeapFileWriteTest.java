@@ -1,5 +1,8 @@
 package simpledb;
 
+import java.io.File;
+import java.util.ArrayList;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +46,156 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.insertTuples(): the free page is filled first,
+     * then new pages, each reported once.
+     */
+    @Test public void addTuples() throws Exception {
+        for (Page dirty : empty.insertTuple(tid, Utility.getHeapTuple(0, 2)))
+            empty.writePage(dirty);
+        ArrayList<Tuple> ts = new ArrayList<Tuple>();
+        for (int i = 1; i < 504 * 3; ++i)
+            ts.add(Utility.getHeapTuple(i, 2));
+
+        ArrayList<Page> dirtied = empty.insertTuples(tid, ts);
+        assertEquals(3, empty.numPages());
+        assertEquals(3, dirtied.size());
+        for (int pg = 0; pg < 3; pg++) {
+            HeapPage p = (HeapPage) dirtied.get(pg);
+            assertEquals(pg, p.getId().getPageNumber());
+            assertEquals(0, p.getNumEmptySlots());
+        }
+        assertEquals(new RecordId(dirtied.get(1).getId(), 0), ts.get(503).getRecordId());
+        assertEquals(-1, empty.freeSpaceMap().findPage(empty.numPages()));
+    }
+
+    /**
+     * Every tuple goes in, and the last appended page is only offered to
+     * others once it has been filled.
+     */
+    @Test public void addTuplesPartialPage() throws Exception {
+        ArrayList<Tuple> ts = new ArrayList<Tuple>();
+        for (int i = 0; i < 600; ++i)
+            ts.add(Utility.getHeapTuple(i, 2));
+
+        ArrayList<Page> dirtied = empty.insertTuples(tid, ts);
+        assertEquals(2, empty.numPages());
+        assertEquals(2, dirtied.size());
+        for (Tuple t : ts)
+            assertNotNull(t.getRecordId());
+        assertEquals(600 - 504, 504 - ((HeapPage) dirtied.get(1)).getNumEmptySlots());
+        assertFalse(empty.freeSpaceMap().isFree(0));
+        assertTrue(empty.freeSpaceMap().isFree(1));
+    }
+
+    /**
+     * Unit test for HeapFile.addTuple() with memory mapped reads: pages
+     * appended to the file must be readable through a new mapping.
+     */
+    @Test public void addTupleMapped() throws Exception {
+        empty.setMemoryMapped(true);
+        for (int i = 0; i < 505; ++i) {
+            for (Page dirty : empty.insertTuple(tid, Utility.getHeapTuple(i, 2)))
+                empty.writePage(dirty);
+        }
+        assertEquals(2, empty.numPages());
+
+        HeapPage p = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), 1));
+        assertEquals(503, p.getNumEmptySlots());
+        assertEquals(504, ((IntField) p.iterator().next().getField(0)).getValue());
+    }
+
+    /**
+     * Unit test for HeapFile.addTuple() with full pages at the front of the
+     * file: the free space map sends the insert straight to the last page.
+     */
+    @Test public void addTupleSkipsFullPages() throws Exception {
+        for (int i = 0; i < 504 * 3 + 1; ++i) {
+            for (Page dirty : empty.insertTuple(tid, Utility.getHeapTuple(i, 2)))
+                empty.writePage(dirty);
+        }
+        assertEquals(4, empty.numPages());
+
+        BufferPool bp = Database.getBufferPool();
+        long before = bp.getHitCount() + bp.getMissCount();
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        // one exclusive request, for the last page only
+        assertEquals(1, bp.getHitCount() + bp.getMissCount() - before);
+        assertFalse(empty.freeSpaceMap().isFree(0));
+        assertTrue(empty.freeSpaceMap().isFree(3));
+    }
+
+    /**
+     * A page the free space map wrongly has as free is locked exclusively,
+     * found full, marked full again, and its lock given back.
+     */
+    @Test public void addTupleReleasesFullPage() throws Exception {
+        for (int i = 0; i < 504 + 1; ++i) {
+            for (Page dirty : empty.insertTuple(tid, Utility.getHeapTuple(i, 2)))
+                empty.writePage(dirty);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        HeapPageId full = new HeapPageId(empty.getId(), 0);
+        empty.freeSpaceMap().markFree(0);
+
+        TransactionId other = new TransactionId();
+        ArrayList<Page> dirtied = empty.insertTuple(other, Utility.getHeapTuple(0, 2));
+        assertEquals(1, dirtied.get(0).getId().getPageNumber());
+        assertFalse(empty.freeSpaceMap().isFree(0));
+        assertFalse(Database.getBufferPool().holdsLock(other, full));
+        Database.getBufferPool().transactionComplete(other);
+    }
+
+    /**
+     * Unit test for the free space map side file: a deleted tuple's page is
+     * found again after the table is opened anew.
+     */
+    @Test public void freeSpaceMapSaved() throws Exception {
+        Tuple deleted = null;
+        for (int i = 0; i < 504 * 2; ++i) {
+            for (Page dirty : empty.insertTuple(tid, Utility.getHeapTuple(i, 2))) {
+                empty.writePage(dirty);
+                if (i == 10)
+                    deleted = ((HeapPage) dirty).iterator().next();
+            }
+        }
+        empty.writePage(empty.deleteTuple(tid, deleted).get(0));
+        empty.close();
+
+        HeapFile reopened = Utility.openHeapFile(2, empty.getFile());
+        assertTrue(reopened.freeSpaceMap().isFree(0));
+        assertFalse(reopened.freeSpaceMap().isFree(1));
+        assertEquals(0, reopened.freeSpaceMap().findPage(reopened.numPages()));
+        new File(empty.getFile().getPath() + ".fsm").delete();
+    }
+
+    /**
+     * Slots freed after the map was last saved (then a crash) aren't in the
+     * saved map, but the first search that runs out of pages finds them.
+     */
+    @Test public void staleFreeSpaceMap() throws Exception {
+        Tuple deleted = null;
+        for (int i = 0; i < 504 * 2; ++i) {
+            for (Page dirty : empty.insertTuple(tid, Utility.getHeapTuple(i, 2))) {
+                empty.writePage(dirty);
+                if (i == 10)
+                    deleted = ((HeapPage) dirty).iterator().next();
+            }
+        }
+        empty.close();
+        File fsm = new File(empty.getFile().getPath() + ".fsm");
+        byte[] saved = java.nio.file.Files.readAllBytes(fsm.toPath());
+        empty.writePage(empty.deleteTuple(tid, deleted).get(0));
+        // the map saved before the delete is what's left after the crash
+        java.nio.file.Files.write(fsm.toPath(), saved);
+
+        HeapFile reopened = Utility.openHeapFile(2, empty.getFile());
+        assertFalse(reopened.freeSpaceMap().isFree(0));
+        reopened.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(2, reopened.numPages());
+        fsm.delete();
+    }
+
     /**
      * JUnit suite target
      */
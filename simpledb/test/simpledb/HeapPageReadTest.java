@@ -13,6 +13,9 @@ import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 import junit.framework.JUnit4TestAdapter;
 
 public class HeapPageReadTest extends SimpleDbTestBase {
@@ -120,6 +123,37 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getField(): single fields are decoded from
+     * the page without going through a tuple.
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int row = 0; row < EXAMPLE_VALUES.length; row++) {
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) page.getField(row, 1)).getValue());
+            assertNull(page.tuples.get(row));
+        }
+        try {
+            page.getField(20, 0);
+            fail("expected exception");
+        } catch (NoSuchElementException e) {
+        }
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(): tuples are only decoded as the
+     * iterator reaches them, and the same tuple is returned every time.
+     */
+    @Test public void lazyIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        assertNull(page.tuples.get(0));
+        Tuple first = it.next();
+        assertNull(page.tuples.get(1));
+        assertSame(first, page.iterator().next());
+        assertEquals(new RecordId(pid, 0), first.getRecordId());
+    }
+
     /**
      * JUnit suite target
      */
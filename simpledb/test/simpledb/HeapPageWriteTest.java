@@ -1,5 +1,6 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -126,6 +127,25 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData(): the page image follows inserts
+     * and deletes, and a deleted slot goes back to zeros.
+     */
+    @Test public void pageDataKeptInPlace() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        Tuple t = Utility.getHeapTuple(new int[] { 7, -3 });
+        page.insertTuple(t);
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        Tuple read = copy.iterator().next();
+        assertEquals(7, ((IntField) read.getField(0)).getValue());
+        assertEquals(-3, ((IntField) read.getField(1)).getValue());
+
+        page.deleteTuple(t);
+        assertArrayEquals(HeapPage.createEmptyPageData(), page.getPageData());
+        // the before image is the page as it was created
+        assertArrayEquals(HeapPage.createEmptyPageData(), page.getBeforeImage().getPageData());
+    }
+
     /**
      * JUnit suite target
      */
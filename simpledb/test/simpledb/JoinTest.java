@@ -1,8 +1,11 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
@@ -105,6 +108,76 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  // the join of two HashEquiJoinTest tables on their first field, the slow way
+  private static int expectedCount(Predicate.Op op, DbIterator left, DbIterator right)
+      throws Exception {
+    ArrayList<Tuple> rights = new ArrayList<Tuple>();
+    right.open();
+    while (right.hasNext())
+      rights.add(right.next());
+    left.open();
+    int n = 0;
+    while (left.hasNext()) {
+      Field f = left.next().getField(0);
+      for (Tuple t : rights)
+        if (f.compare(op, t.getField(0)))
+          n++;
+    }
+    return n;
+  }
+
+  /**
+   * child2 over the memory budget: scanned once per block of child1, same
+   * results as with child2 cached, for every predicate
+   */
+  @Test public void blockJoin() throws Exception {
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+        Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.NOT_EQUALS }) {
+      JoinPredicate pred = new JoinPredicate(0, op, 0);
+      HashEquiJoinTest.CountingIterator right = HashEquiJoinTest.table(500, 3, 100, 2);
+      Join op1 = new Join(pred, HashEquiJoinTest.table(1000, 2, 100, 1), right);
+      op1.setMemoryBudget(100);
+      op1.open();
+      assertFalse(op1.isInnerCached());
+      ArrayList<String> got = HashEquiJoinTest.rows(op1);
+      // 101 tuples to find it doesn't fit, then one scan per block
+      assertEquals(101 + 10 * 500, right.reads);
+      assertEquals(expectedCount(op, HashEquiJoinTest.table(1000, 2, 100, 1),
+          HashEquiJoinTest.table(500, 3, 100, 2)), got.size());
+
+      Join cached = new Join(pred, HashEquiJoinTest.table(1000, 2, 100, 1),
+          HashEquiJoinTest.table(500, 3, 100, 2));
+      cached.open();
+      assertTrue(cached.isInnerCached());
+      assertEquals(HashEquiJoinTest.rows(cached), got);
+
+      op1.rewind();
+      assertEquals(got, HashEquiJoinTest.rows(op1));
+      op1.close();
+    }
+  }
+
+  /**
+   * child2 within the memory budget: read once, whatever the size of child1
+   */
+  @Test public void innerCached() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    HashEquiJoinTest.CountingIterator right = HashEquiJoinTest.table(50, 2, 100, 4);
+    Join op = new Join(pred, HashEquiJoinTest.table(1000, 2, 100, 3), right);
+    op.open();
+    assertTrue(op.isInnerCached());
+    int n = HashEquiJoinTest.rows(op).size();
+    op.rewind();
+    assertEquals(n, HashEquiJoinTest.rows(op).size());
+    assertEquals(50, right.reads);
+    op.close();
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void zeroBudget() {
+    new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan1, scan2).setMemoryBudget(0);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,228 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LockManagerTest {
+    private LockManager lm;
+    private TransactionId tid1;
+    private TransactionId tid2;
+    private PageId p0;
+    private PageId p1;
+
+    @Before public void setUp() {
+        lm = new LockManager();
+        lm.setTimeout(200);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+    }
+
+    /**
+     * Tries to acquire a lock from another thread.
+     * @return true if the lock was granted before the timeout
+     */
+    private boolean grantedFromThread(final TransactionId tid, final PageId pid,
+            final Permissions perm) throws InterruptedException {
+        final AtomicBoolean granted = new AtomicBoolean(false);
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    lm.acquire(tid, pid, perm);
+                    granted.set(true);
+                } catch (TransactionAbortedException e) {
+                    granted.set(false);
+                }
+            }
+        };
+        t.start();
+        t.join();
+        return granted.get();
+    }
+
+    @Test public void sharedLocksAreCompatible() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        assertTrue(grantedFromThread(tid2, p0, Permissions.READ_ONLY));
+        assertTrue(lm.holdsLock(tid1, p0));
+        assertTrue(lm.holdsLock(tid2, p0));
+    }
+
+    @Test public void exclusiveConflicts() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        assertFalse(grantedFromThread(tid2, p0, Permissions.READ_ONLY));
+        assertFalse(grantedFromThread(tid2, p0, Permissions.READ_WRITE));
+        assertTrue(grantedFromThread(tid2, p1, Permissions.READ_WRITE));
+        assertFalse(lm.holdsLock(tid2, p0));
+    }
+
+    @Test public void reacquireAndUpgrade() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        assertTrue(lm.holdsExclusive(tid1, p0));
+        // an exclusive lock covers reads too
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        assertTrue(lm.holdsExclusive(tid1, p0));
+    }
+
+    @Test public void upgradeWaitsForOtherSharers() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        lm.acquire(tid2, p0, Permissions.READ_ONLY);
+        assertFalse(grantedFromThread(tid1, p0, Permissions.READ_WRITE));
+        lm.release(tid2, p0);
+        assertTrue(grantedFromThread(tid1, p0, Permissions.READ_WRITE));
+    }
+
+    @Test public void waiterGrantedOnRelease() throws Exception {
+        lm.setTimeout(5000);
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        final AtomicBoolean granted = new AtomicBoolean(false);
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    lm.acquire(tid2, p0, Permissions.READ_WRITE);
+                    granted.set(true);
+                } catch (TransactionAbortedException e) {
+                }
+            }
+        };
+        t.start();
+        Thread.sleep(100);
+        assertFalse(granted.get());
+        lm.releaseAll(tid1);
+        t.join();
+        assertTrue(granted.get());
+        assertTrue(lm.holdsExclusive(tid2, p0));
+    }
+
+    @Test public void releaseAll() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        lm.acquire(tid1, p1, Permissions.READ_ONLY);
+        assertEquals(2, lm.lockedPages(tid1).size());
+        lm.releaseAll(tid1);
+        assertFalse(lm.holdsLock(tid1, p0));
+        assertFalse(lm.holdsLock(tid1, p1));
+        assertTrue(grantedFromThread(tid2, p0, Permissions.READ_WRITE));
+    }
+
+    @Test public void bufferPoolTakesLocks() throws Exception {
+        Database.reset();
+        HeapFile hf = TestUtil.createEmptyPagesHeapFile(2);
+        BufferPool bp = Database.getBufferPool();
+        PageId pid = new HeapPageId(hf.getId(), 0);
+        bp.getPage(tid1, pid, Permissions.READ_WRITE);
+        assertTrue(bp.holdsLock(tid1, pid));
+        bp.getLockManager().setTimeout(100);
+        try {
+            bp.getPage(tid2, pid, Permissions.READ_ONLY);
+            fail("expected the read to time out");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        bp.transactionComplete(tid1, true);
+        assertFalse(bp.holdsLock(tid1, pid));
+        bp.getPage(tid2, pid, Permissions.READ_ONLY);
+        assertTrue(bp.holdsLock(tid2, pid));
+    }
+
+    /** Acquires a lock in a new thread, recording whether it was granted. */
+    private Thread acquireInThread(final TransactionId tid, final PageId pid,
+            final Permissions perm, final AtomicBoolean aborted) {
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    lm.acquire(tid, pid, perm);
+                } catch (TransactionAbortedException e) {
+                    aborted.set(true);
+                    lm.releaseAll(tid);
+                }
+            }
+        };
+        t.start();
+        return t;
+    }
+
+    @Test public void deadlockAbortsYoungest() throws Exception {
+        // no timeout: only the deadlock detector can break the cycle
+        lm.setTimeout(0);
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        lm.acquire(tid2, p1, Permissions.READ_WRITE);
+        AtomicBoolean aborted1 = new AtomicBoolean(false);
+        AtomicBoolean aborted2 = new AtomicBoolean(false);
+        Thread t1 = acquireInThread(tid1, p1, Permissions.READ_WRITE, aborted1);
+        Thread.sleep(50);
+        Thread t2 = acquireInThread(tid2, p0, Permissions.READ_WRITE, aborted2);
+        t2.join(5000);
+        t1.join(5000);
+        assertFalse(t1.isAlive() || t2.isAlive());
+
+        // tid2 is younger, so it is the victim and tid1 gets both pages
+        assertFalse(aborted1.get());
+        assertTrue(aborted2.get());
+        assertTrue(lm.holdsExclusive(tid1, p0));
+        assertTrue(lm.holdsExclusive(tid1, p1));
+        assertEquals(1, lm.getDeadlockCount());
+        assertTrue(lm.getDetectionCount() >= 2);
+    }
+
+    @Test public void upgradeDeadlock() throws Exception {
+        lm.setTimeout(0);
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        lm.acquire(tid2, p0, Permissions.READ_ONLY);
+        AtomicBoolean aborted1 = new AtomicBoolean(false);
+        AtomicBoolean aborted2 = new AtomicBoolean(false);
+        // the older transaction blocks first; the cycle is closed by the
+        // younger one, which is then aborted without ever waiting
+        Thread t1 = acquireInThread(tid1, p0, Permissions.READ_WRITE, aborted1);
+        Thread.sleep(50);
+        Thread t2 = acquireInThread(tid2, p0, Permissions.READ_WRITE, aborted2);
+        t1.join(5000);
+        t2.join(5000);
+        assertFalse(t1.isAlive() || t2.isAlive());
+        assertFalse(aborted1.get());
+        assertTrue(aborted2.get());
+        assertTrue(lm.holdsExclusive(tid1, p0));
+    }
+
+    @Test public void waitingVictimIsWoken() throws Exception {
+        lm.setTimeout(0);
+        TransactionId tid3 = new TransactionId();
+        PageId p2 = new HeapPageId(1, 2);
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        lm.acquire(tid2, p1, Permissions.READ_WRITE);
+        lm.acquire(tid3, p2, Permissions.READ_WRITE);
+        AtomicBoolean aborted1 = new AtomicBoolean(false);
+        AtomicBoolean aborted2 = new AtomicBoolean(false);
+        AtomicBoolean aborted3 = new AtomicBoolean(false);
+        // tid3 (the youngest) waits first; tid1 closes the cycle and tid3
+        // has to be woken to abort
+        Thread t3 = acquireInThread(tid3, p0, Permissions.READ_WRITE, aborted3);
+        Thread.sleep(50);
+        Thread t2 = acquireInThread(tid2, p2, Permissions.READ_WRITE, aborted2);
+        Thread.sleep(50);
+        Thread t1 = acquireInThread(tid1, p1, Permissions.READ_WRITE, aborted1);
+        t3.join(5000);
+        t2.join(5000);
+        assertFalse(t3.isAlive() || t2.isAlive());
+        assertTrue(aborted3.get());
+        assertFalse(aborted2.get());
+        assertTrue(lm.holdsExclusive(tid2, p2));
+        lm.releaseAll(tid2);
+        t1.join(5000);
+        assertFalse(aborted1.get());
+        assertTrue(lm.holdsExclusive(tid1, p1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
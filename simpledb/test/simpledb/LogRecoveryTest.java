@@ -0,0 +1,304 @@
+package simpledb;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Tests for STEAL/NO-FORCE buffer management: commits only force the log,
+ * and rollback / recover use it to undo and redo page writes.
+ */
+public class LogRecoveryTest {
+    private File file;
+    private HeapFile hf;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        Database.reset();
+        hf = TestUtil.createEmptyPagesHeapFile(1);
+        file = hf.getFile();
+        pid = new HeapPageId(hf.getId(), 0);
+    }
+
+    /** @return the number of tuples on the page as it is on disk. */
+    private int tuplesOnDisk() {
+        HeapPage p = (HeapPage) hf.readPage(pid);
+        return p.numSlots - p.getNumEmptySlots();
+    }
+
+    private int tuplesInPool() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        Database.getBufferPool().transactionComplete(tid);
+        return p.numSlots - p.getNumEmptySlots();
+    }
+
+    private Transaction insert(int value) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(),
+                Utility.getHeapTuple(new int[] { value, value }));
+        return t;
+    }
+
+    /** Throws the buffer pool away and recovers from the log. */
+    private void crashAndRecover() throws Exception {
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+    }
+
+    @Test public void commitOnlyForcesLog() throws Exception {
+        insert(1).commit();
+        assertEquals(0, tuplesOnDisk());
+        assertEquals(1, tuplesInPool());
+
+        crashAndRecover();
+        assertEquals(1, tuplesOnDisk());
+    }
+
+    @Test public void stolenPageOfLoserIsUndone() throws Exception {
+        insert(1).commit();
+        insert(2);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(2, tuplesOnDisk());
+
+        crashAndRecover();
+        assertEquals(1, tuplesOnDisk());
+    }
+
+    @Test public void abortRollsBackStolenPage() throws Exception {
+        Transaction t = insert(1);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(1, tuplesOnDisk());
+        t.abort();
+        assertEquals(0, tuplesOnDisk());
+        assertEquals(0, tuplesInPool());
+    }
+
+    @Test public void abortKeepsUnflushedCommits() throws Exception {
+        insert(1).commit();
+        insert(2).abort();
+        assertEquals(1, tuplesInPool());
+        Database.getBufferPool().flushAllPages();
+        assertEquals(1, tuplesOnDisk());
+
+        // the aborted transaction must not come back either
+        crashAndRecover();
+        assertEquals(1, tuplesOnDisk());
+    }
+
+    @Test public void abortKeepsCommitFlushedMidTransaction() throws Exception {
+        Transaction t1 = insert(1);
+        Database.getBufferPool().flushAllPages();
+        t1.commit();
+        // the page was clean at commit, its before image must move anyway
+        Transaction t2 = insert(2);
+        Database.getBufferPool().flushAllPages();
+        t2.abort();
+        assertEquals(1, tuplesOnDisk());
+        assertEquals(1, tuplesInPool());
+    }
+
+    @Test public void redoAfterStealAndChangeBack() throws Exception {
+        Transaction t = insert(1);
+        // stolen with the tuple in it
+        Database.getBufferPool().flushAllPages();
+        assertEquals(1, tuplesOnDisk());
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(t.getId(), pid,
+                Permissions.READ_WRITE);
+        Database.getBufferPool().deleteTuple(t.getId(), p.iterator().next());
+        // the page is back to its before image, but not on disk
+        t.commit();
+
+        crashAndRecover();
+        assertEquals(0, tuplesOnDisk());
+    }
+
+    @Test public void recoveredLosersStayAborted() throws Exception {
+        insert(1);
+        Database.getBufferPool().flushAllPages();
+        crashAndRecover();
+        assertEquals(0, tuplesOnDisk());
+
+        insert(2).commit();
+        Database.getBufferPool().flushAllPages();
+        crashAndRecover();
+        assertEquals(1, tuplesOnDisk());
+    }
+
+    @Test public void checkpointWithActiveTransaction() throws Exception {
+        insert(1).commit();
+        insert(2);
+        Database.getLogFile().logCheckpoint();
+        // the checkpoint wrote out the dirty page, loser's change included
+        assertEquals(2, tuplesOnDisk());
+
+        crashAndRecover();
+        assertEquals(1, tuplesOnDisk());
+    }
+
+    @Test public void checkpointDuringCommittedTransaction() throws Exception {
+        Transaction t1 = insert(1);
+        // the fuzzy checkpoint writes t1's page while t1 still runs
+        Database.getLogFile().logCheckpoint();
+        t1.commit();
+        insert(2).abort();
+        assertEquals(1, tuplesInPool());
+        Database.getBufferPool().flushAllPages();
+        assertEquals(1, tuplesOnDisk());
+
+        crashAndRecover();
+        assertEquals(1, tuplesOnDisk());
+    }
+
+    @Test public void redoAfterBackgroundCheckpoint() throws Exception {
+        insert(1).commit();
+        Database.getLogFile().logCheckpointInBackground().join();
+        assertEquals(1, tuplesOnDisk());
+        insert(2).commit();
+
+        crashAndRecover();
+        assertEquals(2, tuplesOnDisk());
+    }
+
+    @Test public void parallelRedoAcrossPages() throws Exception {
+        hf = TestUtil.createEmptyPagesHeapFile(4);
+        file = hf.getFile();
+        HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        // committed transactions filling about three pages, the first
+        // half of them flushed, then one that is still running at the
+        // crash and whose page was stolen
+        int committed = p.numSlots * 5 / 2;
+        int perTransaction = p.numSlots / 4;
+        int flushAt = committed / 2 / perTransaction * perTransaction;
+        for (int done = 0; done < committed; done += perTransaction) {
+            if (done == flushAt)
+                Database.getBufferPool().flushAllPages();
+            Transaction t = new Transaction();
+            t.start();
+            for (int i = 0; i < perTransaction; i++) {
+                Database.getBufferPool().insertTuple(t.getId(), hf.getId(),
+                        Utility.getHeapTuple(new int[] { done + i, 0 }));
+            }
+            t.commit();
+        }
+        Transaction loser = insert(-1);
+        Database.getBufferPool().flushPages(loser.getId());
+
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().setRecoveryThreads(4);
+        Database.getLogFile().recover();
+        int onDisk = 0;
+        for (int pg = 0; pg < 4; pg++) {
+            HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pg));
+            onDisk += page.numSlots - page.getNumEmptySlots();
+        }
+        int expected = (committed + perTransaction - 1) / perTransaction * perTransaction;
+        assertEquals(expected, onDisk);
+    }
+
+    @Test public void smallUpdatesLogOnlyChanges() throws Exception {
+        insert(1).commit();
+        // header, BEGIN, UPDATE with a couple of short ranges, COMMIT
+        assertTrue(new File("log").length() < BufferPool.getPageSize() / 8);
+    }
+
+    @Test public void tornRecordIsIgnored() throws Exception {
+        insert(1).commit();
+        RandomAccessFile raf = new RandomAccessFile("log", "rw");
+        raf.seek(raf.length());
+        raf.write(new byte[] { LogFile.UPDATE_RECORD, 0, 0, 0, 0, 0, 1 });
+        raf.close();
+
+        crashAndRecover();
+        assertEquals(1, tuplesOnDisk());
+        // the log goes on after the last good record
+        insert(2).commit();
+        crashAndRecover();
+        assertEquals(2, tuplesOnDisk());
+    }
+
+    @Test public void tornPageIsRepaired() throws Exception {
+        insert(1).commit();
+        Database.getBufferPool().flushAllPages();
+        insert(2).commit();
+        // the crash tore the write of the page: only its first half made
+        // it to disk
+        byte[] image = Database.getBufferPool().getPage(new TransactionId(), pid,
+                Permissions.READ_ONLY).getPageData();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.write(image, 0, image.length / 2);
+        raf.close();
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        try {
+            hf.readPage(pid);
+            fail("expected ChecksumException");
+        } catch (ChecksumException e) {
+        }
+
+        Database.getLogFile().recover();
+        assertEquals(2, tuplesOnDisk());
+    }
+
+    @Test public void updateRoundTrip() throws Exception {
+        byte[] before = new byte[BufferPool.getPageSize()];
+        byte[] after = before.clone();
+        // header bits of slots 80 and 105, close enough to share a range,
+        // and a field of the tuple in slot 80
+        after[10] = 1;
+        after[13] = 2;
+        after[63 + 80 * 8 + 3] = 3;
+        byte[] update = LogFile.encodeUpdate(pid, before, after);
+        assertEquals(2, ByteBuffer.wrap(update).getInt(8));
+
+        hf.writePage(new HeapPage(pid, before));
+        Database.getLogFile().applyUpdate(update, true);
+        assertArrayEquals(after, hf.readPage(pid).getPageData());
+        Database.getLogFile().applyUpdate(update, false);
+        assertArrayEquals(before, hf.readPage(pid).getPageData());
+    }
+
+    @Test public void concurrentCommitsShareForces() throws Exception {
+        File f = File.createTempFile("groupcommit", ".log");
+        f.deleteOnExit();
+        final LogFile log = new LogFile(f);
+        // a long window that a full batch cuts short
+        log.setGroupCommit(5000000, 8);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        TransactionId tid = new TransactionId();
+                        log.logXactionBegin(tid);
+                        log.logCommit(tid);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join(4000);
+        for (Thread t : threads)
+            assertFalse(t.isAlive());
+        assertEquals(1, log.getForceCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogRecoveryTest.class);
+    }
+}
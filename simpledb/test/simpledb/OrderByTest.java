@@ -0,0 +1,84 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    // the first two fields of each tuple
+    private static ArrayList<int[]> read(DbIterator it) throws Exception {
+        ArrayList<int[]> rows = new ArrayList<int[]>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            rows.add(new int[] { ((IntField) t.getField(0)).getValue(),
+                    ((IntField) t.getField(1)).getValue() });
+        }
+        return rows;
+    }
+
+    @Test public void singleField() throws Exception {
+        DbIterator child = TestUtil.createTupleList(2,
+                new int[] { 3, 0, 1, 1, 2, 2, 1, 3 });
+        OrderBy op = new OrderBy(0, false, child);
+        op.open();
+        ArrayList<int[]> rows = read(op);
+        assertEquals(4, rows.size());
+        assertEquals(3, rows.get(0)[0]);
+        assertEquals(2, rows.get(1)[0]);
+        // ties keep the child's order
+        assertEquals(1, rows.get(2)[1]);
+        assertEquals(3, rows.get(3)[1]);
+        op.close();
+    }
+
+    /**
+     * f0 ascending, then f1 descending, in memory and in runs on disk
+     */
+    @Test public void multiField() throws Exception {
+        for (int budget : new int[] { ExternalSort.RUN_SIZE, 27 }) {
+            // 1000 tuples: 38 runs of 27, not a power of two
+            OrderBy op = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false },
+                    HashEquiJoinTest.table(1000, 2, 30, 7));
+            op.setMemoryBudget(budget);
+            op.open();
+            assertEquals(budget != ExternalSort.RUN_SIZE, op.isSpilled());
+            for (int pass = 0; pass < 2; pass++) {
+                ArrayList<int[]> rows = read(op);
+                assertEquals(1000, rows.size());
+                for (int i = 1; i < rows.size(); i++) {
+                    int[] a = rows.get(i - 1), b = rows.get(i);
+                    assertTrue(a[0] < b[0] || (a[0] == b[0] && a[1] > b[1]));
+                }
+                op.rewind();
+            }
+            op.close();
+        }
+    }
+
+    @Test public void emptyChild() throws Exception {
+        OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, new int[0]));
+        op.setMemoryBudget(1);
+        op.open();
+        assertFalse(op.hasNext());
+        op.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void zeroBudget() {
+        new OrderBy(0, true, TestUtil.createTupleList(2, new int[0])).setMemoryBudget(0);
+    }
+
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -0,0 +1,71 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 64;
+    private static final int TABLE_PAGES = 40;
+    private HeapFile hf;
+    private int tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        int tuplesPerPage = BufferPool.getPageSize() * 8 / (2 * 4 * 8 + 1);
+        tuples = TABLE_PAGES * tuplesPerPage;
+        hf = SystemTestUtil.createRandomHeapFile(2, tuples, null, null);
+    }
+
+    private int scan() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    @Test public void scanReadsAhead() throws Exception {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        assertEquals(tuples, scan());
+        assertTrue(bp.getPrefetchCount() > 0);
+        // every page was either read ahead or missed, never both
+        assertEquals(TABLE_PAGES, bp.getPrefetchCount() + bp.getMissCount());
+    }
+
+    @Test public void readAheadOff() throws Exception {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        bp.setReadAheadEnabled(false);
+        assertEquals(tuples, scan());
+        assertEquals(0, bp.getPrefetchCount());
+        assertEquals(TABLE_PAGES, bp.getMissCount());
+    }
+
+    @Test public void prefetchOfResidentPage() throws Exception {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        PageId pid = new HeapPageId(hf.getId(), 0);
+        bp.prefetchPage(pid, null).get();
+        assertEquals(1, bp.getPrefetchCount());
+        assertNull(bp.prefetchPage(pid, null));
+        bp.getPage(null, pid, Permissions.READ_ONLY);
+        assertEquals(0, bp.getMissCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+    private HeapPageId pid;
+
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private static int count(Iterator<Tuple> it) {
+        int n = 0;
+        for (; it.hasNext(); it.next())
+            n++;
+        return n;
+    }
+
+    /**
+     * Short strings take only their length, many times the tuples of a
+     * HeapPage fit.
+     */
+    @Test public void shortStringsPackTightly() throws Exception {
+        SlottedPage page = new SlottedPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "ab")))
+            page.insertTuple(tuple(n++, "ab"));
+        int heapSlots = BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1);
+        assertTrue(n > 5 * heapSlots);
+        assertEquals(n, count(page.iterator()));
+        try {
+            page.insertTuple(tuple(n, "ab"));
+            fail("page should be full");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * The page image round-trips, and deleted space is reused through
+     * compaction without changing the slots of the tuples left.
+     */
+    @Test public void compactionKeepsRecordIds() throws Exception {
+        SlottedPage page = new SlottedPage(pid, HeapPage.createEmptyPageData());
+        ArrayList<Tuple> in = new ArrayList<Tuple>();
+        String big = new String(new char[100]).replace('\0', 'x');
+        while (page.hasRoomFor(tuple(in.size(), big))) {
+            Tuple t = tuple(in.size(), big);
+            page.insertTuple(t);
+            in.add(t);
+        }
+        // free every other tuple: enough space for a longer one, but not
+        // in one piece
+        for (int i = 0; i < in.size(); i += 2)
+            page.deleteTuple(in.get(i));
+        Tuple longer = tuple(-1, big + big);
+        assertTrue(page.hasRoomFor(longer));
+        page.insertTuple(longer);
+        assertEquals(0, longer.getRecordId().getTupleNumber());
+
+        page = new SlottedPage(pid, page.getPageData());
+        for (int i = 1; i < in.size(); i += 2) {
+            Tuple t = page.getTuple(in.get(i).getRecordId().getTupleNumber());
+            assertTrue(TestUtil.compareTuples(in.get(i), t));
+        }
+        assertTrue(TestUtil.compareTuples(longer, page.getTuple(0)));
+        assertEquals(in.size() / 2 + 1, count(page.iterator()));
+    }
+
+    /**
+     * A table declared slotted in the catalog file is a SlottedFile, and
+     * tuples inserted through the buffer pool come back from a scan.
+     */
+    @Test public void slottedTableInCatalog() throws Exception {
+        File schema = File.createTempFile("slotted", ".txt");
+        schema.deleteOnExit();
+        String name = "t" + SystemTestUtil.getUUID().replace("-", "");
+        FileWriter w = new FileWriter(schema);
+        w.write(name + " (id int, s string) slotted\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+        int tableId = Database.getCatalog().getTableId(name);
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        assertTrue(f instanceof SlottedFile);
+        ((SlottedFile) f).getFile().deleteOnExit();
+
+        TransactionId tid = new TransactionId();
+        int n = 2000;
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(f.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("row" + i, Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, tableId, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        int heapSlots = BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1);
+        assertTrue(((SlottedFile) f).numPages() * 5 < n / heapSlots);
+
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, tableId, "");
+        scan.open();
+        int seen = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals("row" + ((IntField) t.getField(0)).getValue(),
+                    ((StringField) t.getField(1)).getValue());
+            seen++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(n, seen);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
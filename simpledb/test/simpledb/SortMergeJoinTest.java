@@ -0,0 +1,155 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+            Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+            Predicate.Op.GREATER_THAN_OR_EQ };
+
+    // same tuples as Join, for every op, with and without spilling
+    private void checkAgainstJoin(int budget, int keys) throws Exception {
+        for (Predicate.Op op : OPS) {
+            JoinPredicate pred = new JoinPredicate(0, op, 0);
+            // few keys, so lots of duplicates on both sides
+            SortMergeJoin smj = new SortMergeJoin(pred, HashEquiJoinTest.table(300, 2, keys, 1),
+                    HashEquiJoinTest.table(200, 3, keys, 2));
+            smj.setMemoryBudget(budget);
+            smj.open();
+            ArrayList<String> got = HashEquiJoinTest.rows(smj);
+
+            Join nested = new Join(pred, HashEquiJoinTest.table(300, 2, keys, 1),
+                    HashEquiJoinTest.table(200, 3, keys, 2));
+            nested.open();
+            assertEquals(op.toString(), HashEquiJoinTest.rows(nested), got);
+
+            smj.rewind();
+            assertEquals(got, HashEquiJoinTest.rows(smj));
+            smj.close();
+        }
+    }
+
+    @Test public void inMemory() throws Exception {
+        checkAgainstJoin(ExternalSort.RUN_SIZE, 40);
+    }
+
+    /**
+     * Sorts spill to several runs, and range prefixes go over the budget.
+     */
+    @Test public void spilled() throws Exception {
+        checkAgainstJoin(25, 40);
+    }
+
+    /**
+     * Duplicate runs of about 40 tuples with a budget of 7: the rest of
+     * each run is read again for every child1 tuple with its key.
+     */
+    @Test public void longDuplicateRuns() throws Exception {
+        checkAgainstJoin(7, 5);
+    }
+
+    @Test public void inputsSorted() throws Exception {
+        TupleIterator left = TestUtil.createTupleList(2,
+                new int[] { 1, 10, 2, 20, 2, 21, 4, 40 });
+        TupleIterator right = TestUtil.createTupleList(2,
+                new int[] { 2, 200, 2, 201, 3, 300, 4, 400 });
+        SortMergeJoin smj = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                left, right);
+        smj.setInputsSorted(true);
+        smj.open();
+        TupleIterator expected = TestUtil.createTupleList(4,
+                new int[] { 2, 20, 2, 200, 2, 20, 2, 201, 2, 21, 2, 200, 2, 21, 2, 201,
+                        4, 40, 4, 400 });
+        expected.open();
+        TestUtil.matchAllTuples(expected, smj);
+        smj.close();
+    }
+
+    @Test public void externalSort() throws Exception {
+        ExternalSort sort = new ExternalSort(HashEquiJoinTest.table(1000, 2, 300, 3),
+                new TupleComparator(0, true));
+        sort.setMemoryBudget(64);
+        sort.open();
+        assertTrue(sort.isSpilled());
+        assertEquals(16, sort.numRuns());
+        for (int pass = 0; pass < 2; pass++) {
+            int n = 0, last = Integer.MIN_VALUE;
+            while (sort.hasNext()) {
+                int v = ((IntField) sort.next().getField(0)).getValue();
+                assertTrue(v >= last);
+                last = v;
+                n++;
+            }
+            assertEquals(1000, n);
+            sort.rewind();
+        }
+        sort.close();
+    }
+
+    /**
+     * 100 runs merged 4 at a time: three passes down to two runs, then the
+     * final merge, still in order and stable.
+     */
+    @Test public void multiPassMerge() throws Exception {
+        ExternalSort sort = new ExternalSort(HashEquiJoinTest.table(1000, 2, 30, 5),
+                new TupleComparator(0, true));
+        sort.setMemoryBudget(10);
+        sort.setMaxFanIn(4);
+        sort.open();
+        assertEquals(100, sort.numRuns());
+        assertEquals(3, sort.numMergePasses());
+        for (int pass = 0; pass < 2; pass++) {
+            int n = 0, last = Integer.MIN_VALUE, lastRow = -1;
+            while (sort.hasNext()) {
+                Tuple t = sort.next();
+                int v = ((IntField) t.getField(0)).getValue();
+                int row = ((IntField) t.getField(1)).getValue();
+                assertTrue(v > last || (v == last && row > lastRow));
+                last = v;
+                lastRow = row;
+                n++;
+            }
+            assertEquals(1000, n);
+            sort.rewind();
+        }
+        sort.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void notEquals() {
+        new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+                HashEquiJoinTest.table(1, 1, 1, 1), HashEquiJoinTest.table(1, 1, 1, 1));
+    }
+
+    @Test public void zeroBudget() {
+        try {
+            new ExternalSort(HashEquiJoinTest.table(1, 1, 1, 1), new TupleComparator(0, true))
+                    .setMemoryBudget(0);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                    HashEquiJoinTest.table(1, 1, 1, 1), HashEquiJoinTest.table(1, 1, 1, 1))
+                    .setMemoryBudget(-1);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
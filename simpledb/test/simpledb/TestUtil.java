@@ -83,6 +83,20 @@ public class TestUtil {
         return result;
     }
 
+    /**
+     * @return a new two-column HeapFile, registered in the catalog, that
+     *   consists of numPages empty pages
+     * @throws IOException if the backing file can't be written
+     */
+    public static HeapFile createEmptyPagesHeapFile(int numPages) throws IOException {
+        File f = File.createTempFile("pages", ".dat");
+        f.deleteOnExit();
+        FileOutputStream os = new FileOutputStream(f);
+        os.write(new byte[numPages * BufferPool.getPageSize()]);
+        os.close();
+        return Utility.openHeapFile(2, f);
+    }
+
     /**
      * @return true iff the tuples have the same number of fields and
      *   corresponding fields in the two Tuples are all equal.
@@ -214,6 +228,18 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public void writePage(PageId pid, byte[] data) throws IOException {
+            throw new RuntimeException("not implemented");
+        }
+
+        public PageId getPageId(int pageNo) {
+            throw new RuntimeException("not implemented");
+        }
+
+        public Page createPage(PageId pid, byte[] data) {
+            throw new RuntimeException("not implemented");
+        }
+
         public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
             throw new RuntimeException("not implemented");
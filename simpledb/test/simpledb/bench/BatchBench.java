@@ -0,0 +1,98 @@
+package simpledb.bench;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Scan-filter-aggregate over a table held in the buffer pool, i.e.
+ * SELECT SUM(f1) FROM t WHERE f0 &lt; x (ungrouped and grouped by f2), run
+ * tuple at a time (SeqScan, Filter, Aggregate) and batch at a time
+ * (BatchScan, BatchFilter, BatchAggregate). Then the same filter joined on
+ * f2 with a 1000 row table, counted: SELECT COUNT(*) FROM t, d WHERE
+ * t.f0 &lt; x AND t.f2 = d.f0, with HashEquiJoin and with BatchHashJoin.
+ *
+ * Run with: ant bench -Dbench=BatchBench
+ */
+public class BatchBench {
+
+    private static final int ROWS = 1000000;
+    private static final int COLUMNS = 4;
+    private static final int POOL_PAGES = 20000;
+    private static final int RUNS = 10;
+    private static final int DIM_ROWS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 1000, null, null);
+        Database.resetBufferPool(POOL_PAGES);
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500));
+
+        System.out.println("plan\tgroup by\tms (best of " + RUNS + ")\tresult rows");
+        for (int gfield : new int[] { Aggregator.NO_GROUPING, 2 }) {
+            for (boolean batch : new boolean[] { false, true }) {
+                long best = Long.MAX_VALUE;
+                int rows = 0;
+                for (int r = 0; r < RUNS; r++) {
+                    TransactionId tid = new TransactionId();
+                    DbIterator plan;
+                    if (batch) {
+                        BatchScan scan = new BatchScan(tid, hf.getId());
+                        if (gfield == Aggregator.NO_GROUPING)
+                            scan.setColumns(0, 1);
+                        else
+                            scan.setColumns(0, 1, 2);
+                        plan = new TupleAdapter(new BatchAggregate(new BatchFilter(p, scan),
+                                1, gfield, Aggregator.Op.SUM));
+                    } else {
+                        plan = new Aggregate(new Filter(p, new SeqScan(tid, hf.getId(), "")),
+                                1, gfield, Aggregator.Op.SUM);
+                    }
+                    long start = System.nanoTime();
+                    plan.open();
+                    rows = 0;
+                    while (plan.hasNext()) {
+                        plan.next();
+                        rows++;
+                    }
+                    plan.close();
+                    best = Math.min(best, System.nanoTime() - start);
+                    Database.getBufferPool().transactionComplete(tid);
+                }
+                System.out.printf("%s\t%s\t\t%.1f\t\t\t%d%n", batch ? "batch" : "tuple",
+                        gfield == Aggregator.NO_GROUPING ? "-" : "f2", best / 1e6, rows);
+            }
+        }
+
+        HeapFile dim = SystemTestUtil.createRandomHeapFile(2, DIM_ROWS, 1000, null, null);
+        System.out.println("join	ms (best of " + RUNS + ")	count");
+        for (boolean batch : new boolean[] { false, true }) {
+            long best = Long.MAX_VALUE;
+            int count = 0;
+            for (int r = 0; r < RUNS; r++) {
+                TransactionId tid = new TransactionId();
+                DbIterator plan;
+                if (batch) {
+                    BatchScan scan = new BatchScan(tid, hf.getId());
+                    scan.setColumns(0, 2);
+                    plan = new TupleAdapter(new BatchAggregate(new BatchHashJoin(2, 0,
+                            new BatchFilter(p, scan), new BatchScan(tid, dim.getId())),
+                            0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT));
+                } else {
+                    plan = new Aggregate(new HashEquiJoin(new JoinPredicate(2, Predicate.Op.EQUALS, 0),
+                            new Filter(p, new SeqScan(tid, hf.getId(), "")),
+                            new SeqScan(tid, dim.getId(), "")),
+                            0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+                }
+                long start = System.nanoTime();
+                plan.open();
+                count = ((IntField) plan.next().getField(0)).getValue();
+                plan.close();
+                best = Math.min(best, System.nanoTime() - start);
+                Database.getBufferPool().transactionComplete(tid);
+            }
+            System.out.printf("%s	%.1f			%d%n", batch ? "batch" : "tuple", best / 1e6, count);
+        }
+        hf.getFile().delete();
+        dim.getFile().delete();
+    }
+}
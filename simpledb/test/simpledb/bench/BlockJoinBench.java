@@ -0,0 +1,50 @@
+package simpledb.bench;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Range join of two tables with Join: a small inner table (cached in
+ * memory) and one bigger than the memory budget (scanned once per block of
+ * the outer table), each compared to a budget of one tuple, which rescans
+ * the inner table once per outer tuple like the old tuple-at-a-time Join.
+ *
+ * Run with: ant bench -Dbench=BlockJoinBench
+ */
+public class BlockJoinBench {
+
+    private static final int OUTER = 2000;
+    private static final int POOL_PAGES = 1000;
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, OUTER, 1000000, null, null);
+        // outer.f0 < inner.f0 keeps the result small: inner values are small
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+        System.out.println("inner rows\tbudget\tcached\tms\tresult rows");
+        for (int innerRows : new int[] { 5000, Join.BLOCK_SIZE * 3 / 2 }) {
+            HeapFile inner = SystemTestUtil.createRandomHeapFile(2, innerRows, 1000, null, null);
+            for (int budget : new int[] { 1, Join.BLOCK_SIZE }) {
+                Database.resetBufferPool(POOL_PAGES);
+                TransactionId tid = new TransactionId();
+                Join join = new Join(pred, new SeqScan(tid, outer.getId(), "o"),
+                        new SeqScan(tid, inner.getId(), "i"));
+                join.setMemoryBudget(budget);
+                long start = System.nanoTime();
+                join.open();
+                long n = 0;
+                while (join.hasNext()) {
+                    join.next();
+                    n++;
+                }
+                boolean cached = join.isInnerCached();
+                join.close();
+                Database.getBufferPool().transactionComplete(tid);
+                System.out.printf("%d\t\t%d\t%s\t%.0f\t%d%n", innerRows, budget, cached,
+                        (System.nanoTime() - start) / 1e6, n);
+            }
+            inner.getFile().delete();
+        }
+        outer.getFile().delete();
+    }
+}
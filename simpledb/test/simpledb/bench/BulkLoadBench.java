@@ -0,0 +1,58 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import simpledb.*;
+
+/**
+ * Loads rows of two int fields into an empty table in one transaction:
+ * row by row through BufferPool.insertTuple, and through the Insert
+ * operator, which takes the bulk path (BufferPool.insertTuples).
+ *
+ * Run with: ant bench -Dbench=BulkLoadBench
+ */
+public class BulkLoadBench {
+
+    private static final int ROW_BY_ROW = 100000;
+    private static final int BULK = 1000000;
+    private static final int POOL_PAGES = 1000;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("path\t\trows\tseconds\trows/s");
+        run(false, ROW_BY_ROW);
+        run(true, ROW_BY_ROW);
+        run(true, BULK);
+    }
+
+    private static void run(boolean bulk, int rows) throws Exception {
+        Database.reset();
+        File f = File.createTempFile("bulkload", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(rows);
+        for (int i = 0; i < rows; i++)
+            tuples.add(Utility.getHeapTuple(new int[] { i, -i }));
+
+        long start = System.nanoTime();
+        Transaction t = new Transaction();
+        t.start();
+        if (bulk) {
+            Insert insert = new Insert(t.getId(),
+                    new TupleIterator(Utility.getTupleDesc(2), tuples), hf.getId());
+            insert.open();
+            insert.next();
+            insert.close();
+        } else {
+            for (Tuple tup : tuples)
+                bp.insertTuple(t.getId(), hf.getId(), tup);
+        }
+        t.commit();
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%s\t%d\t%.2f\t%.0f%n", bulk ? "Insert (bulk)" : "row by row",
+                rows, secs, rows / secs);
+        f.delete();
+        new File(f.getPath() + ".fsm").delete();
+    }
+}
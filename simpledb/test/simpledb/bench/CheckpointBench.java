@@ -0,0 +1,103 @@
+package simpledb.bench;
+
+import java.util.*;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures transaction latency while checkpoints are taken. Each worker
+ * moves random tuples of its own table (a delete and an insert, dirtying
+ * a random page) in small transactions; a checkpoint is taken every
+ * CHECKPOINT_MS. "blocking" emulates the old checkpoint, which flushed
+ * the whole pool while holding its monitor; "fuzzy" is logCheckpoint.
+ *
+ * Run with: ant bench -Dbench=CheckpointBench
+ */
+public class CheckpointBench {
+
+    private static final int WORKERS = 4;
+    private static final int TABLE_PAGES = 100;
+    private static final int POOL_PAGES = 1000;
+    private static final long RUN_MS = 4000;
+    private static final long CHECKPOINT_MS = 400;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("mode\t\tcommits\tp50 ms\tp99 ms\tmax ms\tcheckpoints");
+        for (String mode : new String[] { "none", "blocking", "fuzzy" })
+            run(mode);
+    }
+
+    private static void run(final String mode) throws Exception {
+        Database.reset();
+        final BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        final HeapFile[] tables = new HeapFile[WORKERS];
+        int tuplesPerPage = BufferPool.getPageSize() * 8 / (8 * 8 + 1);
+        for (int i = 0; i < WORKERS; i++) {
+            tables[i] = SystemTestUtil.createRandomHeapFile(2, TABLE_PAGES * tuplesPerPage,
+                    null, null);
+        }
+
+        final long end = System.currentTimeMillis() + RUN_MS;
+        final ArrayList<Long> latencies = new ArrayList<Long>();
+        Thread[] workers = new Thread[WORKERS];
+        for (int w = 0; w < WORKERS; w++) {
+            final HeapFile hf = tables[w];
+            workers[w] = new Thread() {
+                public void run() {
+                    Random r = new Random(hf.getId());
+                    ArrayList<Long> mine = new ArrayList<Long>();
+                    try {
+                        while (System.currentTimeMillis() < end) {
+                            long start = System.nanoTime();
+                            Transaction t = new Transaction();
+                            t.start();
+                            PageId pid = new HeapPageId(hf.getId(), r.nextInt(TABLE_PAGES));
+                            HeapPage p = (HeapPage) bp.getPage(t.getId(), pid,
+                                    Permissions.READ_WRITE);
+                            Iterator<Tuple> it = p.iterator();
+                            if (it.hasNext()) {
+                                Tuple tup = it.next();
+                                bp.deleteTuple(t.getId(), tup);
+                                bp.insertTuple(t.getId(), hf.getId(), tup);
+                            }
+                            t.commit();
+                            mine.add(System.nanoTime() - start);
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                    synchronized (latencies) {
+                        latencies.addAll(mine);
+                    }
+                }
+            };
+            workers[w].start();
+        }
+
+        int checkpoints = 0;
+        while (System.currentTimeMillis() + CHECKPOINT_MS < end) {
+            Thread.sleep(CHECKPOINT_MS);
+            if (mode.equals("blocking")) {
+                synchronized (bp) {
+                    bp.flushAllPages();
+                    Database.getLogFile().logCheckpoint();
+                }
+                checkpoints++;
+            } else if (mode.equals("fuzzy")) {
+                Database.getLogFile().logCheckpoint();
+                checkpoints++;
+            }
+        }
+        for (Thread t : workers)
+            t.join();
+
+        Collections.sort(latencies);
+        int n = latencies.size();
+        System.out.printf("%-10s\t%d\t%.2f\t%.2f\t%.2f\t%d%n", mode, n,
+                latencies.get(n / 2) / 1e6, latencies.get((int) (n * 0.99)) / 1e6,
+                latencies.get(n - 1) / 1e6, checkpoints);
+        for (HeapFile hf : tables)
+            hf.getFile().delete();
+    }
+}
@@ -0,0 +1,95 @@
+package simpledb.bench;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.zip.CRC32;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures what page checksums cost on reads: the CRC32 of a page alone,
+ * and HeapFile.readPage of pages in the OS page cache with checksums on
+ * and off (best of TRIALS, alternating), against decoding every tuple of
+ * a page, for a few page sizes.
+ *
+ * Run with: ant bench -Dbench=ChecksumBench
+ */
+public class ChecksumBench {
+
+    private static final int PAGES = 256;
+    private static final int ROUNDS = 20;
+    private static final int TRIALS = 5;
+    private static final int[] PAGE_SIZES = { 4096, 16384, 65536 };
+
+    static long sink;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("page size\tcrc us\tread us\tread+crc us\tdecode us\tcrc/decode");
+        for (int size : PAGE_SIZES) {
+            BufferPool.setPageSize(size);
+            Database.reset();
+            int tuplesPerPage = size * 8 / (2 * 4 * 8 + 1);
+            HeapFile hf = SystemTestUtil.createRandomHeapFile(2, PAGES * tuplesPerPage,
+                    null, null);
+            HeapPageId[] pids = new HeapPageId[PAGES];
+            for (int i = 0; i < PAGES; i++) {
+                pids[i] = new HeapPageId(hf.getId(), i);
+                // record the checksums
+                hf.writePage(hf.readPage(pids[i]));
+            }
+            double crc = Double.MAX_VALUE, plain = Double.MAX_VALUE;
+            double checked = Double.MAX_VALUE, decode = Double.MAX_VALUE;
+            for (int t = 0; t < TRIALS; t++) {
+                crc = Math.min(crc, crc(hf, pids, ROUNDS));
+                hf.setChecksums(false);
+                plain = Math.min(plain, read(hf, pids, ROUNDS));
+                hf.setChecksums(true);
+                checked = Math.min(checked, read(hf, pids, ROUNDS));
+                decode = Math.min(decode, decode(hf, pids, ROUNDS));
+            }
+            System.out.printf("%d\t\t%.2f\t%.2f\t%.2f\t\t%.2f\t\t%.1f%%%n", size, crc, plain,
+                    checked, decode, 100 * crc / decode);
+            hf.close();
+            hf.getFile().delete();
+        }
+        BufferPool.resetPageSize();
+    }
+
+    // us per readPage
+    private static double read(HeapFile hf, HeapPageId[] pids, int rounds) {
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++)
+            for (HeapPageId pid : pids)
+                sink += hf.readPage(pid).getId().getPageNumber();
+        return (System.nanoTime() - start) / 1e3 / ((long) rounds * pids.length);
+    }
+
+    // us per page for the CRC32 alone
+    private static double crc(HeapFile hf, HeapPageId[] pids, int rounds) {
+        byte[] page = hf.readPage(pids[0]).getPageData();
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds * pids.length; r++) {
+            CRC32 c = new CRC32();
+            c.update(page, 0, page.length);
+            sink += c.getValue();
+        }
+        return (System.nanoTime() - start) / 1e3 / ((long) rounds * pids.length);
+    }
+
+    // us per page to decode every tuple of pages already read
+    private static double decode(HeapFile hf, HeapPageId[] pids, int rounds) throws Exception {
+        byte[][] raw = new byte[pids.length][];
+        for (int i = 0; i < pids.length; i++)
+            raw[i] = hf.readPage(pids[i]).getPageData();
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (int i = 0; i < pids.length; i++) {
+                Iterator<Tuple> it = new HeapPage(pids[i], ByteBuffer.wrap(raw[i])).iterator();
+                while (it.hasNext())
+                    sink += it.next().getField(1).hashCode();
+            }
+        }
+        return (System.nanoTime() - start) / 1e3 / ((long) rounds * pids.length);
+    }
+}
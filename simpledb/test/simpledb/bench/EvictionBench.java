@@ -0,0 +1,55 @@
+package simpledb.bench;
+
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Compares the hit rates of the eviction policies on a workload that mixes
+ * point lookups into a small, hot dimension table with repeated sequential
+ * scans of a fact table several times bigger than the pool (the page
+ * sequence a HeapFile iterator produces).
+ *
+ * Run with: ant bench -Dbench=EvictionBench
+ */
+public class EvictionBench {
+
+    private static final int POOL_PAGES = 64;
+    private static final int DIM_PAGES = 40;
+    private static final int FACT_PAGES = 1024;
+    private static final int SCANS = 10;
+    private static final int LOOKUPS_PER_PAGE = 2;
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        HeapFile dim = PageTableBench.createTable(DIM_PAGES);
+        HeapFile fact = PageTableBench.createTable(FACT_PAGES);
+
+        EvictionPolicy[] policies = {
+            new ClockEvictionPolicy(), new LruKEvictionPolicy(),
+            new TwoQueueEvictionPolicy(), new ArcEvictionPolicy()
+        };
+        System.out.println("policy\t\t\tdim hit rate\toverall hit rate");
+        for (EvictionPolicy policy : policies) {
+            BufferPool bp = Database.resetBufferPool(POOL_PAGES, policy);
+            TransactionId tid = new TransactionId();
+            Random r = new Random(0);
+            long dimHits = 0, dimLookups = 0;
+            for (int scan = 0; scan < SCANS; scan++) {
+                for (int p = 0; p < FACT_PAGES; p++) {
+                    bp.getPage(tid, new HeapPageId(fact.getId(), p), Permissions.READ_ONLY);
+                    for (int l = 0; l < LOOKUPS_PER_PAGE; l++) {
+                        long before = bp.getHitCount();
+                        bp.getPage(tid, new HeapPageId(dim.getId(), r.nextInt(DIM_PAGES)),
+                                Permissions.READ_ONLY);
+                        dimHits += bp.getHitCount() - before;
+                        dimLookups++;
+                    }
+                }
+            }
+            double overall = bp.getHitCount() / (double) (bp.getHitCount() + bp.getMissCount());
+            System.out.printf("%-24s%.3f\t\t%.3f%n", policy.getClass().getSimpleName(),
+                    dimHits / (double) dimLookups, overall);
+        }
+    }
+}
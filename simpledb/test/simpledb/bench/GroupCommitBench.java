@@ -0,0 +1,70 @@
+package simpledb.bench;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures commits per second through LogFile with several committer
+ * threads, for a few group commit settings. Each commit is a BEGIN and a
+ * COMMIT record, so the numbers are bounded by the log forces alone.
+ *
+ * Run with: ant bench -Dbench=GroupCommitBench
+ */
+public class GroupCommitBench {
+
+    private static final int[] THREADS = { 1, 4, 16, 64 };
+    // batch window in microseconds, max batch size
+    private static final long[][] SETTINGS = { { 0, 64 }, { 200, 64 }, { 1000, 64 } };
+    private static final long RUN_MS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("threads\twindow(us)\tcommits/s\tcommits/force");
+        for (long[] setting : SETTINGS) {
+            for (int threads : THREADS) {
+                run(threads, setting[0], (int) setting[1]);
+            }
+        }
+    }
+
+    private static void run(int threads, long windowMicros, int maxBatch) throws Exception {
+        File f = File.createTempFile("groupcommit", ".log");
+        f.deleteOnExit();
+        final LogFile log = new LogFile(f);
+        log.setGroupCommit(windowMicros, maxBatch);
+
+        final long end = System.currentTimeMillis() + RUN_MS;
+        final long[] commits = new long[threads];
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int me = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        while (System.currentTimeMillis() < end) {
+                            TransactionId tid = new TransactionId();
+                            log.logXactionBegin(tid);
+                            log.logCommit(tid);
+                            commits[me]++;
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread t : workers)
+            t.start();
+        for (Thread t : workers)
+            t.join();
+        double secs = (System.nanoTime() - start) / 1e9;
+
+        long total = 0;
+        for (long c : commits)
+            total += c;
+        System.out.printf("%d\t%d\t\t%.0f\t\t%.1f%n", threads, windowMicros, total / secs,
+                total / (double) Math.max(1, log.getForceCount()));
+        f.delete();
+    }
+}
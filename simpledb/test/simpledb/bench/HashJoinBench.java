@@ -0,0 +1,47 @@
+package simpledb.bench;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Equi-join of two tables of ROWS rows each with HashEquiJoin, once with
+ * the default memory budget (MAP_SIZE tuples of child1, so the inputs are
+ * partitioned to temp files) and once with a budget big enough for the
+ * whole build side. Before partitioning, the first case rescanned child2
+ * once per MAP_SIZE tuples of child1.
+ *
+ * Run with: ant bench -Dbench=HashJoinBench
+ */
+public class HashJoinBench {
+
+    private static final int ROWS = 400000;
+    private static final int POOL_PAGES = 1000;
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, ROWS, ROWS, null, null);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, ROWS, ROWS, null, null);
+        System.out.println("budget\t\tspilled\tms\tresult rows\tchild2 rescans before");
+        for (int budget : new int[] { HashEquiJoin.MAP_SIZE, ROWS + 1 }) {
+            Database.resetBufferPool(POOL_PAGES);
+            TransactionId tid = new TransactionId();
+            HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                    new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r"));
+            join.setMemoryBudget(budget);
+            long start = System.nanoTime();
+            join.open();
+            long n = 0;
+            while (join.hasNext()) {
+                join.next();
+                n++;
+            }
+            boolean spilled = join.isSpilled();
+            join.close();
+            Database.getBufferPool().transactionComplete(tid);
+            System.out.printf("%d\t\t%s\t%.0f\t%d\t\t%d%n", budget, spilled,
+                    (System.nanoTime() - start) / 1e6, n, (ROWS + budget - 1) / budget);
+        }
+        left.getFile().delete();
+        right.getFile().delete();
+    }
+}
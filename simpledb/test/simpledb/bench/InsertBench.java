@@ -0,0 +1,52 @@
+package simpledb.bench;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures single-row inserts into tables of growing size whose pages are
+ * all full but the last. With the free space map the cost per insert and
+ * the pages pulled through the pool should not grow with the table. The
+ * tables are written without a map, so the first insert looks at every
+ * page once to find out they are full; it is timed separately.
+ *
+ * Run with: ant bench -Dbench=InsertBench
+ */
+public class InsertBench {
+
+    private static final int[] TABLE_PAGES = { 10, 100, 1000, 4000 };
+    private static final int INSERTS = 2000;
+    private static final int PER_TRANSACTION = 100;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("pages\tfirst insert ms\tus/insert\tgetPage calls/insert");
+        for (int pages : TABLE_PAGES) {
+            Database.reset();
+            int tuplesPerPage = BufferPool.getPageSize() * 8 / (2 * 4 * 8 + 1);
+            HeapFile hf = SystemTestUtil.createRandomHeapFile(2, pages * tuplesPerPage - 1,
+                    null, null);
+            BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+            long start = System.nanoTime();
+            Transaction first = new Transaction();
+            first.start();
+            bp.insertTuple(first.getId(), hf.getId(), Utility.getHeapTuple(new int[] { 0, 0 }));
+            first.commit();
+            double firstMs = (System.nanoTime() - start) / 1e6;
+            long calls = bp.getHitCount() + bp.getMissCount();
+
+            start = System.nanoTime();
+            for (int done = 0; done < INSERTS; done += PER_TRANSACTION) {
+                Transaction t = new Transaction();
+                t.start();
+                for (int i = 0; i < PER_TRANSACTION; i++)
+                    bp.insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] { i, i }));
+                t.commit();
+            }
+            double us = (System.nanoTime() - start) / 1e3 / INSERTS;
+            System.out.printf("%d\t%.1f\t\t%.1f\t\t%.2f%n", pages, firstMs, us,
+                    (bp.getHitCount() + bp.getMissCount() - calls) / (double) INSERTS);
+            hf.getFile().delete();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package simpledb.bench;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * ORDER BY f0, f1 DESC over a table of ROWS rows, with a memory budget
+ * that holds the whole table and with the default one, which sorts in
+ * runs on disk and merges them.
+ *
+ * Run with: ant bench -Dbench=OrderByBench
+ */
+public class OrderByBench {
+
+    private static final int ROWS = 1000000;
+    private static final int POOL_PAGES = 20000;
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, null);
+        Database.resetBufferPool(POOL_PAGES);
+        System.out.println("budget\t\tspilled\tms (best of " + RUNS + ")\trows");
+        for (int budget : new int[] { ROWS + 1, ExternalSort.RUN_SIZE }) {
+            long best = Long.MAX_VALUE;
+            long n = 0;
+            boolean spilled = false;
+            for (int r = 0; r < RUNS; r++) {
+                TransactionId tid = new TransactionId();
+                OrderBy ob = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false },
+                        new SeqScan(tid, hf.getId(), ""));
+                ob.setMemoryBudget(budget);
+                long start = System.nanoTime();
+                ob.open();
+                n = 0;
+                while (ob.hasNext()) {
+                    ob.next();
+                    n++;
+                }
+                spilled = ob.isSpilled();
+                ob.close();
+                best = Math.min(best, System.nanoTime() - start);
+                Database.getBufferPool().transactionComplete(tid);
+            }
+            System.out.printf("%d\t\t%s\t%.0f\t\t%d%n", budget, spilled, best / 1e6, n);
+        }
+        hf.getFile().delete();
+    }
+}
@@ -0,0 +1,72 @@
+package simpledb.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the CPU time and garbage of building HeapPages of a wide table
+ * (COLUMNS int fields) from their bytes and then: counting empty slots,
+ * reading one column with getField, or iterating over whole tuples.
+ * Before lazy decoding every page load cost as much as the last case.
+ *
+ * Run with: ant bench -Dbench=PageDecodeBench
+ */
+public class PageDecodeBench {
+
+    private static final int COLUMNS = 16;
+    private static final int PAGES = 64;
+    private static final int ROUNDS = 200;
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        int tuplesPerPage = BufferPool.getPageSize() * 8 / (COLUMNS * 4 * 8 + 1);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(COLUMNS, PAGES * tuplesPerPage,
+                null, null);
+        byte[][] raw = new byte[PAGES][];
+        HeapPageId[] pids = new HeapPageId[PAGES];
+        for (int i = 0; i < PAGES; i++) {
+            pids[i] = new HeapPageId(hf.getId(), i);
+            raw[i] = hf.readPage(pids[i]).getPageData();
+        }
+
+        System.out.println("access\t\tus/page\tbytes allocated/page");
+        for (String access : new String[] { "empty slots", "one column", "all tuples" }) {
+            // warm up
+            run(access, raw, pids, ROUNDS / 4);
+            com.sun.management.ThreadMXBean mx =
+                    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long tid = Thread.currentThread().getId();
+            long bytes = mx.getThreadAllocatedBytes(tid);
+            long start = System.nanoTime();
+            run(access, raw, pids, ROUNDS);
+            long n = (long) ROUNDS * PAGES;
+            System.out.printf("%-12s\t%.2f\t%d%n", access, (System.nanoTime() - start) / 1e3 / n,
+                    (mx.getThreadAllocatedBytes(tid) - bytes) / n);
+        }
+        hf.getFile().delete();
+    }
+
+    static long sink;
+
+    private static void run(String access, byte[][] raw, HeapPageId[] pids, int rounds)
+            throws Exception {
+        for (int r = 0; r < rounds; r++) {
+            for (int i = 0; i < raw.length; i++) {
+                HeapPage p = new HeapPage(pids[i], raw[i]);
+                if (access.equals("empty slots")) {
+                    sink += p.getNumEmptySlots();
+                } else if (access.equals("one column")) {
+                    for (int slot = 0; slot < 1000 && p.isSlotUsed(slot); slot++)
+                        sink += ((IntField) p.getField(slot, 3)).getValue();
+                } else {
+                    Iterator<Tuple> it = p.iterator();
+                    while (it.hasNext())
+                        sink += it.next().getField(3).hashCode();
+                }
+            }
+        }
+    }
+}
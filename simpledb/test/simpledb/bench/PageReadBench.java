@@ -0,0 +1,90 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures random page reads per second straight from a HeapFile, without
+ * the buffer pool. "open-per-read" is how readPage used to work (a new
+ * RandomAccessFile, seek, read and close for every page); "channel" is
+ * HeapFile.readPage on its persistent channel; "mapped" is readPage with
+ * memory mapped reads turned on.
+ *
+ * Run with: ant bench -Dbench=PageReadBench
+ */
+public class PageReadBench {
+
+    private static final int TABLE_PAGES = 256;
+    private static final int[] THREADS = { 1, 4, 16 };
+    private static final long RUN_MS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        int tuplesPerPage = BufferPool.getPageSize() * 8 / (8 * 8 + 1);
+        final HeapFile hf = SystemTestUtil.createRandomHeapFile(2, TABLE_PAGES * tuplesPerPage,
+                null, null);
+
+        System.out.println("mode\t\tthreads\treads/s");
+        for (String mode : new String[] { "open-per-read", "channel", "mapped" }) {
+            hf.setMemoryMapped(mode.equals("mapped"));
+            // warm up
+            run(hf, mode, 1, RUN_MS / 4);
+            for (int threads : THREADS) {
+                System.out.printf("%-14s\t%d\t%.0f%n", mode, threads,
+                        run(hf, mode, threads, RUN_MS));
+            }
+        }
+        hf.close();
+        hf.getFile().delete();
+    }
+
+    private static double run(final HeapFile hf, final String mode, int threads, long ms)
+            throws Exception {
+        final long end = System.currentTimeMillis() + ms;
+        final long[] reads = new long[threads];
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int me = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    Random r = new Random(me);
+                    try {
+                        while (System.currentTimeMillis() < end) {
+                            HeapPageId pid = new HeapPageId(hf.getId(), r.nextInt(TABLE_PAGES));
+                            if (mode.equals("open-per-read"))
+                                openPerRead(hf.getFile(), pid);
+                            else
+                                hf.readPage(pid);
+                            reads[me]++;
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread t : workers)
+            t.start();
+        for (Thread t : workers)
+            t.join();
+        double secs = (System.nanoTime() - start) / 1e9;
+        long total = 0;
+        for (long n : reads)
+            total += n;
+        return total / secs;
+    }
+
+    private static HeapPage openPerRead(File f, HeapPageId pid) throws Exception {
+        byte[] buffer = new byte[BufferPool.getPageSize()];
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        raf.seek((long) BufferPool.getPageSize() * pid.getPageNumber());
+        raf.read(buffer);
+        raf.close();
+        return new HeapPage(pid, buffer);
+    }
+}
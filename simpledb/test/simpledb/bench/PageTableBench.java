@@ -0,0 +1,73 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures BufferPool.getPage latency as the pool grows. For each pool
+ * size, a table with exactly that many pages is loaded into a pool of the
+ * same size, and then random pages are requested (all hits) and
+ * discarded/reloaded. With a hashed page table the per-lookup cost should
+ * stay flat regardless of the number of frames.
+ *
+ * Run with: ant bench -Dbench=PageTableBench
+ */
+public class PageTableBench {
+
+    // small pages so that large pools don't need a huge file
+    private static final int PAGE_SIZE = 128;
+    private static final int[] POOL_SIZES = {64, 1024, 8192, 32768};
+    private static final int LOOKUPS = 2000000;
+    private static final int RELOADS = 50000;
+
+    public static void main(String[] args) throws Exception {
+        BufferPool.setPageSize(PAGE_SIZE);
+        System.out.println("frames\thit ns/op\tdiscard+reload ns/op");
+        for (int frames : POOL_SIZES) {
+            Database.reset();
+            HeapFile hf = createTable(frames);
+            BufferPool bp = Database.resetBufferPool(frames);
+            TransactionId tid = new TransactionId();
+            PageId[] pids = new PageId[frames];
+            for (int i = 0; i < frames; i++) {
+                pids[i] = new HeapPageId(hf.getId(), i);
+                bp.getPage(tid, pids[i], Permissions.READ_ONLY);
+            }
+
+            Random r = new Random(0);
+            // warm up the JIT before timing
+            for (int i = 0; i < LOOKUPS / 4; i++)
+                bp.getPage(tid, pids[r.nextInt(frames)], Permissions.READ_ONLY);
+            long start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++)
+                bp.getPage(tid, pids[r.nextInt(frames)], Permissions.READ_ONLY);
+            double hitNs = (System.nanoTime() - start) / (double) LOOKUPS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < RELOADS; i++) {
+                PageId pid = pids[r.nextInt(frames)];
+                bp.discardPage(pid);
+                bp.getPage(tid, pid, Permissions.READ_ONLY);
+            }
+            double reloadNs = (System.nanoTime() - start) / (double) RELOADS;
+
+            System.out.printf("%d\t%.1f\t\t%.1f%n", frames, hitNs, reloadNs);
+            hf.getFile().delete();
+        }
+        BufferPool.resetPageSize();
+    }
+
+    /** Creates and registers a table of numPages empty pages. */
+    static HeapFile createTable(int numPages) throws IOException {
+        File f = File.createTempFile("bench", ".dat");
+        f.deleteOnExit();
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(f));
+        byte[] empty = new byte[PAGE_SIZE];
+        for (int i = 0; i < numPages; i++)
+            os.write(empty);
+        os.close();
+        return Utility.openHeapFile(2, f);
+    }
+}
@@ -0,0 +1,66 @@
+package simpledb.bench;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the time of a filtered scan over a table several times bigger
+ * than the pool, with and without read ahead. The filter burns WORK
+ * iterations per tuple to stand in for the operators above a scan, which
+ * is what the reads overlap with. Drop the OS page cache between runs
+ * (echo 3 > /proc/sys/vm/drop_caches) to see the effect of real I/O.
+ *
+ * Run with: ant bench -Dbench=ReadAheadBench
+ */
+public class ReadAheadBench {
+
+    private static final int POOL_PAGES = 256;
+    private static final int TABLE_PAGES = 4096;
+    private static final int RUNS = 3;
+    static int WORK = 200;
+    static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        int tuplesPerPage = BufferPool.getPageSize() * 8 / (2 * 4 * 8 + 1);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, TABLE_PAGES * tuplesPerPage,
+                null, null);
+
+        System.out.println("read ahead\tscan ms\tpages read ahead");
+        for (int run = 0; run < RUNS; run++) {
+            for (boolean on : new boolean[] { false, true }) {
+                BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+                bp.setReadAheadEnabled(on);
+                long start = System.nanoTime();
+                int n = scan(hf);
+                System.out.printf("%s\t\t%.1f\t%d\t(%d tuples)%n", on ? "on" : "off",
+                        (System.nanoTime() - start) / 1e6, bp.getPrefetchCount(), n);
+            }
+        }
+        hf.getFile().delete();
+    }
+
+    private static int scan(HeapFile hf) throws Exception {
+        TransactionId tid = new TransactionId();
+        Filter f = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(0)) {
+            private static final long serialVersionUID = 1L;
+
+            public boolean filter(Tuple t) {
+                long x = 0;
+                for (int i = 0; i < WORK; i++)
+                    x += i * 31 ^ x;
+                sink = x;
+                return super.filter(t);
+            }
+        }, new SeqScan(tid, hf.getId()));
+        f.open();
+        int n = 0;
+        while (f.hasNext()) {
+            f.next();
+            n++;
+        }
+        f.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+}
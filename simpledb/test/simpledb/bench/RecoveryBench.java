@@ -0,0 +1,116 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Crash test harness for recovery time. Workers move random tuples of
+ * their own tables in small transactions (NO-FORCE, so committed pages
+ * stay in the pool); after RUN_MS the database "crashes" with
+ * transactions in flight: the pool is thrown away without flushing. The
+ * crashed files are saved, and time-to-ready (reset, reopening the
+ * tables, recover()) is measured from the same crash state for several
+ * numbers of recovery threads.
+ *
+ * Run with: ant bench -Dbench=RecoveryBench
+ */
+public class RecoveryBench {
+
+    private static final int TABLES = 8;
+    private static final int TABLE_PAGES = 128;
+    private static final int POOL_PAGES = 2048;
+    private static final long RUN_MS = 3000;
+    private static final int[] THREADS = { 1, 2, 4, 8 };
+
+    private static volatile boolean crashed = false;
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        final BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        int tuplesPerPage = BufferPool.getPageSize() * 8 / (8 * 8 + 1);
+        final HeapFile[] tables = new HeapFile[TABLES];
+        for (int i = 0; i < TABLES; i++) {
+            tables[i] = SystemTestUtil.createRandomHeapFile(2, TABLE_PAGES * tuplesPerPage,
+                    null, null);
+        }
+
+        final long[] commits = new long[TABLES];
+        Thread[] workers = new Thread[TABLES];
+        for (int w = 0; w < TABLES; w++) {
+            final int me = w;
+            final HeapFile hf = tables[w];
+            workers[w] = new Thread() {
+                public void run() {
+                    Random r = new Random(me);
+                    try {
+                        while (true) {
+                            Transaction t = new Transaction();
+                            t.start();
+                            PageId pid = new HeapPageId(hf.getId(), r.nextInt(TABLE_PAGES));
+                            HeapPage p = (HeapPage) bp.getPage(t.getId(), pid,
+                                    Permissions.READ_WRITE);
+                            Iterator<Tuple> it = p.iterator();
+                            if (it.hasNext()) {
+                                Tuple tup = it.next();
+                                bp.deleteTuple(t.getId(), tup);
+                                bp.insertTuple(t.getId(), hf.getId(), tup);
+                            }
+                            // crash with this transaction still running
+                            if (crashed)
+                                return;
+                            t.commit();
+                            commits[me]++;
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            workers[w].start();
+        }
+        Thread.sleep(RUN_MS);
+        crashed = true;
+        for (Thread t : workers)
+            t.join();
+        long total = 0;
+        for (long c : commits)
+            total += c;
+
+        // save the crashed state: table files and log
+        File log = new File("log");
+        ArrayList<File> files = new ArrayList<File>();
+        for (HeapFile hf : tables)
+            files.add(hf.getFile());
+        files.add(log);
+        ArrayList<File> saved = new ArrayList<File>();
+        for (File f : files) {
+            File copy = File.createTempFile("crashed", ".dat");
+            copy.deleteOnExit();
+            Files.copy(f.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            saved.add(copy);
+        }
+        System.out.printf("%d committed transactions, %d in flight, log %d KB%n", total,
+                TABLES, log.length() / 1024);
+
+        System.out.println("threads\ttime-to-ready ms");
+        for (int threads : THREADS) {
+            for (int i = 0; i < files.size(); i++)
+                Files.copy(saved.get(i).toPath(), files.get(i).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            long start = System.nanoTime();
+            Database.reset();
+            for (HeapFile hf : tables)
+                Utility.openHeapFile(2, hf.getFile());
+            Database.getLogFile().setRecoveryThreads(threads);
+            Database.getLogFile().recover();
+            System.out.printf("%d\t%.1f%n", threads, (System.nanoTime() - start) / 1e6);
+        }
+        for (HeapFile hf : tables)
+            hf.getFile().delete();
+    }
+}
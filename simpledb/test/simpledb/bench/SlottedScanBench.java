@@ -0,0 +1,78 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Loads the same rows of an int and a short string (8 to 24 characters)
+ * into a HeapFile and a SlottedFile, then scans each from a cold pool
+ * and reports pages, rows per page and scan time.
+ *
+ * Run with: ant bench -Dbench=SlottedScanBench
+ */
+public class SlottedScanBench {
+
+    private static final int ROWS = 200000;
+    private static final int POOL_PAGES = 1000;
+    private static final int SCANS = 5;
+
+    public static void main(String[] args) throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Random r = new Random(0);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            char[] s = new char[8 + r.nextInt(17)];
+            for (int j = 0; j < s.length; j++)
+                s[j] = (char) ('a' + r.nextInt(26));
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(new String(s), Type.STRING_LEN));
+            tuples.add(t);
+        }
+        System.out.println("layout\tpages\trows/page\tscan ms");
+        run(false, td, tuples);
+        run(true, td, tuples);
+    }
+
+    private static void run(boolean slotted, TupleDesc td, ArrayList<Tuple> tuples)
+            throws Exception {
+        Database.reset();
+        File f = File.createTempFile("slottedscan", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = slotted ? new SlottedFile(f, td) : new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, "t");
+        Database.resetBufferPool(POOL_PAGES);
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuples(t.getId(), hf.getId(), tuples);
+        t.commit();
+        Database.getBufferPool().flushAllPages();
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < SCANS; i++) {
+            Database.resetBufferPool(POOL_PAGES);
+            long start = System.nanoTime();
+            TransactionId tid = new TransactionId();
+            SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+            scan.open();
+            int n = 0;
+            while (scan.hasNext()) {
+                scan.next();
+                n++;
+            }
+            scan.close();
+            Database.getBufferPool().transactionComplete(tid);
+            if (n != tuples.size())
+                throw new RuntimeException("scan returned " + n + " rows");
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%s\t%d\t%.1f\t\t%.1f%n", slotted ? "slotted" : "heap",
+                hf.numPages(), (double) tuples.size() / hf.numPages(), best / 1e6);
+        hf.close();
+        f.delete();
+        new File(f.getPath() + ".fsm").delete();
+    }
+}
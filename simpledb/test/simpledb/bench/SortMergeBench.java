@@ -0,0 +1,64 @@
+package simpledb.bench;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Joins two tables of ROWS rows each on a range predicate (t1.f0 &lt;
+ * t2.f0, with t2 values small so the result is small) and on equality,
+ * with the block nested-loop Join, SortMergeJoin (both inputs bigger than
+ * the memory budget, so the sorts spill), and for equality HashEquiJoin.
+ *
+ * Run with: ant bench -Dbench=SortMergeBench
+ */
+public class SortMergeBench {
+
+    private static final int ROWS = 100000;
+    private static final int POOL_PAGES = 1000;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000000, null, null);
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, ROWS, 100, null, null);
+        HeapFile t2 = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000000, null, null);
+        System.out.println("predicate\tjoin\t\tms (best of " + RUNS + ")\tresult rows");
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.LESS_THAN, Predicate.Op.EQUALS }) {
+            HeapFile right = op == Predicate.Op.EQUALS ? t2 : small;
+            JoinPredicate pred = new JoinPredicate(0, op, 0);
+            for (String kind : new String[] { "Join", "SortMergeJoin", "HashEquiJoin" }) {
+                if (kind.equals("HashEquiJoin") && op != Predicate.Op.EQUALS)
+                    continue;
+                long best = Long.MAX_VALUE;
+                long n = 0;
+                for (int r = 0; r < RUNS; r++) {
+                    Database.resetBufferPool(POOL_PAGES);
+                    TransactionId tid = new TransactionId();
+                    DbIterator a = new SeqScan(tid, t1.getId(), "a");
+                    DbIterator b = new SeqScan(tid, right.getId(), "b");
+                    DbIterator join;
+                    if (kind.equals("Join"))
+                        join = new Join(pred, a, b);
+                    else if (kind.equals("SortMergeJoin"))
+                        join = new SortMergeJoin(pred, a, b);
+                    else
+                        join = new HashEquiJoin(pred, a, b);
+                    long start = System.nanoTime();
+                    join.open();
+                    n = 0;
+                    while (join.hasNext()) {
+                        join.next();
+                        n++;
+                    }
+                    join.close();
+                    best = Math.min(best, System.nanoTime() - start);
+                    Database.getBufferPool().transactionComplete(tid);
+                }
+                System.out.printf("%s\t\t%-13s\t%.0f\t\t%d%n", op, kind, best / 1e6, n);
+            }
+        }
+        t1.getFile().delete();
+        small.getFile().delete();
+        t2.getFile().delete();
+    }
+}
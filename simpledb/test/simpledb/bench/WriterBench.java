@@ -0,0 +1,89 @@
+package simpledb.bench;
+
+import java.util.*;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures how often a reader has to write someone else's dirty page when
+ * it evicts, with and without the background writer. An updater moves
+ * random tuples of one table in small transactions while a reader does
+ * random page reads of another table bigger than the pool. The writer runs
+ * with its default dirty target and with a target of 0 (write every page
+ * as soon as its transaction is done).
+ *
+ * Run with: ant bench -Dbench=WriterBench
+ */
+public class WriterBench {
+
+    private static final int POOL_PAGES = 256;
+    private static final int UPDATE_PAGES = 200;
+    private static final int READ_PAGES = 1024;
+    private static final long RUN_MS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("writer\t\treads\tp99 read ms\tdirty evictions\twriter pages/s\tpages/write");
+        run(false, 0);
+        run(true, BufferPool.WRITER_DIRTY_TARGET);
+        run(true, 0);
+    }
+
+    private static void run(boolean on, double target) throws Exception {
+        Database.reset();
+        int tuplesPerPage = BufferPool.getPageSize() * 8 / (2 * 4 * 8 + 1);
+        final HeapFile updated = SystemTestUtil.createRandomHeapFile(2,
+                UPDATE_PAGES * tuplesPerPage, null, null);
+        final HeapFile read = SystemTestUtil.createRandomHeapFile(2,
+                READ_PAGES * tuplesPerPage, null, null);
+        final BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        bp.setBackgroundWriter(on, target);
+        bp.setReadAheadEnabled(false);
+
+        final long end = System.currentTimeMillis() + RUN_MS;
+        Thread updater = new Thread() {
+            public void run() {
+                Random r = new Random(1);
+                try {
+                    while (System.currentTimeMillis() < end) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        PageId pid = new HeapPageId(updated.getId(), r.nextInt(UPDATE_PAGES));
+                        HeapPage p = (HeapPage) bp.getPage(t.getId(), pid, Permissions.READ_WRITE);
+                        Iterator<Tuple> it = p.iterator();
+                        if (it.hasNext()) {
+                            Tuple tup = it.next();
+                            bp.deleteTuple(t.getId(), tup);
+                            bp.insertTuple(t.getId(), updated.getId(), tup);
+                        }
+                        t.commit();
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        updater.start();
+
+        ArrayList<Long> latencies = new ArrayList<Long>();
+        Random r = new Random(2);
+        while (System.currentTimeMillis() < end) {
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            bp.getPage(tid, new HeapPageId(read.getId(), r.nextInt(READ_PAGES)),
+                    Permissions.READ_ONLY);
+            latencies.add(System.nanoTime() - start);
+            bp.transactionComplete(tid);
+        }
+        updater.join();
+
+        Collections.sort(latencies);
+        long[] evictions = bp.getEvictionCounts();
+        System.out.printf("%s\t\t%d\t%.3f\t\t%d/%d\t\t%.0f\t\t%.1f%n", on ? "on/" + target : "off",
+                latencies.size(), latencies.get((int) (latencies.size() * 0.99)) / 1e6,
+                evictions[1], evictions[0], bp.getWriterThroughput(),
+                bp.getWriterPageCount() / (double) Math.max(1, bp.getWriterWriteCount()));
+        updated.getFile().delete();
+        read.getFile().delete();
+    }
+}
@@ -68,6 +68,66 @@ public class InsertTest extends SimpleDbTestBase {
         validateInsert(1, 1, 1);
     }
 
+    @Test public void testManyToSome()
+            throws IOException, DbException, TransactionAbortedException {
+        // several batches, through the bulk path
+        validateInsert(2, Insert.BATCH_SIZE * 2 + 100, 700);
+    }
+
+    /**
+     * Inserters racing for the same pages with the free space map wait for
+     * each other's locks; none of them is chosen as a deadlock victim.
+     */
+    @Test public void concurrentInserts() throws Exception {
+        final HeapFile table = SystemTestUtil.createRandomHeapFile(2, 600, null, null);
+        final int threads = 4, perThread = 100;
+        final int[] aborted = new int[1];
+        Thread[] workers = new Thread[threads];
+        for (int w = 0; w < threads; w++) {
+            final int id = w;
+            workers[w] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        try {
+                            Database.getBufferPool().insertTuple(t.getId(), table.getId(),
+                                    Utility.getHeapTuple(new int[] { id, i }));
+                            t.commit();
+                        } catch (TransactionAbortedException e) {
+                            synchronized (aborted) {
+                                aborted[0]++;
+                            }
+                            try {
+                                t.abort();
+                            } catch (IOException e2) {
+                                throw new RuntimeException(e2);
+                            }
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            };
+            workers[w].start();
+        }
+        for (Thread w : workers)
+            w.join();
+        assertEquals(0, aborted[0]);
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "");
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(600 + threads * perThread, n);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(InsertTest.class);